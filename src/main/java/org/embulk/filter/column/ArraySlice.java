@@ -0,0 +1,73 @@
+package org.embulk.filter.column;
+
+import org.embulk.config.ConfigException;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// A range of array elements in JSONPath (like) name, as [start:end], [:end], [start:], or [-n].
+// Negative positions count from the end of the array, and end is exclusive.
+public class ArraySlice
+{
+    private static final Pattern SLICE = Pattern.compile("\\[(-?\\d*):(-?\\d*)\\]");
+    private static final Pattern NEGATIVE_INDEX = Pattern.compile("\\[(-\\d+)\\]");
+
+    private final Long start; // NOTE: null for the head
+    private final Long end;   // NOTE: null for the tail
+    private final boolean range; // NOTE: false for [-n] which selects an element
+
+    private ArraySlice(Long start, Long end, boolean range)
+    {
+        this.start = start;
+        this.end = end;
+        this.range = range;
+    }
+
+    // Returns null if baseName is not a slice nor a negative index
+    public static ArraySlice parse(String baseName)
+    {
+        Matcher matcher = SLICE.matcher(baseName);
+        if (matcher.matches()) {
+            try {
+                Long start = matcher.group(1).isEmpty() ? null : Long.valueOf(matcher.group(1));
+                Long end = matcher.group(2).isEmpty() ? null : Long.valueOf(matcher.group(2));
+                return new ArraySlice(start, end, true);
+            }
+            catch (NumberFormatException ex) {
+                throw new ConfigException(String.format("%s is not a valid slice", baseName));
+            }
+        }
+        matcher = NEGATIVE_INDEX.matcher(baseName);
+        if (matcher.matches()) {
+            long index = Long.parseLong(matcher.group(1));
+            return new ArraySlice(index, index == -1 ? null : index + 1, false);
+        }
+        return null;
+    }
+
+    public boolean isRange()
+    {
+        return range;
+    }
+
+    // inclusive
+    public int from(int size)
+    {
+        return position(start, size, 0);
+    }
+
+    // exclusive
+    public int to(int size)
+    {
+        return Math.max(from(size), position(end, size, size));
+    }
+
+    private static int position(Long position, int size, int defaultPosition)
+    {
+        if (position == null) {
+            return defaultPosition;
+        }
+        long p = position < 0 ? size + position : position;
+        return (int) Math.max(0L, Math.min(size, p));
+    }
+}
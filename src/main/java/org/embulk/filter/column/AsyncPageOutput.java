@@ -0,0 +1,163 @@
+package org.embulk.filter.column;
+
+import com.google.common.base.Throwables;
+
+import org.embulk.spi.Exec;
+import org.embulk.spi.ExecAction;
+import org.embulk.spi.ExecSession;
+import org.embulk.spi.Page;
+import org.embulk.spi.PageOutput;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+
+// Hands pages over to the downstream output on a dedicated emitter thread.
+// The bounded queue gives backpressure: add() blocks while the downstream is behind.
+public class AsyncPageOutput implements PageOutput
+{
+    private static final Object FINISH = new Object();
+
+    private final PageOutput output;
+    private final BlockingQueue<Object> queue;
+    private final Thread emitter;
+    private volatile Throwable error = null;
+    private boolean finishing = false; // accessed only by the emitter thread
+
+    public AsyncPageOutput(PageOutput output, int queueSize)
+    {
+        this.output = output;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        final ExecSession session = Exec.session();
+        this.emitter = new Thread(new Runnable() {
+            @Override
+            public void run()
+            {
+                try {
+                    Exec.doWith(session, new ExecAction<Void>() {
+                        @Override
+                        public Void run()
+                        {
+                            emit();
+                            return null;
+                        }
+                    });
+                }
+                catch (ExecutionException ex) {
+                    fail(ex.getCause());
+                }
+                catch (RuntimeException | Error ex) {
+                    fail(ex);
+                }
+            }
+        }, "embulk-filter-column-emitter");
+        this.emitter.setDaemon(true);
+        this.emitter.start();
+    }
+
+    private void emit()
+    {
+        while (true) {
+            Object element;
+            try {
+                element = queue.take();
+            }
+            catch (InterruptedException ex) {
+                return; // closed without finish
+            }
+            if (element == FINISH) {
+                finishing = true;
+                output.finish();
+                return;
+            }
+            output.add((Page) element);
+        }
+    }
+
+    private void fail(Throwable t)
+    {
+        error = t;
+        if (! finishing) {
+            drain();
+        }
+    }
+
+    // Keep consuming after a failure so that add() never blocks forever on a full queue
+    private void drain()
+    {
+        while (true) {
+            Object element;
+            try {
+                element = queue.take();
+            }
+            catch (InterruptedException ex) {
+                return;
+            }
+            if (element == FINISH) {
+                return;
+            }
+            ((Page) element).release();
+        }
+    }
+
+    private void propagateError()
+    {
+        Throwable t = error;
+        if (t != null) {
+            throw Throwables.propagate(t);
+        }
+    }
+
+    @Override
+    public void add(Page page)
+    {
+        if (error != null) {
+            page.release(); // the emitter already failed, and never takes it
+            propagateError();
+        }
+        try {
+            queue.put(page);
+        }
+        catch (InterruptedException ex) {
+            page.release();
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(ex);
+        }
+    }
+
+    @Override
+    public void finish()
+    {
+        try {
+            queue.put(FINISH);
+            emitter.join();
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(ex);
+        }
+        propagateError();
+    }
+
+    @Override
+    public void close()
+    {
+        try {
+            if (emitter.isAlive()) {
+                emitter.interrupt();
+                emitter.join();
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            for (Object element = queue.poll(); element != null; element = queue.poll()) {
+                if (element != FINISH) {
+                    ((Page) element).release();
+                }
+            }
+            output.close();
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package org.embulk.filter.column;
 
 import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 
 import org.embulk.config.Config;
@@ -20,12 +21,25 @@ import org.embulk.spi.PageReader;
 import org.embulk.spi.Schema;
 import org.embulk.spi.SchemaConfigException;
 import org.embulk.spi.time.TimestampParser;
+import org.embulk.spi.type.JsonType;
+import org.embulk.spi.type.StringType;
+import org.embulk.spi.type.TimestampType;
 import org.embulk.spi.type.Type;
+import org.embulk.spi.type.Types;
 
 import org.joda.time.DateTimeZone;
+import org.msgpack.value.Value;
+import org.msgpack.value.ValueFactory;
 import org.slf4j.Logger;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.UUID;
 
 public class ColumnFilterPlugin implements FilterPlugin
 {
@@ -57,9 +71,70 @@ public class ColumnFilterPlugin implements FilterPlugin
         @ConfigDefault("null")
         public Optional<DateTimeZone> getTimeZone();
 
+        @Config("to_timezone")
+        @ConfigDefault("null")
+        public Optional<DateTimeZone> getToTimeZone(); // convert a timestamp column into local time of the timezone
+
         @Config("src")
         @ConfigDefault("null")
         public Optional<String> getSrc();
+
+        @Config("expr")
+        @ConfigDefault("null")
+        public Optional<String> getExpr();
+
+        @Config("generator")
+        @ConfigDefault("null")
+        public Optional<String> getGenerator(); // sequence, row_number, or fingerprint
+
+        @Config("keys")
+        @ConfigDefault("[]")
+        public List<String> getKeys(); // input columns hashed by generator: fingerprint
+
+        @Config("drop_nulls")
+        @ConfigDefault("false")
+        public boolean getDropNulls(); // remove nil values in type: json recursively
+
+        @Config("drop_empty")
+        @ConfigDefault("false")
+        public boolean getDropEmpty(); // remove maps and arrays which are empty in type: json recursively
+
+        @Config("max_bytes")
+        @ConfigDefault("null")
+        public Optional<Integer> getMaxBytes(); // of type: string or json
+
+        @Config("max_depth")
+        @ConfigDefault("null")
+        public Optional<Integer> getMaxDepth(); // of type: json
+
+        @Config("on_overflow")
+        @ConfigDefault("\"truncate\"")
+        public String getOnOverflow(); // truncate, null, or skip for values over max_bytes or max_depth
+    }
+
+    interface WhereConfig extends Task
+    {
+        @Config("column")
+        public String getColumn();
+
+        @Config("operator")
+        public String getOperator();
+
+        @Config("value")
+        @ConfigDefault("null")
+        public Optional<Object> getValue();
+
+        @Config("values")
+        @ConfigDefault("[]")
+        public List<Object> getValues(); // for in and not_in
+
+        @Config("format")
+        @ConfigDefault("null")
+        public Optional<String> getFormat();
+
+        @Config("timezone")
+        @ConfigDefault("null")
+        public Optional<DateTimeZone> getTimeZone();
     }
 
     interface PluginTask extends Task, TimestampParser.Task
@@ -76,6 +151,134 @@ public class ColumnFilterPlugin implements FilterPlugin
         @ConfigDefault("[]")
         public List<ColumnConfig> getDropColumns();
 
+        @Config("where")
+        @ConfigDefault("[]")
+        public List<WhereConfig> getWhere();
+
+        @Config("explode")
+        @ConfigDefault("null")
+        public Optional<String> getExplode(); // json path of an array such as $.payload.items[*]
+
+        @Config("explode_name")
+        @ConfigDefault("null")
+        public Optional<String> getExplodeName(); // the last name of explode by default
+
+        @Config("explode_index")
+        @ConfigDefault("null")
+        public Optional<String> getExplodeIndex();
+
+        @Config("sample_rate")
+        @ConfigDefault("null")
+        public Optional<Double> getSampleRate();
+
+        @Config("sample_keys")
+        @ConfigDefault("[]")
+        public List<String> getSampleKeys();
+
+        @Config("sample_seed")
+        @ConfigDefault("0")
+        public long getSampleSeed();
+
+        @Config("dedupe_keys")
+        @ConfigDefault("[]")
+        public List<String> getDedupeKeys();
+
+        @Config("dedupe_method")
+        @ConfigDefault("\"bloom\"")
+        public String getDedupeMethod(); // bloom or exact
+
+        @Config("dedupe_expected_keys")
+        @ConfigDefault("1000000")
+        public long getDedupeExpectedKeys(); // for bloom
+
+        @Config("dedupe_false_positive_rate")
+        @ConfigDefault("0.001")
+        public double getDedupeFalsePositiveRate(); // for bloom
+
+        @Config("dedupe_max_memory_mb")
+        @ConfigDefault("64")
+        public int getDedupeMaxMemoryMb();
+
+        @Config("on_error")
+        @ConfigDefault("\"fail\"")
+        public String getOnError(); // fail, null, or skip for malformed type: json values
+
+        @Config("on_coerce_error")
+        @ConfigDefault("\"keep\"")
+        public String getOnCoerceError(); // keep, null, or error for json values which cannot be converted into the type
+
+        @Config("engine")
+        @ConfigDefault("\"record\"")
+        public String getEngine();
+
+        @Config("shadow_engine")
+        @ConfigDefault("null")
+        public Optional<String> getShadowEngine(); // columnar, compared with engine: record
+
+        @Config("shadow_sample_rate")
+        @ConfigDefault("0.01")
+        public double getShadowSampleRate();
+
+        @Config("string_dictionary")
+        @ConfigDefault("false")
+        public boolean getStringDictionary();
+
+        @Config("string_dictionary_size")
+        @ConfigDefault("1024")
+        public int getStringDictionarySize();
+
+        @Config("json_intern_cache")
+        @ConfigDefault("false")
+        public boolean getJsonInternCache();
+
+        @Config("json_intern_cache_size")
+        @ConfigDefault("1024")
+        public int getJsonInternCacheSize();
+
+        @Config("json_parallel_threshold")
+        @ConfigDefault("null")
+        public Optional<Integer> getJsonParallelThreshold();
+
+        @Config("async_output")
+        @ConfigDefault("false")
+        public boolean getAsyncOutput();
+
+        @Config("async_output_queue_size")
+        @ConfigDefault("16")
+        public int getAsyncOutputQueueSize();
+
+        @Config("stats")
+        @ConfigDefault("false")
+        public boolean getStats();
+
+        @Config("stats_path")
+        @ConfigDefault("null")
+        public Optional<String> getStatsPath();
+
+        @Config("auto_drop_null_columns")
+        @ConfigDefault("false")
+        public boolean getAutoDropNullColumns();
+
+        @Config("null_columns_path")
+        @ConfigDefault("null")
+        public Optional<String> getNullColumnsPath(); // state of auto_drop_null_columns
+
+        @Config("explain")
+        @ConfigDefault("false")
+        public boolean getExplain();
+
+        @Config("sequence_block_size")
+        @ConfigDefault("1024")
+        public int getSequenceBlockSize();
+
+        // Identifies the run to share state among tasks, set in transaction()
+        public String getRunId();
+        public void setRunId(String runId);
+
+        // Input columns whose copies are dropped by auto_drop_null_columns, set in transaction()
+        public List<String> getDroppedNullColumns();
+        public void setDroppedNullColumns(List<String> droppedNullColumns);
+
         // See TimestampParser for default_timestamp_format, and default_timezone
     }
 
@@ -85,13 +288,57 @@ public class ColumnFilterPlugin implements FilterPlugin
     {
         PluginTask task = config.loadConfig(PluginTask.class);
 
-        configure(task);
+        configure(task, inputSchema);
         Schema outputSchema = buildOutputSchema(task, inputSchema);
+        if (task.getAutoDropNullColumns()) {
+            Set<String> nullColumns = NullColumnTracker.load(task);
+            task.setDroppedNullColumns(NullColumnTracker.droppedInputNames(task, inputSchema, outputSchema, nullColumns));
+            outputSchema = NullColumnTracker.dropNullColumns(task, inputSchema, outputSchema, nullColumns);
+        }
+        if (task.getExplain()) {
+            for (String line : PlanExplainer.explain(task, inputSchema, outputSchema)) {
+                logger.info("explain: {}", line);
+            }
+        }
+
+        String runId = UUID.randomUUID().toString();
+        task.setRunId(runId);
+        SequenceGenerator.register(runId);
+        try {
+            control.run(task.dump(), outputSchema);
+            if (task.getStats()) {
+                reportStats(task, ColumnStats.collect(runId, outputSchema));
+            }
+            if (task.getAutoDropNullColumns()) {
+                NullColumnTracker.save(task, inputSchema, runId);
+            }
+        }
+        finally {
+            SequenceGenerator.release(runId);
+            ColumnStats.forget(runId);
+            NullColumnTracker.forget(runId);
+        }
+    }
 
-        control.run(task.dump(), outputSchema);
+    private void reportStats(PluginTask task, ColumnStats[] stats)
+    {
+        Value[] columns = new Value[stats.length];
+        for (int i = 0; i < stats.length; i++) {
+            columns[i] = stats[i].toValue();
+            logger.info("stats: {}", columns[i].toJson());
+        }
+        if (task.getStatsPath().isPresent()) {
+            String json = ValueFactory.newMap(ValueFactory.newString("columns"), ValueFactory.newArray(columns)).toJson();
+            try {
+                Files.write(Paths.get(task.getStatsPath().get()), json.getBytes(StandardCharsets.UTF_8));
+            }
+            catch (IOException ex) {
+                throw Throwables.propagate(ex);
+            }
+        }
     }
 
-    private void configure(PluginTask task)
+    private void configure(PluginTask task, Schema inputSchema)
     {
         List<ColumnConfig> columns = task.getColumns();
         List<ColumnConfig> addColumns = task.getAddColumns();
@@ -100,6 +347,74 @@ public class ColumnFilterPlugin implements FilterPlugin
         if (columns.size() > 0 && dropColumns.size() > 0) {
             throw new ConfigException("Either of \"columns\", \"drop_columns\" can be specified.");
         }
+        if (! task.getEngine().equals("record") && ! task.getEngine().equals("columnar")) {
+            throw new ConfigException(String.format("engine: '%s' is not supported, use \"record\" or \"columnar\"", task.getEngine()));
+        }
+        if (task.getShadowEngine().isPresent()) {
+            if (! task.getShadowEngine().get().equals("columnar")) {
+                throw new ConfigException(String.format("shadow_engine: '%s' is not supported, use \"columnar\"", task.getShadowEngine().get()));
+            }
+            if (! task.getEngine().equals("record") || task.getExplode().isPresent()) {
+                throw new ConfigException("\"shadow_engine\" requires engine: record without explode, whose output is the reference");
+            }
+            double rate = task.getShadowSampleRate();
+            if (rate <= 0.0 || rate > 1.0) {
+                throw new ConfigException(String.format("shadow_sample_rate must be greater than 0.0, and less than or equal to 1.0, but %s is given", rate));
+            }
+        }
+        if (! task.getOnError().equals("fail") && ! task.getOnError().equals("null") && ! task.getOnError().equals("skip")) {
+            throw new ConfigException(String.format("on_error: '%s' is not supported, use \"fail\", \"null\", or \"skip\"", task.getOnError()));
+        }
+        if (! task.getOnCoerceError().equals("keep") && ! task.getOnCoerceError().equals("null") && ! task.getOnCoerceError().equals("error")) {
+            throw new ConfigException(String.format("on_coerce_error: '%s' is not supported, use \"keep\", \"null\", or \"error\"", task.getOnCoerceError()));
+        }
+        if (task.getAsyncOutputQueueSize() < 1) {
+            throw new ConfigException("\"async_output_queue_size\" must be greater than 0");
+        }
+        if (task.getJsonInternCacheSize() < 1) {
+            throw new ConfigException("\"json_intern_cache_size\" must be greater than 0");
+        }
+        if (task.getJsonParallelThreshold().isPresent() && task.getJsonParallelThreshold().get() < 1) {
+            throw new ConfigException("\"json_parallel_threshold\" must be greater than 0");
+        }
+        if (task.getSequenceBlockSize() < 1) {
+            throw new ConfigException("\"sequence_block_size\" must be greater than 0");
+        }
+        List<ColumnConfig> limitedColumns = new ArrayList<>(columns);
+        limitedColumns.addAll(addColumns);
+        for (ColumnConfig column : limitedColumns) {
+            if (column.getMaxBytes().isPresent() && column.getMaxBytes().get() < 1) {
+                throw new ConfigException(String.format("Column '%s': \"max_bytes\" must be greater than 0", column.getName()));
+            }
+            if (column.getMaxDepth().isPresent() && column.getMaxDepth().get() < 1) {
+                throw new ConfigException(String.format("Column '%s': \"max_depth\" must be greater than 0", column.getName()));
+            }
+            String onOverflow = column.getOnOverflow();
+            if (! onOverflow.equals("truncate") && ! onOverflow.equals("null") && ! onOverflow.equals("skip")) {
+                throw new ConfigException(String.format("Column '%s': on_overflow: '%s' is not supported, use \"truncate\", \"null\", or \"skip\"", column.getName(), onOverflow));
+            }
+            if (column.getToTimeZone().isPresent()) {
+                if (column.getName().startsWith("$.") || (column.getSrc().isPresent() && column.getSrc().get().startsWith("$."))
+                        || column.getExpr().isPresent() || column.getGenerator().isPresent()) {
+                    throw new ConfigException(String.format("Column '%s': \"to_timezone\" is not available with JSONPath name, \"expr\", or \"generator\"", column.getName()));
+                }
+                if (column.getType().isPresent() && column.getType().get() instanceof StringType) {
+                    // compile once to raise ConfigException for an unsupported format
+                    new TimeZoneConverter(column.getToTimeZone().get(), column.getFormat().or(task.getDefaultTimestampFormat()));
+                }
+            }
+        }
+        if (task.getAutoDropNullColumns() && ! task.getNullColumnsPath().isPresent()) {
+            throw new ConfigException("\"auto_drop_null_columns\" requires \"null_columns_path\"");
+        }
+        if (task.getExplode().isPresent()) {
+            Exploder.inputColumn(new JsonPathLookup(Exploder.arrayPath(task.getExplode().get())), inputSchema);
+        }
+        else if (task.getExplodeName().isPresent() || task.getExplodeIndex().isPresent()) {
+            throw new ConfigException("\"explode_name\" and \"explode_index\" require \"explode\"");
+        }
+        // compile once to raise ConfigException before running tasks
+        buildRecordFilters(task, inputSchema);
     }
 
     static Schema buildOutputSchema(PluginTask task, Schema inputSchema)
@@ -133,6 +448,14 @@ public class ColumnFilterPlugin implements FilterPlugin
         }
         else if (columns.size() > 0) {
             for (ColumnConfig column : columns) {
+                if (column.getExpr().isPresent()) {
+                    builder.add(buildExprColumn(i++, column, inputSchema, "columns"));
+                    continue;
+                }
+                if (column.getGenerator().isPresent()) {
+                    builder.add(buildGeneratorColumn(i++, column, inputSchema, "columns"));
+                    continue;
+                }
                 // skip json path notation to build output schema
                 if (column.getName().startsWith("$.")) {
                     continue;
@@ -155,7 +478,7 @@ public class ColumnFilterPlugin implements FilterPlugin
                     inputColumn = null;
                 }
                 if (inputColumn != null) { // filter or copy column
-                    Column outputColumn = new Column(i++, name, inputColumn.getType());
+                    Column outputColumn = new Column(i++, name, copyType(column, inputColumn, "columns"));
                     builder.add(outputColumn);
                 }
                 else if (type.isPresent() && defaultValue.isPresent()) { // add column
@@ -177,6 +500,14 @@ public class ColumnFilterPlugin implements FilterPlugin
         // Add columns to last. If you want to add to head or middle, you can use `columns` option
         if (addColumns.size() > 0) {
             for (ColumnConfig column : addColumns) {
+                if (column.getExpr().isPresent()) {
+                    builder.add(buildExprColumn(i++, column, inputSchema, "add_columns"));
+                    continue;
+                }
+                if (column.getGenerator().isPresent()) {
+                    builder.add(buildGeneratorColumn(i++, column, inputSchema, "add_columns"));
+                    continue;
+                }
                 // skip json path notation to build output schema
                 if (column.getName().startsWith("$.")) {
                     continue;
@@ -202,7 +533,7 @@ public class ColumnFilterPlugin implements FilterPlugin
                     }
                 }
                 if (inputColumn != null) { // copy column
-                    Column outputColumn = new Column(i++, name, inputColumn.getType());
+                    Column outputColumn = new Column(i++, name, copyType(column, inputColumn, "add_columns"));
                     builder.add(outputColumn);
                 }
                 else if (type.isPresent() && defaultValue.isPresent()) { // add column
@@ -215,29 +546,164 @@ public class ColumnFilterPlugin implements FilterPlugin
             }
         }
 
+        if (task.getExplode().isPresent()) {
+            List<Column> outputColumns = builder.build();
+            addExplodeColumn(builder, outputColumns, new Column(i++, Exploder.elementName(task), Types.JSON));
+            if (task.getExplodeIndex().isPresent()) {
+                addExplodeColumn(builder, outputColumns, new Column(i++, task.getExplodeIndex().get(), Types.LONG));
+            }
+        }
+
         return new Schema(builder.build());
     }
 
+    private static void addExplodeColumn(ImmutableList.Builder<Column> builder, List<Column> outputColumns, Column column)
+    {
+        for (Column outputColumn : outputColumns) {
+            if (outputColumn.getName().equals(column.getName())) {
+                throw new SchemaConfigException(String.format("explode: Column '%s' already exists in outputSchema", column.getName()));
+            }
+        }
+        builder.add(column);
+    }
+
+    // The type of the column is the type of the expression. Parsing here also type-checks expr in transaction()
+    private static Column buildExprColumn(int index, ColumnConfig column, Schema inputSchema, String optionName)
+    {
+        String name = column.getName();
+        if (name.startsWith("$.")) {
+            throw new ConfigException(String.format("%s: \"expr\" is not available for JSONPath name '%s'", optionName, name));
+        }
+        if (column.getSrc().isPresent()) {
+            throw new ConfigException(String.format("%s: Column '%s' can not have both of \"src\" and \"expr\"", optionName, name));
+        }
+        Type type = Expression.parse(column.getExpr().get(), inputSchema).getType();
+        if (column.getType().isPresent() && ! column.getType().get().getName().equals(type.getName())) {
+            throw new SchemaConfigException(String.format("%s: \"type\" of Column '%s' is %s, but \"expr\" is %s", optionName, name, column.getType().get(), type));
+        }
+        return new Column(index, name, type);
+    }
+
+    // The type of the column copied from inputColumn, which is string or timestamp for "to_timezone", and
+    // json for JSON text of a string column with type: json
+    private static Type copyType(ColumnConfig column, Column inputColumn, String optionName)
+    {
+        if (! column.getToTimeZone().isPresent()) {
+            if (inputColumn.getType() instanceof StringType && column.getType().isPresent() && column.getType().get() instanceof JsonType) {
+                return Types.JSON;
+            }
+            return inputColumn.getType();
+        }
+        String name = column.getName();
+        if (! (inputColumn.getType() instanceof TimestampType)) {
+            throw new SchemaConfigException(String.format("%s: \"to_timezone\" of Column '%s' requires a timestamp column, but '%s' is %s", optionName, name, inputColumn.getName(), inputColumn.getType()));
+        }
+        if (! column.getType().isPresent()) {
+            return inputColumn.getType();
+        }
+        Type type = column.getType().get();
+        if (! (type instanceof StringType || type instanceof TimestampType)) {
+            throw new SchemaConfigException(String.format("%s: \"type\" of Column '%s' must be string or timestamp for \"to_timezone\"", optionName, name));
+        }
+        return type;
+    }
+
+    private static Column buildGeneratorColumn(int index, ColumnConfig column, Schema inputSchema, String optionName)
+    {
+        String name = column.getName();
+        String generator = column.getGenerator().get();
+        if (! generator.equals("sequence") && ! generator.equals("row_number") && ! generator.equals("fingerprint")) {
+            throw new ConfigException(String.format("%s: generator '%s' of Column '%s' is not supported, use \"sequence\", \"row_number\", or \"fingerprint\"", optionName, generator, name));
+        }
+        if (generator.equals("fingerprint") == column.getKeys().isEmpty()) {
+            throw new ConfigException(String.format("%s: \"keys\" of Column '%s' is required for, and only for generator: fingerprint", optionName, name));
+        }
+        if (generator.equals("fingerprint")) {
+            new KeyHasher(inputSchema, column.getKeys(), 0, "keys"); // to raise SchemaConfigException for unknown keys
+        }
+        if (name.startsWith("$.") || column.getSrc().isPresent() || column.getExpr().isPresent()) {
+            throw new ConfigException(String.format("%s: Column '%s' can not have \"generator\" with JSONPath name, \"src\", or \"expr\"", optionName, name));
+        }
+        if (column.getType().isPresent() && ! column.getType().get().getName().equals(Types.LONG.getName())) {
+            throw new SchemaConfigException(String.format("%s: \"type\" of Column '%s' must be long for \"generator\"", optionName, name));
+        }
+        return new Column(index, name, Types.LONG);
+    }
+
+    static RecordFilter[] buildRecordFilters(PluginTask task, Schema inputSchema)
+    {
+        return buildRecordFilters(task, inputSchema, null);
+    }
+
+    static RecordFilter[] buildRecordFilters(PluginTask task, Schema inputSchema, NullColumnTracker nullColumnTracker)
+    {
+        List<RecordFilter> recordFilters = new ArrayList<>();
+        // sees every input record
+        if (nullColumnTracker != null) {
+            recordFilters.add(nullColumnTracker);
+        }
+        // cheaper one first
+        if (task.getSampleRate().isPresent()) {
+            recordFilters.add(new RecordSampler(task, inputSchema));
+        }
+        if (task.getWhere().size() > 0) {
+            recordFilters.add(new WhereFilter(task, inputSchema));
+        }
+        // NOTE: the last, so that DedupeFilter#getLastHash is of the accepted record
+        if (task.getDedupeKeys().size() > 0) {
+            recordFilters.add(new DedupeFilter(task, inputSchema));
+        }
+        return recordFilters.toArray(new RecordFilter[0]);
+    }
+
+    static Exploder buildExploder(PluginTask task, Schema inputSchema, Schema outputSchema)
+    {
+        return task.getExplode().isPresent() ? new Exploder(task, inputSchema, outputSchema) : null;
+    }
+
     @Override
     public PageOutput open(final TaskSource taskSource, final Schema inputSchema,
             final Schema outputSchema, final PageOutput output)
     {
         final PluginTask task = taskSource.loadTask(PluginTask.class);
+        final NullColumnTracker nullColumnTracker = task.getAutoDropNullColumns() ? new NullColumnTracker(task, inputSchema) : null;
+        final RecordFilter[] recordFilters = buildRecordFilters(task, inputSchema, nullColumnTracker);
+        final PageOutput downstream = task.getAsyncOutput() ? new AsyncPageOutput(output, task.getAsyncOutputQueueSize()) : output;
 
         return new PageOutput() {
             private PageReader pageReader = new PageReader(inputSchema);
-            private PageBuilder pageBuilder = new PageBuilder(Exec.getBufferAllocator(), outputSchema, output);
+            private PageBuilder pageBuilder = task.getStats() ?
+                    new StatsPageBuilder(Exec.getBufferAllocator(), outputSchema, downstream, task.getRunId()) :
+                    task.getShadowEngine().isPresent() ?
+                    new RecordingPageBuilder(Exec.getBufferAllocator(), outputSchema, downstream) :
+                    new PageBuilder(Exec.getBufferAllocator(), outputSchema, downstream);
             private ColumnVisitorImpl visitor = new ColumnVisitorImpl(task, inputSchema, outputSchema, pageReader, pageBuilder);
+            private DedupeFilter dedupe = DedupeFilter.of(recordFilters);
+            private ShadowEngine shadow = task.getShadowEngine().isPresent() ?
+                    new ShadowEngine(task, inputSchema, outputSchema, pageReader, (RecordingPageBuilder) pageBuilder) : null;
+            // NOTE: explode always runs on the columnar engine, which keeps the projected parent record to copy
+            private ColumnarPageProcessor columnar = task.getEngine().equals("columnar") || task.getExplode().isPresent() ?
+                    new ColumnarPageProcessor(outputSchema, visitor, recordFilters, buildExploder(task, inputSchema, outputSchema)) : null;
 
             @Override
             public void finish()
             {
+                visitor.finish();
+                if (shadow != null) {
+                    shadow.finish();
+                }
+                if (nullColumnTracker != null) {
+                    nullColumnTracker.publish(task.getRunId());
+                }
                 pageBuilder.finish();
             }
 
             @Override
             public void close()
             {
+                if (shadow != null) {
+                    shadow.close();
+                }
                 pageBuilder.close();
             }
 
@@ -245,11 +711,43 @@ public class ColumnFilterPlugin implements FilterPlugin
             public void add(Page page)
             {
                 pageReader.setPage(page);
+                visitor.startPage();
 
+                if (columnar != null) {
+                    columnar.process(pageReader, pageBuilder);
+                    return;
+                }
+                if (shadow != null) {
+                    shadow.startPage();
+                }
                 while (pageReader.nextRecord()) {
-                    outputSchema.visitColumns(visitor);
-                    pageBuilder.addRecord();
+                    if (! accept()) {
+                        continue;
+                    }
+                    boolean sampled = shadow != null && shadow.startRecord();
+                    if (visitor.visitRecord()) {
+                        if (dedupe != null) {
+                            dedupe.add(dedupe.getLastHash()); // remembered only once emitted
+                        }
+                        pageBuilder.addRecord();
+                    }
+                    if (sampled) {
+                        shadow.endRecord(pageReader);
+                    }
+                }
+                if (shadow != null) {
+                    shadow.finishPage();
+                }
+            }
+
+            private boolean accept()
+            {
+                for (RecordFilter recordFilter : recordFilters) {
+                    if (! recordFilter.accept(pageReader)) {
+                        return false;
+                    }
                 }
+                return true;
             }
         };
     }
@@ -0,0 +1,293 @@
+package org.embulk.filter.column;
+
+import org.embulk.spi.Column;
+import org.embulk.spi.Schema;
+import org.embulk.spi.time.Timestamp;
+import org.embulk.spi.type.DoubleType;
+import org.embulk.spi.type.LongType;
+import org.embulk.spi.type.TimestampType;
+
+import org.msgpack.value.Value;
+import org.msgpack.value.ValueFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+// stats: true
+//
+// Statistics of an output column accumulated by a task: number of values and nulls, min and max of
+// long, double, and timestamp, approximate number of distinct values, and max bytes of string and json.
+// A task publishes its statistics when it finishes, and transaction() merges them at the end of the run.
+public class ColumnStats
+{
+    // run id => statistics published by tasks
+    private static final ConcurrentMap<String, Queue<ColumnStats[]>> published = new ConcurrentHashMap<>();
+
+    private final Column column;
+    private final XxHash64 hasher = new XxHash64();
+    private final HyperLogLog distinct = new HyperLogLog();
+    private long count = 0;
+    private long nullCount = 0;
+    private boolean hasMinMax = false;
+    private long minLong;
+    private long maxLong;
+    private double minDouble;
+    private double maxDouble;
+    private Timestamp minTimestamp;
+    private Timestamp maxTimestamp;
+    private long maxBytes = -1; // NOTE: -1 if the column does not have string or json values
+
+    public ColumnStats(Column column)
+    {
+        this.column = column;
+    }
+
+    public Column getColumn()
+    {
+        return column;
+    }
+
+    public long getCount()
+    {
+        return count;
+    }
+
+    public long getNullCount()
+    {
+        return nullCount;
+    }
+
+    public long getDistinctCount()
+    {
+        return distinct.estimate();
+    }
+
+    public long getMaxBytes()
+    {
+        return maxBytes;
+    }
+
+    public void addNull()
+    {
+        count++;
+        nullCount++;
+    }
+
+    public void addBoolean(boolean value)
+    {
+        count++;
+        distinct.add(XxHash64.hashLong(value ? 1L : 0L, 0L));
+    }
+
+    public void addLong(long value)
+    {
+        count++;
+        distinct.add(XxHash64.hashLong(value, 0L));
+        if (! hasMinMax) {
+            minLong = maxLong = value;
+            hasMinMax = true;
+        }
+        else if (value < minLong) {
+            minLong = value;
+        }
+        else if (value > maxLong) {
+            maxLong = value;
+        }
+    }
+
+    public void addDouble(double value)
+    {
+        count++;
+        distinct.add(XxHash64.hashLong(Double.doubleToLongBits(value), 0L));
+        if (Double.isNaN(value)) {
+            return;
+        }
+        if (! hasMinMax) {
+            minDouble = maxDouble = value;
+            hasMinMax = true;
+        }
+        else if (value < minDouble) {
+            minDouble = value;
+        }
+        else if (value > maxDouble) {
+            maxDouble = value;
+        }
+    }
+
+    public void addString(String value)
+    {
+        count++;
+        addText(value);
+    }
+
+    public void addJson(Value value)
+    {
+        count++;
+        addText(value.toJson());
+    }
+
+    private void addText(String text)
+    {
+        distinct.add(hasher.reset(0L).updateUtf8(text).digest());
+        maxBytes = Math.max(maxBytes, utf8Length(text));
+    }
+
+    public void addTimestamp(Timestamp value)
+    {
+        count++;
+        distinct.add(XxHash64.hashLong(value.getNano(), value.getEpochSecond()));
+        if (! hasMinMax) {
+            minTimestamp = maxTimestamp = value;
+            hasMinMax = true;
+        }
+        else if (value.compareTo(minTimestamp) < 0) {
+            minTimestamp = value;
+        }
+        else if (value.compareTo(maxTimestamp) > 0) {
+            maxTimestamp = value;
+        }
+    }
+
+    // Number of bytes of the string encoded in UTF-8, without encoding it
+    static int utf8Length(CharSequence s)
+    {
+        int length = s.length();
+        int bytes = 0;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                bytes += 1;
+            }
+            else if (c < 0x800) {
+                bytes += 2;
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            }
+            else if (Character.isSurrogate(c)) {
+                bytes += 1; // unpaired surrogate is encoded as '?'
+            }
+            else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    public void merge(ColumnStats other)
+    {
+        count += other.count;
+        nullCount += other.nullCount;
+        distinct.merge(other.distinct);
+        maxBytes = Math.max(maxBytes, other.maxBytes);
+        if (! other.hasMinMax) {
+            return;
+        }
+        if (! hasMinMax) {
+            minLong = other.minLong;
+            maxLong = other.maxLong;
+            minDouble = other.minDouble;
+            maxDouble = other.maxDouble;
+            minTimestamp = other.minTimestamp;
+            maxTimestamp = other.maxTimestamp;
+            hasMinMax = true;
+            return;
+        }
+        minLong = Math.min(minLong, other.minLong);
+        maxLong = Math.max(maxLong, other.maxLong);
+        minDouble = Math.min(minDouble, other.minDouble);
+        maxDouble = Math.max(maxDouble, other.maxDouble);
+        if (minTimestamp != null && other.minTimestamp.compareTo(minTimestamp) < 0) {
+            minTimestamp = other.minTimestamp;
+        }
+        if (maxTimestamp != null && other.maxTimestamp.compareTo(maxTimestamp) > 0) {
+            maxTimestamp = other.maxTimestamp;
+        }
+    }
+
+    public Value toValue()
+    {
+        List<Value> kvs = new ArrayList<>();
+        kvs.add(ValueFactory.newString("name"));
+        kvs.add(ValueFactory.newString(column.getName()));
+        kvs.add(ValueFactory.newString("type"));
+        kvs.add(ValueFactory.newString(column.getType().getName()));
+        kvs.add(ValueFactory.newString("count"));
+        kvs.add(ValueFactory.newInteger(count));
+        kvs.add(ValueFactory.newString("null_count"));
+        kvs.add(ValueFactory.newInteger(nullCount));
+        kvs.add(ValueFactory.newString("distinct_count"));
+        kvs.add(ValueFactory.newInteger(getDistinctCount()));
+        if (hasMinMax) {
+            kvs.add(ValueFactory.newString("min"));
+            kvs.add(minMaxValue(minLong, minDouble, minTimestamp));
+            kvs.add(ValueFactory.newString("max"));
+            kvs.add(minMaxValue(maxLong, maxDouble, maxTimestamp));
+        }
+        if (maxBytes >= 0) {
+            kvs.add(ValueFactory.newString("max_bytes"));
+            kvs.add(ValueFactory.newInteger(maxBytes));
+        }
+        return ValueFactory.newMap(kvs.toArray(new Value[kvs.size()]), true);
+    }
+
+    private Value minMaxValue(long longValue, double doubleValue, Timestamp timestampValue)
+    {
+        if (column.getType() instanceof LongType) {
+            return ValueFactory.newInteger(longValue);
+        }
+        else if (column.getType() instanceof DoubleType) {
+            return ValueFactory.newFloat(doubleValue);
+        }
+        else if (column.getType() instanceof TimestampType) {
+            return ValueFactory.newString(timestampValue.toString());
+        }
+        return ValueFactory.newNil();
+    }
+
+    // Lock-free hand over from tasks to the transaction
+    static void publish(String runId, ColumnStats[] stats)
+    {
+        if (runId == null) {
+            return;
+        }
+        Queue<ColumnStats[]> queue = published.get(runId);
+        if (queue == null) {
+            Queue<ColumnStats[]> newQueue = new ConcurrentLinkedQueue<>();
+            queue = published.putIfAbsent(runId, newQueue);
+            if (queue == null) {
+                queue = newQueue;
+            }
+        }
+        queue.add(stats);
+    }
+
+    // Merge statistics published by tasks of the run, and forget them
+    static ColumnStats[] collect(String runId, Schema outputSchema)
+    {
+        ColumnStats[] merged = new ColumnStats[outputSchema.getColumnCount()];
+        for (Column column : outputSchema.getColumns()) {
+            merged[column.getIndex()] = new ColumnStats(column);
+        }
+        Queue<ColumnStats[]> queue = published.remove(runId);
+        if (queue != null) {
+            for (ColumnStats[] stats : queue) {
+                for (int i = 0; i < merged.length; i++) {
+                    merged[i].merge(stats[i]);
+                }
+            }
+        }
+        return merged;
+    }
+
+    // Forget statistics of a failed run
+    static void forget(String runId)
+    {
+        published.remove(runId);
+    }
+}
@@ -7,6 +7,7 @@ import org.embulk.filter.column.ColumnFilterPlugin.PluginTask;
 
 import org.embulk.spi.Column;
 import org.embulk.spi.ColumnVisitor;
+import org.embulk.spi.DataException;
 import org.embulk.spi.Exec;
 import org.embulk.spi.PageBuilder;
 import org.embulk.spi.PageReader;
@@ -28,12 +29,18 @@ import org.joda.time.DateTimeZone;
 import org.msgpack.value.Value;
 import org.slf4j.Logger;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 
 public class ColumnVisitorImpl implements ColumnVisitor
 {
     private static final Logger logger = Exec.getLogger(ColumnFilterPlugin.class);
+    // dynamic defaults of timestamp columns
+    static final String NOW = "now"; // evaluated for each page
+    static final String TRANSACTION_TIME = "transaction_time";
+    static final String TASK_START = "task_start";
+
     private final PluginTask task;
     private final Schema inputSchema;
     private final Schema outputSchema;
@@ -41,18 +48,206 @@ public class ColumnVisitorImpl implements ColumnVisitor
     private final PageBuilder pageBuilder;
     private final HashMap<Column, Column> outputInputColumnMap = new HashMap<>();
     private final HashMap<Column, Object> outputDefaultMap = new HashMap<>();
+    private final Expression[] outputExpressions; // indexed by output column index. NOTE: an element would be null
+    private final SequenceGenerator[] outputGenerators; // indexed by output column index. NOTE: an element would be null
+    private final KeyHasher[] outputFingerprints; // indexed by output column index. NOTE: an element would be null
+    private final ValueLimiter[] outputLimiters; // indexed by output column index. NOTE: an element would be null
+    private final String[] outputOnOverflow; // indexed by output column index
+    private final TimeZoneConverter[] outputConverters; // indexed by output column index. NOTE: an element would be null
+    private final String[] outputJsonTextPaths; // indexed by output column index. NOTE: null if not JSON text of a string column
+    private final List<Column> nowColumns = new ArrayList<>(); // columns of default: now
+    private final String onError;
+    private boolean malformedRecord = false; // a type: json value of the current record is malformed
+    private long malformedRecords = 0;
+    private boolean overflowRecord = false; // a value of the current record is over max_bytes or max_depth, and on_overflow is skip
+    private long overflowValues = 0;
     private final JsonVisitor jsonVisitor;
+    private final JsonTextProjector jsonTextProjector;
+    private final StringDictionary stringDictionary; // NOTE: null if string_dictionary is false
+    private final boolean shadow; // for the shadow engine, see ShadowEngine
 
     ColumnVisitorImpl(PluginTask task, Schema inputSchema, Schema outputSchema, PageReader pageReader, PageBuilder pageBuilder)
+    {
+        this(task, inputSchema, outputSchema, pageReader, pageBuilder, false);
+    }
+
+    ColumnVisitorImpl(PluginTask task, Schema inputSchema, Schema outputSchema, PageReader pageReader, PageBuilder pageBuilder, boolean shadow)
     {
         this.task = task;
+        this.shadow = shadow;
         this.inputSchema = inputSchema;
         this.outputSchema = outputSchema;
         this.pageReader = pageReader;
         this.pageBuilder = pageBuilder;
         buildOutputInputColumnMap();
         buildOutputDefaultMap();
+        this.outputExpressions = buildOutputExpressions();
+        this.outputGenerators = buildOutputGenerators();
+        this.outputFingerprints = buildOutputFingerprints();
+        this.outputLimiters = new ValueLimiter[outputSchema.getColumnCount()];
+        this.outputOnOverflow = new String[outputSchema.getColumnCount()];
+        buildOutputLimiters();
+        this.outputConverters = buildOutputConverters();
         this.jsonVisitor = new JsonVisitor(task, inputSchema, outputSchema);
+        this.outputJsonTextPaths = buildOutputJsonTextPaths();
+        this.jsonTextProjector = new JsonTextProjector(jsonVisitor);
+        this.stringDictionary = task.getStringDictionary() ? new StringDictionary(task.getStringDictionarySize()) : null;
+        this.onError = task.getOnError();
+    }
+
+    // Called before processing records of a new input page
+    void startPage()
+    {
+        if (! nowColumns.isEmpty()) {
+            // one Timestamp shared by all records of the page
+            Timestamp now = currentTimestamp();
+            for (Column nowColumn : nowColumns) {
+                outputDefaultMap.put(nowColumn, now);
+            }
+        }
+        if (stringDictionary != null) {
+            stringDictionary.clear();
+        }
+    }
+
+    // Visit columns of the current record. Returns false if the record should be skipped by on_error: skip,
+    // or on_overflow: skip
+    boolean visitRecord()
+    {
+        outputSchema.visitColumns(this);
+        if (takeOverflow()) {
+            takeMalformed();
+            return false;
+        }
+        if (takeMalformed() && ! acceptMalformedRecord()) {
+            return false;
+        }
+        // generator values are drawn only for records to be emitted, so that skipped records do not use them up
+        for (int i = 0; i < outputGenerators.length; i++) {
+            if (outputGenerators[i] != null) {
+                pageBuilder.setLong(outputSchema.getColumn(i), outputGenerators[i].next());
+            }
+        }
+        return true;
+    }
+
+    // Visit a value of type: json column. Returns null if the value is malformed, and on_error is null or skip
+    Value visitJson(String jsonPath, Value value)
+    {
+        long malformedCount = jsonVisitor.getMalformedCount();
+        Value visited = jsonVisitor.visit(jsonPath, value);
+        if (jsonVisitor.getMalformedCount() == malformedCount) {
+            return visited;
+        }
+        if (onError.equals("fail")) {
+            throw new DataException(String.format("type: json value of '%s' is malformed: %s", jsonPath, jsonVisitor.getMalformedCause()));
+        }
+        malformedRecord = true;
+        return null;
+    }
+
+    // Parse JSON text of a string column, projected by json paths. Returns null if it is not valid JSON,
+    // and on_error is null or skip
+    Value parseJsonText(String jsonPath, String text)
+    {
+        try {
+            return jsonTextProjector.project(jsonPath, text);
+        }
+        catch (DataException ex) {
+            if (onError.equals("fail")) {
+                throw new DataException(String.format("string value of '%s' is not valid JSON text: %s", jsonPath, ex.getMessage()));
+            }
+            malformedRecord = true;
+            return null;
+        }
+    }
+
+    // Visit JSON text of a string column, and returns it as JSON text. Returns null if it is malformed,
+    // and on_error is null or skip
+    String visitJsonText(String jsonPath, String text)
+    {
+        Value parsed = parseJsonText(jsonPath, text);
+        Value visited = parsed == null ? null : visitJson(jsonPath, parsed);
+        return visited == null ? null : visited.toJson();
+    }
+
+    // Returns, and clears if the current record has a malformed value
+    boolean takeMalformed()
+    {
+        boolean malformed = malformedRecord;
+        malformedRecord = false;
+        return malformed;
+    }
+
+    // Count a record which has a malformed value. Returns false if it should be skipped
+    boolean acceptMalformedRecord()
+    {
+        malformedRecords++;
+        return ! onError.equals("skip");
+    }
+
+    long getMalformedRecords()
+    {
+        return malformedRecords;
+    }
+
+    // Returns the string within max_bytes, or null if it is over max_bytes and on_overflow is null or skip
+    String limitString(Column outputColumn, String value)
+    {
+        ValueLimiter limiter = outputLimiters[outputColumn.getIndex()];
+        if (limiter == null || value == null) {
+            return value;
+        }
+        String limited = limiter.limitString(value);
+        return limited == value ? value : overflow(outputColumn, limited);
+    }
+
+    // Returns the json within max_bytes and max_depth, or null if it is over them and on_overflow is null or skip
+    Value limitJson(Column outputColumn, Value value)
+    {
+        ValueLimiter limiter = outputLimiters[outputColumn.getIndex()];
+        if (limiter == null || value == null) {
+            return value;
+        }
+        Value limited = limiter.limitJson(value);
+        return limited == value ? value : overflow(outputColumn, limited);
+    }
+
+    private <T> T overflow(Column outputColumn, T truncated)
+    {
+        overflowValues++;
+        String onOverflow = outputOnOverflow[outputColumn.getIndex()];
+        if (onOverflow.equals("truncate")) {
+            return truncated;
+        }
+        if (onOverflow.equals("skip")) {
+            overflowRecord = true;
+        }
+        return null;
+    }
+
+    // Returns, and clears if the current record should be skipped by on_overflow: skip
+    boolean takeOverflow()
+    {
+        boolean overflow = overflowRecord;
+        overflowRecord = false;
+        return overflow;
+    }
+
+    long getOverflowValues()
+    {
+        return overflowValues;
+    }
+
+    // Called at the end of the task
+    void finish()
+    {
+        if (malformedRecords > 0) {
+            logger.warn(String.format("%d records had malformed type: json values, and were handled by on_error: %s", malformedRecords, onError));
+        }
+        if (overflowValues > 0) {
+            logger.warn(String.format("%d values were over max_bytes or max_depth, and were handled by on_overflow", overflowValues));
+        }
     }
 
     // Map outputColumn => inputColumn
@@ -92,7 +287,202 @@ public class ColumnVisitorImpl implements ColumnVisitor
             if (defaultValue != null) {
                 outputDefaultMap.put(outputColumn, defaultValue);
             }
+            if (type instanceof TimestampType && (isDefaultNow(name, task.getColumns()) || isDefaultNow(name, task.getAddColumns()))) {
+                nowColumns.add(outputColumn);
+            }
+        }
+    }
+
+    private static boolean isDefaultNow(String name, List<ColumnConfig> columnConfigs)
+    {
+        for (ColumnConfig columnConfig : columnConfigs) {
+            if (columnConfig.getName().equals(name) &&
+                    columnConfig.getDefault().isPresent()) {
+                return NOW.equals(columnConfig.getDefault().get());
+            }
+        }
+        return false;
+    }
+
+    private static Timestamp currentTimestamp()
+    {
+        return Timestamp.ofEpochMilli(System.currentTimeMillis());
+    }
+
+    // Compile expr for each task, MethodHandles are not serializable into TaskSource
+    private Expression[] buildOutputExpressions()
+    {
+        Expression[] expressions = new Expression[outputSchema.getColumnCount()];
+        for (Column outputColumn : outputSchema.getColumns()) {
+            String name = outputColumn.getName();
+            String expr = getExpr(name, task.getColumns());
+            if (expr == null) {
+                expr = getExpr(name, task.getAddColumns());
+            }
+            if (expr != null) {
+                expressions[outputColumn.getIndex()] = Expression.parse(expr, inputSchema);
+            }
+        }
+        return expressions;
+    }
+
+    private SequenceGenerator[] buildOutputGenerators()
+    {
+        SequenceGenerator[] generators = new SequenceGenerator[outputSchema.getColumnCount()];
+        for (Column outputColumn : outputSchema.getColumns()) {
+            String name = outputColumn.getName();
+            String generator = getGenerator(name, task.getColumns());
+            if (generator == null) {
+                generator = getGenerator(name, task.getAddColumns());
+            }
+            if ("sequence".equals(generator)) {
+                // NOTE: the shadow engine numbers in the task not to reserve numbers of the run
+                generators[outputColumn.getIndex()] = SequenceGenerator.sequence(shadow ? null : task.getRunId(), task.getSequenceBlockSize());
+            }
+            else if ("row_number".equals(generator)) {
+                generators[outputColumn.getIndex()] = SequenceGenerator.rowNumber();
+            }
+        }
+        return generators;
+    }
+
+    // generator: fingerprint hashes keys of the input record, see KeyHasher
+    private KeyHasher[] buildOutputFingerprints()
+    {
+        KeyHasher[] fingerprints = new KeyHasher[outputSchema.getColumnCount()];
+        for (Column outputColumn : outputSchema.getColumns()) {
+            ColumnConfig columnConfig = getColumnConfig(outputColumn.getName(), task.getColumns());
+            if (columnConfig == null) {
+                columnConfig = getColumnConfig(outputColumn.getName(), task.getAddColumns());
+            }
+            if (columnConfig != null && "fingerprint".equals(columnConfig.getGenerator().orNull())) {
+                fingerprints[outputColumn.getIndex()] = new KeyHasher(inputSchema, columnConfig.getKeys(), 0, "keys");
+            }
+        }
+        return fingerprints;
+    }
+
+    private void buildOutputLimiters()
+    {
+        for (Column outputColumn : outputSchema.getColumns()) {
+            Type type = outputColumn.getType();
+            if (! (type instanceof StringType || type instanceof JsonType)) {
+                continue;
+            }
+            ColumnConfig columnConfig = getColumnConfig(outputColumn.getName(), task.getColumns());
+            if (columnConfig == null) {
+                columnConfig = getColumnConfig(outputColumn.getName(), task.getAddColumns());
+            }
+            if (columnConfig == null || ! (columnConfig.getMaxBytes().isPresent() || columnConfig.getMaxDepth().isPresent())) {
+                continue;
+            }
+            Integer maxDepth = type instanceof JsonType ? columnConfig.getMaxDepth().orNull() : null;
+            outputLimiters[outputColumn.getIndex()] = new ValueLimiter(columnConfig.getMaxBytes().orNull(), maxDepth);
+            outputOnOverflow[outputColumn.getIndex()] = columnConfig.getOnOverflow();
+        }
+    }
+
+    // to_timezone of a timestamp input column
+    private TimeZoneConverter[] buildOutputConverters()
+    {
+        TimeZoneConverter[] converters = new TimeZoneConverter[outputSchema.getColumnCount()];
+        for (Column outputColumn : outputSchema.getColumns()) {
+            Column inputColumn = outputInputColumnMap.get(outputColumn);
+            if (inputColumn == null || ! (inputColumn.getType() instanceof TimestampType)) {
+                continue;
+            }
+            ColumnConfig columnConfig = getColumnConfig(outputColumn.getName(), task.getColumns());
+            if (columnConfig == null) {
+                columnConfig = getColumnConfig(outputColumn.getName(), task.getAddColumns());
+            }
+            if (columnConfig == null || ! columnConfig.getToTimeZone().isPresent()) {
+                continue;
+            }
+            String format = null; // shift a timestamp
+            if (outputColumn.getType() instanceof StringType) {
+                format = columnConfig.getFormat().or(task.getDefaultTimestampFormat());
+            }
+            converters[outputColumn.getIndex()] = new TimeZoneConverter(columnConfig.getToTimeZone().get(), format);
         }
+        return converters;
+    }
+
+    // $.name of a string input column which is output as type: json, or whose json paths are visited
+    private String[] buildOutputJsonTextPaths()
+    {
+        String[] jsonTextPaths = new String[outputSchema.getColumnCount()];
+        for (Column outputColumn : outputSchema.getColumns()) {
+            Column inputColumn = outputInputColumnMap.get(outputColumn);
+            if (inputColumn == null || ! (inputColumn.getType() instanceof StringType) || outputConverters[outputColumn.getIndex()] != null) {
+                continue;
+            }
+            String jsonPath = new StringBuilder("$.").append(outputColumn.getName()).toString();
+            if (outputColumn.getType() instanceof JsonType || jsonVisitor.shouldVisit(jsonPath)) {
+                jsonTextPaths[outputColumn.getIndex()] = jsonPath;
+            }
+        }
+        return jsonTextPaths;
+    }
+
+    Column getInputColumn(Column outputColumn)
+    {
+        return outputInputColumnMap.get(outputColumn);
+    }
+
+    Object getDefault(Column outputColumn)
+    {
+        return outputDefaultMap.get(outputColumn);
+    }
+
+    Expression getExpression(Column outputColumn)
+    {
+        return outputExpressions[outputColumn.getIndex()];
+    }
+
+    SequenceGenerator getGenerator(Column outputColumn)
+    {
+        return outputGenerators[outputColumn.getIndex()];
+    }
+
+    TimeZoneConverter getConverter(Column outputColumn)
+    {
+        return outputConverters[outputColumn.getIndex()];
+    }
+
+    String getJsonTextPath(Column outputColumn)
+    {
+        return outputJsonTextPaths[outputColumn.getIndex()];
+    }
+
+    KeyHasher getFingerprint(Column outputColumn)
+    {
+        return outputFingerprints[outputColumn.getIndex()];
+    }
+
+    // generator and default: now, whose values differ between engines
+    boolean isVolatile(Column outputColumn)
+    {
+        return outputGenerators[outputColumn.getIndex()] != null || nowColumns.contains(outputColumn);
+    }
+
+    StringDictionary getStringDictionary()
+    {
+        return stringDictionary;
+    }
+
+    boolean hasLimiter(Column outputColumn)
+    {
+        return outputLimiters[outputColumn.getIndex()] != null;
+    }
+
+    private static ColumnConfig getColumnConfig(String name, List<ColumnConfig> columnConfigs)
+    {
+        for (ColumnConfig columnConfig : columnConfigs) {
+            if (columnConfig.getName().equals(name)) {
+                return columnConfig;
+            }
+        }
+        return null;
     }
 
     static String getSrc(String name, List<ColumnConfig> columnConfigs)
@@ -106,6 +496,28 @@ public class ColumnVisitorImpl implements ColumnVisitor
         return null;
     }
 
+    static String getExpr(String name, List<ColumnConfig> columnConfigs)
+    {
+        for (ColumnConfig columnConfig : columnConfigs) {
+            if (columnConfig.getName().equals(name) &&
+                    columnConfig.getExpr().isPresent()) {
+                return columnConfig.getExpr().get();
+            }
+        }
+        return null;
+    }
+
+    static String getGenerator(String name, List<ColumnConfig> columnConfigs)
+    {
+        for (ColumnConfig columnConfig : columnConfigs) {
+            if (columnConfig.getName().equals(name) &&
+                    columnConfig.getGenerator().isPresent()) {
+                return columnConfig.getGenerator().get();
+            }
+        }
+        return null;
+    }
+
     static Object getDefault(PluginTask task, String name, Type type, List<ColumnConfig> columnConfigs)
     {
         for (ColumnConfig columnConfig : columnConfigs) {
@@ -147,6 +559,12 @@ public class ColumnVisitorImpl implements ColumnVisitor
         else if (type instanceof TimestampType) {
             if (columnConfig.getDefault().isPresent()) {
                 String time   = (String) columnConfig.getDefault().get();
+                if (time.equals(TRANSACTION_TIME)) {
+                    return Exec.getTransactionTime();
+                }
+                else if (time.equals(TASK_START) || time.equals(NOW)) {
+                    return currentTimestamp(); // NOTE: now is updated by startPage()
+                }
                 String format = columnConfig.getFormat().or(task.getDefaultTimestampFormat());
                 DateTimeZone timezone = columnConfig.getTimeZone().or(task.getDefaultTimeZone());
                 TimestampParser parser = new TimestampParser(task.getJRuby(), format, timezone);
@@ -162,9 +580,50 @@ public class ColumnVisitorImpl implements ColumnVisitor
         return null;
     }
 
+    // Set the value of expr, or the default value if it is null
+    private void setEvaluatedValue(Column outputColumn, Object value)
+    {
+        if (value == null) {
+            value = outputDefaultMap.get(outputColumn);
+        }
+        if (value == null) {
+            pageBuilder.setNull(outputColumn);
+            return;
+        }
+        Type type = outputColumn.getType();
+        if (type instanceof BooleanType) {
+            pageBuilder.setBoolean(outputColumn, ((Boolean) value).booleanValue());
+        }
+        else if (type instanceof LongType) {
+            pageBuilder.setLong(outputColumn, ((Long) value).longValue());
+        }
+        else if (type instanceof DoubleType) {
+            pageBuilder.setDouble(outputColumn, ((Double) value).doubleValue());
+        }
+        else if (type instanceof StringType) {
+            String string = limitString(outputColumn, (String) value);
+            if (string == null) {
+                pageBuilder.setNull(outputColumn);
+                return;
+            }
+            if (stringDictionary != null) {
+                string = stringDictionary.get(string);
+            }
+            pageBuilder.setString(outputColumn, string);
+        }
+        else {
+            pageBuilder.setTimestamp(outputColumn, (Timestamp) value);
+        }
+    }
+
     @Override
     public void booleanColumn(Column outputColumn)
     {
+        Expression expression = outputExpressions[outputColumn.getIndex()];
+        if (expression != null) {
+            setEvaluatedValue(outputColumn, expression.evaluate(pageReader));
+            return;
+        }
         Column inputColumn = outputInputColumnMap.get(outputColumn);
         if (inputColumn == null || pageReader.isNull(inputColumn)) {
             Boolean defaultValue = (Boolean) outputDefaultMap.get(outputColumn);
@@ -183,6 +642,20 @@ public class ColumnVisitorImpl implements ColumnVisitor
     @Override
     public void longColumn(Column outputColumn)
     {
+        SequenceGenerator generator = outputGenerators[outputColumn.getIndex()];
+        if (generator != null) {
+            return; // set by visitRecord() once the record is not skipped
+        }
+        KeyHasher fingerprint = outputFingerprints[outputColumn.getIndex()];
+        if (fingerprint != null) {
+            pageBuilder.setLong(outputColumn, fingerprint.hash(pageReader));
+            return;
+        }
+        Expression expression = outputExpressions[outputColumn.getIndex()];
+        if (expression != null) {
+            setEvaluatedValue(outputColumn, expression.evaluate(pageReader));
+            return;
+        }
         Column inputColumn = outputInputColumnMap.get(outputColumn);
         if (inputColumn == null || pageReader.isNull(inputColumn)) {
             Long defaultValue = (Long) outputDefaultMap.get(outputColumn);
@@ -201,6 +674,11 @@ public class ColumnVisitorImpl implements ColumnVisitor
     @Override
     public void doubleColumn(Column outputColumn)
     {
+        Expression expression = outputExpressions[outputColumn.getIndex()];
+        if (expression != null) {
+            setEvaluatedValue(outputColumn, expression.evaluate(pageReader));
+            return;
+        }
         Column inputColumn = outputInputColumnMap.get(outputColumn);
         if (inputColumn == null || pageReader.isNull(inputColumn)) {
             Double defaultValue = (Double) outputDefaultMap.get(outputColumn);
@@ -219,18 +697,52 @@ public class ColumnVisitorImpl implements ColumnVisitor
     @Override
     public void stringColumn(Column outputColumn)
     {
+        Expression expression = outputExpressions[outputColumn.getIndex()];
+        if (expression != null) {
+            setEvaluatedValue(outputColumn, expression.evaluate(pageReader));
+            return;
+        }
         Column inputColumn = outputInputColumnMap.get(outputColumn);
         if (inputColumn == null || pageReader.isNull(inputColumn)) {
-            String defaultValue = (String) outputDefaultMap.get(outputColumn);
-            if (defaultValue == null) {
-                pageBuilder.setNull(outputColumn);
+            setDefaultString(outputColumn);
+        }
+        else {
+            TimeZoneConverter converter = outputConverters[outputColumn.getIndex()];
+            String jsonTextPath = outputJsonTextPaths[outputColumn.getIndex()];
+            String string;
+            if (converter != null) {
+                string = converter.format(pageReader.getTimestamp(inputColumn));
+            }
+            else if (jsonTextPath != null) {
+                string = visitJsonText(jsonTextPath, pageReader.getString(inputColumn));
+                if (string == null) { // malformed JSON text is handled as null
+                    setDefaultString(outputColumn);
+                    return;
+                }
             }
             else {
-                pageBuilder.setString(outputColumn, defaultValue);
+                string = pageReader.getString(inputColumn);
+            }
+            String value = limitString(outputColumn, string);
+            if (value == null) {
+                pageBuilder.setNull(outputColumn);
+                return;
+            }
+            if (stringDictionary != null) {
+                value = stringDictionary.get(value);
             }
+            pageBuilder.setString(outputColumn, value);
+        }
+    }
+
+    private void setDefaultString(Column outputColumn)
+    {
+        String defaultValue = limitString(outputColumn, (String) outputDefaultMap.get(outputColumn));
+        if (defaultValue == null) {
+            pageBuilder.setNull(outputColumn);
         }
         else {
-            pageBuilder.setString(outputColumn, pageReader.getString(inputColumn));
+            pageBuilder.setString(outputColumn, defaultValue);
         }
     }
 
@@ -239,25 +751,56 @@ public class ColumnVisitorImpl implements ColumnVisitor
     {
         Column inputColumn = outputInputColumnMap.get(outputColumn);
         if (inputColumn == null || pageReader.isNull(inputColumn)) {
-            Value defaultValue = (Value) outputDefaultMap.get(outputColumn);
-            if (defaultValue == null) {
-                pageBuilder.setNull(outputColumn);
+            setDefaultJson(outputColumn);
+        }
+        else {
+            String jsonPath = new StringBuilder("$.").append(outputColumn.getName()).toString();
+            Value value;
+            if (inputColumn.getType() instanceof StringType) { // JSON text
+                value = parseJsonText(jsonPath, pageReader.getString(inputColumn));
+                if (value == null) { // malformed JSON text is handled as null
+                    setDefaultJson(outputColumn);
+                    return;
+                }
             }
             else {
-                String jsonPath = new StringBuilder("$.").append(outputColumn.getName()).toString();
-                pageBuilder.setJson(outputColumn, jsonVisitor.visit(jsonPath, defaultValue));
+                value = pageReader.getJson(inputColumn);
             }
+            setJsonOrNull(outputColumn, visitJson(jsonPath, value));
+        }
+    }
+
+    private void setDefaultJson(Column outputColumn)
+    {
+        Value defaultValue = (Value) outputDefaultMap.get(outputColumn);
+        if (defaultValue == null) {
+            pageBuilder.setNull(outputColumn);
         }
         else {
-            Value value = pageReader.getJson(inputColumn);
             String jsonPath = new StringBuilder("$.").append(outputColumn.getName()).toString();
-            pageBuilder.setJson(outputColumn, jsonVisitor.visit(jsonPath, value));
+            setJsonOrNull(outputColumn, visitJson(jsonPath, defaultValue));
+        }
+    }
+
+    private void setJsonOrNull(Column outputColumn, Value visited)
+    {
+        Value value = limitJson(outputColumn, visited);
+        if (value == null) {
+            pageBuilder.setNull(outputColumn);
+        }
+        else {
+            pageBuilder.setJson(outputColumn, value);
         }
     }
 
     @Override
     public void timestampColumn(Column outputColumn)
     {
+        Expression expression = outputExpressions[outputColumn.getIndex()];
+        if (expression != null) {
+            setEvaluatedValue(outputColumn, expression.evaluate(pageReader));
+            return;
+        }
         Column inputColumn = outputInputColumnMap.get(outputColumn);
         if (inputColumn == null || pageReader.isNull(inputColumn)) {
             Timestamp defaultValue = (Timestamp) outputDefaultMap.get(outputColumn);
@@ -269,7 +812,9 @@ public class ColumnVisitorImpl implements ColumnVisitor
             }
         }
         else {
-            pageBuilder.setTimestamp(outputColumn, pageReader.getTimestamp(inputColumn));
+            TimeZoneConverter converter = outputConverters[outputColumn.getIndex()];
+            Timestamp value = pageReader.getTimestamp(inputColumn);
+            pageBuilder.setTimestamp(outputColumn, converter == null ? value : converter.shift(value));
         }
     }
 }
@@ -0,0 +1,577 @@
+package org.embulk.filter.column;
+
+import org.embulk.spi.Column;
+import org.embulk.spi.PageBuilder;
+import org.embulk.spi.PageReader;
+import org.embulk.spi.Schema;
+import org.embulk.spi.time.Timestamp;
+import org.embulk.spi.type.BooleanType;
+import org.embulk.spi.type.DoubleType;
+import org.embulk.spi.type.JsonType;
+import org.embulk.spi.type.LongType;
+import org.embulk.spi.type.StringType;
+import org.embulk.spi.type.Type;
+
+import org.msgpack.value.ArrayValue;
+import org.msgpack.value.Value;
+
+import java.util.Arrays;
+
+// engine: columnar
+//
+// Processes a page one output column at a time instead of visiting every column for every record.
+// PageReader and PageBuilder are row cursors, so a page is handled in three steps:
+//   1. decode the referenced input values of all accepted records into primitive vectors
+//   2. fill defaults (and visit json paths) with a tight per-type loop for each output column
+//   3. write the vectors to the PageBuilder
+// type: json columns still go through JsonVisitor record by record in step 2, and expr is evaluated in step 1.
+// With explode, step 3 writes the vectors of a record once for each element of its array.
+public class ColumnarPageProcessor
+{
+    private static final int BOOLEAN = 0;
+    private static final int LONG = 1;
+    private static final int DOUBLE = 2;
+    private static final int STRING = 3;
+    private static final int TIMESTAMP = 4;
+    private static final int JSON = 5;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final Column[] outputColumns;
+    private final Column[] inputColumns; // NOTE: an element would be null
+    private final Object[] defaults;     // NOTE: an element would be null
+    private final Expression[] expressions; // NOTE: an element would be null
+    private final SequenceGenerator[] generators; // NOTE: an element would be null
+    private final KeyHasher[] fingerprints; // NOTE: an element would be null
+    private final String[] jsonPaths;
+    private final boolean[] limited; // max_bytes or max_depth
+    private final TimeZoneConverter[] converters; // to_timezone. NOTE: an element would be null
+    private final boolean[] jsonTexts; // JSON text of a string input column
+    private final int[] kinds;
+    private final ColumnVisitorImpl visitor;
+    private final StringDictionary stringDictionary; // NOTE: null if string_dictionary is false
+    private final RecordFilter[] recordFilters;
+    private final Exploder exploder; // NOTE: null without explode
+    private final DedupeFilter dedupe; // NOTE: null without dedupe_keys
+
+    private int capacity = 0;
+    private boolean[][] nulls;
+    private boolean[][] booleans;
+    private long[][] longs;
+    private double[][] doubles;
+    private Object[][] objects; // String, Timestamp, or Value
+    private boolean[] malformed;  // rows which have a malformed type: json value
+    private boolean[] overflow;   // rows to skip by on_overflow: skip
+    private ArrayValue[] arrays;  // arrays to explode. NOTE: an element would be null
+    private long[] keyHashes;     // hashes of dedupe_keys, remembered by emit()
+    private int decodedRows = 0;  // rows decoded by decodeRecord()
+
+    ColumnarPageProcessor(Schema outputSchema, ColumnVisitorImpl visitor, RecordFilter[] recordFilters)
+    {
+        this(outputSchema, visitor, recordFilters, null);
+    }
+
+    ColumnarPageProcessor(Schema outputSchema, ColumnVisitorImpl visitor, RecordFilter[] recordFilters, Exploder exploder)
+    {
+        int size = outputSchema.getColumnCount();
+        this.outputColumns = outputSchema.getColumns().toArray(new Column[size]);
+        this.inputColumns = new Column[size];
+        this.defaults = new Object[size];
+        this.expressions = new Expression[size];
+        this.generators = new SequenceGenerator[size];
+        this.fingerprints = new KeyHasher[size];
+        this.jsonPaths = new String[size];
+        this.limited = new boolean[size];
+        this.converters = new TimeZoneConverter[size];
+        this.jsonTexts = new boolean[size];
+        this.kinds = new int[size];
+        this.visitor = visitor;
+        this.stringDictionary = visitor.getStringDictionary();
+        this.recordFilters = recordFilters;
+        this.exploder = exploder;
+        this.dedupe = DedupeFilter.of(recordFilters);
+        for (int c = 0; c < size; c++) {
+            Column outputColumn = outputColumns[c];
+            kinds[c] = kindOf(outputColumn.getType());
+            if (exploder != null && exploder.isExplodeColumn(outputColumn)) {
+                continue; // set in emit()
+            }
+            inputColumns[c] = visitor.getInputColumn(outputColumn);
+            defaults[c] = visitor.getDefault(outputColumn);
+            expressions[c] = visitor.getExpression(outputColumn);
+            generators[c] = visitor.getGenerator(outputColumn);
+            fingerprints[c] = visitor.getFingerprint(outputColumn);
+            jsonPaths[c] = new StringBuilder("$.").append(outputColumn.getName()).toString();
+            limited[c] = visitor.hasLimiter(outputColumn);
+            converters[c] = visitor.getConverter(outputColumn);
+            jsonTexts[c] = visitor.getJsonTextPath(outputColumn) != null;
+        }
+        this.nulls = new boolean[size][];
+        this.booleans = new boolean[size][];
+        this.longs = new long[size][];
+        this.doubles = new double[size][];
+        this.objects = new Object[size][];
+        ensureCapacity(INITIAL_CAPACITY);
+    }
+
+    private static int kindOf(Type type)
+    {
+        if (type instanceof BooleanType) {
+            return BOOLEAN;
+        }
+        else if (type instanceof LongType) {
+            return LONG;
+        }
+        else if (type instanceof DoubleType) {
+            return DOUBLE;
+        }
+        else if (type instanceof StringType) {
+            return STRING;
+        }
+        else if (type instanceof JsonType) {
+            return JSON;
+        }
+        else {
+            return TIMESTAMP;
+        }
+    }
+
+    private void ensureCapacity(int required)
+    {
+        if (required <= capacity) {
+            return;
+        }
+        int newCapacity = Math.max(required, capacity * 2);
+        for (int c = 0; c < kinds.length; c++) {
+            nulls[c] = nulls[c] == null ? new boolean[newCapacity] : Arrays.copyOf(nulls[c], newCapacity);
+            switch (kinds[c]) {
+            case BOOLEAN:
+                booleans[c] = booleans[c] == null ? new boolean[newCapacity] : Arrays.copyOf(booleans[c], newCapacity);
+                break;
+            case LONG:
+                longs[c] = longs[c] == null ? new long[newCapacity] : Arrays.copyOf(longs[c], newCapacity);
+                break;
+            case DOUBLE:
+                doubles[c] = doubles[c] == null ? new double[newCapacity] : Arrays.copyOf(doubles[c], newCapacity);
+                break;
+            default:
+                objects[c] = objects[c] == null ? new Object[newCapacity] : Arrays.copyOf(objects[c], newCapacity);
+                break;
+            }
+        }
+        malformed = malformed == null ? new boolean[newCapacity] : Arrays.copyOf(malformed, newCapacity);
+        overflow = overflow == null ? new boolean[newCapacity] : Arrays.copyOf(overflow, newCapacity);
+        arrays = arrays == null ? new ArrayValue[newCapacity] : Arrays.copyOf(arrays, newCapacity);
+        keyHashes = keyHashes == null ? new long[newCapacity] : Arrays.copyOf(keyHashes, newCapacity);
+        capacity = newCapacity;
+    }
+
+    // pageReader must have been set the page to process
+    public void process(PageReader pageReader, PageBuilder pageBuilder)
+    {
+        refreshTimestampDefaults();
+        int rows = decode(pageReader);
+        processRows(pageBuilder, rows);
+    }
+
+    // Decode the current record of pageReader, which is already accepted by RecordFilters. See ShadowEngine
+    void decodeRecord(PageReader pageReader)
+    {
+        ensureCapacity(decodedRows + 1);
+        decodeRow(pageReader, decodedRows++);
+    }
+
+    // Process records decoded by decodeRecord() as a page
+    void processDecoded(PageBuilder pageBuilder)
+    {
+        int rows = decodedRows;
+        decodedRows = 0;
+        refreshTimestampDefaults();
+        processRows(pageBuilder, rows);
+    }
+
+    private void processRows(PageBuilder pageBuilder, int rows)
+    {
+        for (int c = 0; c < kinds.length; c++) {
+            transform(c, rows);
+        }
+        emit(pageBuilder, rows);
+        clearObjects(rows);
+    }
+
+    // default: now changes for each page, see ColumnVisitorImpl#startPage
+    private void refreshTimestampDefaults()
+    {
+        for (int c = 0; c < kinds.length; c++) {
+            if (kinds[c] == TIMESTAMP) {
+                defaults[c] = visitor.getDefault(outputColumns[c]);
+            }
+        }
+    }
+
+    private int decode(PageReader pageReader)
+    {
+        int rows = 0;
+        while (pageReader.nextRecord()) {
+            if (! accept(pageReader)) {
+                continue;
+            }
+            ensureCapacity(rows + 1);
+            if (dedupe != null) {
+                keyHashes[rows] = dedupe.getLastHash();
+            }
+            decodeRow(pageReader, rows);
+            rows++;
+        }
+        return rows;
+    }
+
+    private void decodeRow(PageReader pageReader, int row)
+    {
+        if (exploder != null) {
+            arrays[row] = exploder.getArray(pageReader);
+        }
+        for (int c = 0; c < kinds.length; c++) {
+            if (generators[c] != null) {
+                nulls[c][row] = false; // drawn by emit() once the row is not skipped
+                continue;
+            }
+            if (fingerprints[c] != null) {
+                nulls[c][row] = false;
+                longs[c][row] = fingerprints[c].hash(pageReader);
+                continue;
+            }
+            if (expressions[c] != null) {
+                decodeExpression(c, row, expressions[c].evaluate(pageReader));
+                continue;
+            }
+            Column inputColumn = inputColumns[c];
+            if (inputColumn == null || pageReader.isNull(inputColumn)) {
+                nulls[c][row] = true;
+                continue;
+            }
+            nulls[c][row] = false;
+            if (converters[c] != null) {
+                decodeConverted(c, row, pageReader.getTimestamp(inputColumn));
+                continue;
+            }
+            if (jsonTexts[c]) {
+                decodeJsonText(c, row, pageReader.getString(inputColumn));
+                continue;
+            }
+            switch (kinds[c]) {
+            case BOOLEAN:
+                booleans[c][row] = pageReader.getBoolean(inputColumn);
+                break;
+            case LONG:
+                longs[c][row] = pageReader.getLong(inputColumn);
+                break;
+            case DOUBLE:
+                doubles[c][row] = pageReader.getDouble(inputColumn);
+                break;
+            case STRING:
+                objects[c][row] = pageReader.getString(inputColumn);
+                break;
+            case TIMESTAMP:
+                objects[c][row] = pageReader.getTimestamp(inputColumn);
+                break;
+            default:
+                objects[c][row] = pageReader.getJson(inputColumn);
+                break;
+            }
+        }
+    }
+
+    private void decodeExpression(int c, int row, Object value)
+    {
+        if (value == null) {
+            nulls[c][row] = true;
+            return;
+        }
+        nulls[c][row] = false;
+        switch (kinds[c]) {
+        case BOOLEAN:
+            booleans[c][row] = (Boolean) value;
+            break;
+        case LONG:
+            longs[c][row] = (Long) value;
+            break;
+        case DOUBLE:
+            doubles[c][row] = (Double) value;
+            break;
+        default: // STRING, TIMESTAMP
+            objects[c][row] = value;
+            break;
+        }
+    }
+
+    // to_timezone, see ColumnVisitorImpl#stringColumn and ColumnVisitorImpl#timestampColumn
+    private void decodeConverted(int c, int row, Timestamp value)
+    {
+        if (kinds[c] == STRING) {
+            objects[c][row] = converters[c].format(value);
+        }
+        else {
+            objects[c][row] = converters[c].shift(value);
+        }
+    }
+
+    // JSON text of a string column, see ColumnVisitorImpl#stringColumn and ColumnVisitorImpl#jsonColumn.
+    // type: json values are visited in transform(), and malformed JSON text is null to fill defaults
+    private void decodeJsonText(int c, int row, String text)
+    {
+        if (kinds[c] == STRING) {
+            objects[c][row] = visitor.visitJsonText(jsonPaths[c], text);
+        }
+        else {
+            objects[c][row] = visitor.parseJsonText(jsonPaths[c], text);
+        }
+        nulls[c][row] = objects[c][row] == null;
+        if (visitor.takeMalformed()) {
+            malformed[row] = true;
+        }
+    }
+
+    private boolean accept(PageReader pageReader)
+    {
+        for (RecordFilter recordFilter : recordFilters) {
+            if (! recordFilter.accept(pageReader)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void transform(int c, int rows)
+    {
+        boolean[] isNull = nulls[c];
+        Object defaultValue = defaults[c];
+        switch (kinds[c]) {
+        case BOOLEAN:
+            if (defaultValue != null) {
+                fillBoolean(isNull, booleans[c], ((Boolean) defaultValue).booleanValue(), rows);
+            }
+            break;
+        case LONG:
+            if (defaultValue != null) {
+                fillLong(isNull, longs[c], ((Long) defaultValue).longValue(), rows);
+            }
+            break;
+        case DOUBLE:
+            if (defaultValue != null) {
+                fillDouble(isNull, doubles[c], ((Double) defaultValue).doubleValue(), rows);
+            }
+            break;
+        case STRING:
+            if (defaultValue != null) {
+                fillObject(isNull, objects[c], defaultValue, rows);
+            }
+            if (limited[c]) { // NOTE: after defaults not to fill null by on_overflow
+                limitString(outputColumns[c], isNull, objects[c], rows);
+            }
+            if (stringDictionary != null) {
+                lookupDictionary(isNull, objects[c], rows);
+            }
+            break;
+        case JSON:
+            visitJson(isNull, objects[c], (Value) defaultValue, jsonPaths[c], rows);
+            if (limited[c]) {
+                limitJson(outputColumns[c], isNull, objects[c], rows);
+            }
+            break;
+        default: // TIMESTAMP
+            if (defaultValue != null) {
+                fillObject(isNull, objects[c], defaultValue, rows);
+            }
+            break;
+        }
+    }
+
+    private static void fillBoolean(boolean[] isNull, boolean[] values, boolean defaultValue, int rows)
+    {
+        for (int r = 0; r < rows; r++) {
+            if (isNull[r]) {
+                values[r] = defaultValue;
+                isNull[r] = false;
+            }
+        }
+    }
+
+    private static void fillLong(boolean[] isNull, long[] values, long defaultValue, int rows)
+    {
+        for (int r = 0; r < rows; r++) {
+            if (isNull[r]) {
+                values[r] = defaultValue;
+                isNull[r] = false;
+            }
+        }
+    }
+
+    private static void fillDouble(boolean[] isNull, double[] values, double defaultValue, int rows)
+    {
+        for (int r = 0; r < rows; r++) {
+            if (isNull[r]) {
+                values[r] = defaultValue;
+                isNull[r] = false;
+            }
+        }
+    }
+
+    private static void fillObject(boolean[] isNull, Object[] values, Object defaultValue, int rows)
+    {
+        for (int r = 0; r < rows; r++) {
+            if (isNull[r]) {
+                values[r] = defaultValue;
+                isNull[r] = false;
+            }
+        }
+    }
+
+    private void lookupDictionary(boolean[] isNull, Object[] values, int rows)
+    {
+        for (int r = 0; r < rows; r++) {
+            if (! isNull[r]) {
+                values[r] = stringDictionary.get((String) values[r]);
+            }
+        }
+    }
+
+    // record path for type: json, see ColumnVisitorImpl#jsonColumn
+    private void visitJson(boolean[] isNull, Object[] values, Value defaultValue, String jsonPath, int rows)
+    {
+        for (int r = 0; r < rows; r++) {
+            Value value = isNull[r] ? defaultValue : (Value) values[r];
+            if (value == null) {
+                continue;
+            }
+            values[r] = visitor.visitJson(jsonPath, value);
+            isNull[r] = values[r] == null;
+            if (visitor.takeMalformed()) {
+                malformed[r] = true;
+            }
+        }
+    }
+
+    // max_bytes, see ColumnVisitorImpl#limitString
+    private void limitString(Column outputColumn, boolean[] isNull, Object[] values, int rows)
+    {
+        for (int r = 0; r < rows; r++) {
+            if (! isNull[r]) {
+                values[r] = visitor.limitString(outputColumn, (String) values[r]);
+                isNull[r] = values[r] == null;
+                if (visitor.takeOverflow()) {
+                    overflow[r] = true;
+                }
+            }
+        }
+    }
+
+    // max_bytes and max_depth, see ColumnVisitorImpl#limitJson
+    private void limitJson(Column outputColumn, boolean[] isNull, Object[] values, int rows)
+    {
+        for (int r = 0; r < rows; r++) {
+            if (! isNull[r]) {
+                values[r] = visitor.limitJson(outputColumn, (Value) values[r]);
+                isNull[r] = values[r] == null;
+                if (visitor.takeOverflow()) {
+                    overflow[r] = true;
+                }
+            }
+        }
+    }
+
+    private void emit(PageBuilder pageBuilder, int rows)
+    {
+        for (int r = 0; r < rows; r++) {
+            if (overflow[r]) {
+                overflow[r] = false;
+                malformed[r] = false;
+                continue; // on_overflow: skip
+            }
+            if (dedupe != null && dedupe.contains(keyHashes[r])) {
+                malformed[r] = false;
+                continue; // a duplicate of a row emitted from the same page
+            }
+            if (malformed[r]) {
+                malformed[r] = false;
+                if (! visitor.acceptMalformedRecord()) {
+                    continue; // on_error: skip
+                }
+            }
+            if (dedupe != null) {
+                dedupe.add(keyHashes[r]); // remembered only once emitted
+            }
+            if (exploder == null) {
+                generate(r);
+                setRecord(pageBuilder, r);
+                pageBuilder.addRecord();
+                continue;
+            }
+            ArrayValue array = arrays[r];
+            int size = array == null ? 0 : array.size();
+            for (int i = 0; i < size; i++) {
+                // NOTE: PageBuilder clears values by addRecord(), so the parent record is set again for each element.
+                // Each element is an output record, which gets its own generator values
+                generate(r);
+                setRecord(pageBuilder, r);
+                pageBuilder.setJson(exploder.getElementColumn(), array.get(i));
+                if (exploder.getIndexColumn() != null) {
+                    pageBuilder.setLong(exploder.getIndexColumn(), i);
+                }
+                pageBuilder.addRecord();
+            }
+        }
+    }
+
+    // generator values, drawn only for records to be emitted so that skipped rows do not use them up
+    private void generate(int r)
+    {
+        for (int c = 0; c < kinds.length; c++) {
+            if (generators[c] != null) {
+                longs[c][r] = generators[c].next();
+            }
+        }
+    }
+
+    private void setRecord(PageBuilder pageBuilder, int r)
+    {
+        for (int c = 0; c < kinds.length; c++) {
+            Column outputColumn = outputColumns[c];
+            if (nulls[c][r]) {
+                pageBuilder.setNull(outputColumn);
+                continue;
+            }
+            switch (kinds[c]) {
+            case BOOLEAN:
+                pageBuilder.setBoolean(outputColumn, booleans[c][r]);
+                break;
+            case LONG:
+                pageBuilder.setLong(outputColumn, longs[c][r]);
+                break;
+            case DOUBLE:
+                pageBuilder.setDouble(outputColumn, doubles[c][r]);
+                break;
+            case STRING:
+                pageBuilder.setString(outputColumn, (String) objects[c][r]);
+                break;
+            case TIMESTAMP:
+                pageBuilder.setTimestamp(outputColumn, (Timestamp) objects[c][r]);
+                break;
+            default:
+                pageBuilder.setJson(outputColumn, (Value) objects[c][r]);
+                break;
+            }
+        }
+    }
+
+    // Do not keep references to values of the processed page
+    private void clearObjects(int rows)
+    {
+        for (int c = 0; c < kinds.length; c++) {
+            if (objects[c] != null) {
+                Arrays.fill(objects[c], 0, rows, null);
+            }
+        }
+        Arrays.fill(arrays, 0, rows, null);
+    }
+}
@@ -0,0 +1,246 @@
+package org.embulk.filter.column;
+
+import org.embulk.config.ConfigException;
+import org.embulk.filter.column.ColumnFilterPlugin.PluginTask;
+
+import org.embulk.spi.DataException;
+import org.embulk.spi.PageReader;
+import org.embulk.spi.Schema;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+
+// dedupe_keys: drops a record if a record with the same keys was already emitted by the task.
+//
+// accept() only checks the keys of the record. They are remembered by add() once the record is emitted, so
+// that a record skipped after accept(), such as by on_error: skip or on_overflow: skip, does not drop later
+// records with the same keys.
+// Keys are hashed by KeyHasher, and the hashes are remembered within dedupe_max_memory_mb:
+//   bloom: a Bloom filter sized for dedupe_expected_keys and dedupe_false_positive_rate. A record is dropped
+//          by mistake at about the rate, but duplicates are never kept
+//   exact: an open addressing set of the 64-bit hashes in a direct buffer out of the heap. It fails the
+//          task if the set exceeds the memory. Keys themselves are not kept, so a unique record is dropped
+//          if its hash collides, at about n^2 / 2^65 for n keys
+public class DedupeFilter implements RecordFilter
+{
+    private static final long MB = 1024 * 1024;
+
+    private final KeyHasher keyHasher;
+    private long lastHash; // of the record last given to accept()
+    private final long maxBytes;
+    private final boolean exact;
+
+    // bloom
+    private final long bitCount;
+    private final int hashCount;
+    private long[] bits; // NOTE: allocated by the first record, not to hold memory in transaction()
+
+    // exact
+    private LongBuffer slots; // NOTE: allocated by the first record. 0 is an empty slot
+    private int size = 0;
+
+    public DedupeFilter(PluginTask task, Schema inputSchema)
+    {
+        this.keyHasher = new KeyHasher(inputSchema, task.getDedupeKeys(), 0, "dedupe_keys");
+        if (task.getDedupeMaxMemoryMb() < 1) {
+            throw new ConfigException("\"dedupe_max_memory_mb\" must be greater than 0");
+        }
+        this.maxBytes = task.getDedupeMaxMemoryMb() * MB;
+        String method = task.getDedupeMethod();
+        if (method.equals("bloom")) {
+            double rate = task.getDedupeFalsePositiveRate();
+            if (rate <= 0.0 || rate >= 1.0) {
+                throw new ConfigException(String.format("dedupe_false_positive_rate must be between 0.0 and 1.0 exclusive, but %s is given", rate));
+            }
+            if (task.getDedupeExpectedKeys() < 1) {
+                throw new ConfigException("\"dedupe_expected_keys\" must be greater than 0");
+            }
+            this.exact = false;
+            this.bitCount = bloomBits(task.getDedupeExpectedKeys(), rate, maxBytes);
+            this.hashCount = bloomHashes(task.getDedupeExpectedKeys(), bitCount);
+        }
+        else if (method.equals("exact")) {
+            this.exact = true;
+            this.bitCount = 0;
+            this.hashCount = 0;
+        }
+        else {
+            throw new ConfigException(String.format("dedupe_method: '%s' is not supported, use \"bloom\" or \"exact\"", method));
+        }
+    }
+
+    // m = -n ln(p) / ln(2)^2, within maxBytes
+    static long bloomBits(long expectedKeys, double rate, long maxBytes)
+    {
+        double optimal = Math.ceil(-expectedKeys * Math.log(rate) / (Math.log(2) * Math.log(2)));
+        long limit = Math.min(maxBytes * 8, (long) Integer.MAX_VALUE * 64);
+        return Math.max(64, (long) Math.min(optimal, limit));
+    }
+
+    // k = m / n ln(2)
+    static int bloomHashes(long expectedKeys, long bitCount)
+    {
+        return (int) Math.max(1, Math.min(30, Math.round((double) bitCount / expectedKeys * Math.log(2))));
+    }
+
+    // Returns false if the keys were already remembered. NOTE: does not remember them, see add()
+    @Override
+    public boolean accept(PageReader pageReader)
+    {
+        lastHash = keyHasher.hash(pageReader);
+        return ! contains(lastHash);
+    }
+
+    boolean contains(long hash)
+    {
+        return exact ? containsExact(hash) : containsBloom(hash);
+    }
+
+    // Hash of the keys of the record last given to accept(), to add() it later
+    long getLastHash()
+    {
+        return lastHash;
+    }
+
+    // Remember keys of an emitted record. Returns true if they were not remembered yet
+    boolean add(long hash)
+    {
+        return exact ? addExact(hash) : addBloom(hash);
+    }
+
+    // The DedupeFilter in recordFilters, or null
+    static DedupeFilter of(RecordFilter[] recordFilters)
+    {
+        for (RecordFilter recordFilter : recordFilters) {
+            if (recordFilter instanceof DedupeFilter) {
+                return (DedupeFilter) recordFilter;
+            }
+        }
+        return null;
+    }
+
+    boolean containsBloom(long hash)
+    {
+        if (bits == null) {
+            return false;
+        }
+        long h2 = Long.rotateLeft(hash, 32) | 1;
+        long combined = hash;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = (combined & Long.MAX_VALUE) % bitCount;
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+            combined += h2;
+        }
+        return true;
+    }
+
+    // Returns true if the hash was not in the filter
+    boolean addBloom(long hash)
+    {
+        if (bits == null) {
+            bits = new long[(int) ((bitCount + 63) / 64)];
+        }
+        // double hashing with the two halves of the hash, see Kirsch and Mitzenmacher
+        long h2 = Long.rotateLeft(hash, 32) | 1;
+        boolean added = false;
+        long combined = hash;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = (combined & Long.MAX_VALUE) % bitCount;
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            if ((bits[word] & mask) == 0) {
+                bits[word] |= mask;
+                added = true;
+            }
+            combined += h2;
+        }
+        return added;
+    }
+
+    // Returns true if the hash was not in the set
+    boolean addExact(long hash)
+    {
+        if (slots == null) {
+            slots = allocate(1024);
+        }
+        long key = hash == 0 ? 1 : hash; // NOTE: 0 is an empty slot
+        if (insert(slots, key)) {
+            size++;
+            if (size * 2 > slots.capacity()) {
+                slots = grow(slots);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    boolean containsExact(long hash)
+    {
+        if (slots == null) {
+            return false;
+        }
+        long key = hash == 0 ? 1 : hash;
+        int mask = slots.capacity() - 1;
+        int i = (int) (XxHash64.hashLong(key, 0) & mask);
+        while (true) {
+            long slot = slots.get(i);
+            if (slot == 0) {
+                return false;
+            }
+            if (slot == key) {
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    private static boolean insert(LongBuffer slots, long key)
+    {
+        int mask = slots.capacity() - 1;
+        int i = (int) (XxHash64.hashLong(key, 0) & mask);
+        while (true) {
+            long slot = slots.get(i);
+            if (slot == 0) {
+                slots.put(i, key);
+                return true;
+            }
+            if (slot == key) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    private LongBuffer grow(LongBuffer old)
+    {
+        long capacity = (long) old.capacity() * 2;
+        if (capacity * 8 > maxBytes || capacity > (1 << 27)) {
+            throw new DataException(String.format("dedupe_method: exact holds %d keys, and exceeds dedupe_max_memory_mb. Use dedupe_method: bloom, or increase dedupe_max_memory_mb", size));
+        }
+        LongBuffer slots = allocate((int) capacity);
+        for (int i = 0; i < old.capacity(); i++) {
+            long key = old.get(i);
+            if (key != 0) {
+                insert(slots, key);
+            }
+        }
+        return slots;
+    }
+
+    private static LongBuffer allocate(int capacity)
+    {
+        return ByteBuffer.allocateDirect(capacity * 8).asLongBuffer(); // NOTE: zero-filled
+    }
+
+    long getBitCount()
+    {
+        return bitCount;
+    }
+
+    int getHashCount()
+    {
+        return hashCount;
+    }
+}
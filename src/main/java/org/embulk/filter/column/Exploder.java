@@ -0,0 +1,98 @@
+package org.embulk.filter.column;
+
+import org.embulk.filter.column.ColumnFilterPlugin.PluginTask;
+
+import org.embulk.config.ConfigException;
+import org.embulk.spi.Column;
+import org.embulk.spi.PageReader;
+import org.embulk.spi.Schema;
+import org.embulk.spi.SchemaConfigException;
+import org.embulk.spi.type.JsonType;
+
+import org.msgpack.value.ArrayValue;
+import org.msgpack.value.Value;
+
+// explode: $.payload.items[*]
+//
+// Emits one output record for each element of a json array in the input record. The element, and optionally
+// its index, are set to columns added at the end of the output schema, and the other output columns are
+// copied from the projected parent record. See ColumnarPageProcessor which writes the records.
+public class Exploder
+{
+    private final JsonPathLookup lookup;
+    private final Column inputColumn;
+    private final Column elementColumn;
+    private final Column indexColumn; // NOTE: null without explode_index
+
+    Exploder(PluginTask task, Schema inputSchema, Schema outputSchema)
+    {
+        this.lookup = new JsonPathLookup(arrayPath(task.getExplode().get()));
+        this.inputColumn = inputColumn(lookup, inputSchema);
+        this.elementColumn = outputSchema.lookupColumn(elementName(task));
+        this.indexColumn = task.getExplodeIndex().isPresent() ? outputSchema.lookupColumn(task.getExplodeIndex().get()) : null;
+    }
+
+    // $.payload.items[*] => $.payload.items
+    static String arrayPath(String explode)
+    {
+        if (! explode.startsWith("$.") || ! explode.endsWith("[*]")) {
+            throw new ConfigException(String.format("explode: '%s' must be a json path which ends with [*] such as $.payload.items[*]", explode));
+        }
+        return explode.substring(0, explode.length() - 3);
+    }
+
+    // explode_name, or the last name of the json path
+    static String elementName(PluginTask task)
+    {
+        if (task.getExplodeName().isPresent()) {
+            return task.getExplodeName().get();
+        }
+        String path = arrayPath(task.getExplode().get());
+        int dot = path.lastIndexOf('.');
+        String name = path.substring(dot + 1);
+        if (name.indexOf('[') >= 0) {
+            throw new ConfigException(String.format("explode: '%s' needs explode_name", task.getExplode().get()));
+        }
+        return name;
+    }
+
+    static Column inputColumn(JsonPathLookup lookup, Schema inputSchema)
+    {
+        Column inputColumn;
+        try {
+            inputColumn = inputSchema.lookupColumn(lookup.getRootName());
+        }
+        catch (SchemaConfigException ex) {
+            throw new ConfigException(String.format("explode: input column '%s' is not found", lookup.getRootName()));
+        }
+        if (! (inputColumn.getType() instanceof JsonType)) {
+            throw new ConfigException(String.format("explode: input column '%s' must be type: json", lookup.getRootName()));
+        }
+        return inputColumn;
+    }
+
+    Column getElementColumn()
+    {
+        return elementColumn;
+    }
+
+    Column getIndexColumn()
+    {
+        return indexColumn;
+    }
+
+    boolean isExplodeColumn(Column outputColumn)
+    {
+        return outputColumn.getIndex() == elementColumn.getIndex() || (indexColumn != null && outputColumn.getIndex() == indexColumn.getIndex());
+    }
+
+    // The array of the current record, or null if it is null, missing, or not an array
+    ArrayValue getArray(PageReader pageReader)
+    {
+        if (pageReader.isNull(inputColumn)) {
+            return null;
+        }
+        Value value = lookup.get(pageReader.getJson(inputColumn));
+        return value != null && value.isArrayValue() ? value.asArrayValue() : null;
+    }
+}
@@ -0,0 +1,925 @@
+package org.embulk.filter.column;
+
+import org.embulk.config.ConfigException;
+import org.embulk.spi.Column;
+import org.embulk.spi.DataException;
+import org.embulk.spi.PageReader;
+import org.embulk.spi.Schema;
+import org.embulk.spi.SchemaConfigException;
+import org.embulk.spi.time.Timestamp;
+import org.embulk.spi.type.BooleanType;
+import org.embulk.spi.type.DoubleType;
+import org.embulk.spi.type.LongType;
+import org.embulk.spi.type.StringType;
+import org.embulk.spi.type.TimestampType;
+import org.embulk.spi.type.Type;
+import org.embulk.spi.type.Types;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+
+// expr: an expression over columns of the current input record such as
+//
+//   concat(first_name, ' ', last_name)
+//   case when score >= 80 then 'A' when score >= 60 then 'B' else 'C' end
+//   coalesce(updated_at, created_at) + 3600
+//
+// The expression is parsed and type-checked once, and compiled into a chain of MethodHandles of
+// type (PageReader)T, so that no syntax tree is walked per record. NOTE: the chain is held in an instance
+// field, which is not a constant, so the JIT can not inline it the way it inlines a static final
+// MethodHandle. That cost is accepted: each record pays for a call through the chain, and for boxing of
+// the intermediate values.
+// null propagates through operators and functions, except coalesce, case, concat, and is [not] null.
+public class Expression
+{
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final MethodType EVALUATE_TYPE = MethodType.methodType(Object.class, PageReader.class);
+
+    private final String source;
+    private final Type type;
+    private final MethodHandle handle; // (PageReader)Object
+
+    private Expression(String source, Type type, MethodHandle handle)
+    {
+        this.source = source;
+        this.type = type;
+        this.handle = handle;
+    }
+
+    public static Expression parse(String source, Schema inputSchema)
+    {
+        Parser parser = new Parser(source, inputSchema);
+        Node node = parser.parseExpression();
+        parser.expectEnd();
+        if (node.javaType == Void.class) {
+            throw new ConfigException(String.format("expr: type of '%s' can not be decided", source));
+        }
+        return new Expression(source, typeOf(node.javaType), node.handle.asType(EVALUATE_TYPE));
+    }
+
+    public String getSource()
+    {
+        return source;
+    }
+
+    public Type getType()
+    {
+        return type;
+    }
+
+    // Boolean, Long, Double, String, Timestamp, or null
+    public Object evaluate(PageReader pageReader)
+    {
+        try {
+            return (Object) handle.invokeExact(pageReader);
+        }
+        catch (RuntimeException | Error ex) {
+            throw ex;
+        }
+        catch (Throwable ex) {
+            throw new DataException(ex);
+        }
+    }
+
+    private static Type typeOf(Class<?> javaType)
+    {
+        if (javaType == Boolean.class) {
+            return Types.BOOLEAN;
+        }
+        else if (javaType == Long.class) {
+            return Types.LONG;
+        }
+        else if (javaType == Double.class) {
+            return Types.DOUBLE;
+        }
+        else if (javaType == String.class) {
+            return Types.STRING;
+        }
+        else {
+            return Types.TIMESTAMP;
+        }
+    }
+
+    private static Class<?> javaTypeOf(Type type)
+    {
+        if (type instanceof BooleanType) {
+            return Boolean.class;
+        }
+        else if (type instanceof LongType) {
+            return Long.class;
+        }
+        else if (type instanceof DoubleType) {
+            return Double.class;
+        }
+        else if (type instanceof StringType) {
+            return String.class;
+        }
+        else if (type instanceof TimestampType) {
+            return Timestamp.class;
+        }
+        return null;
+    }
+
+    // A compiled sub expression. javaType is Void.class for null literal
+    private static class Node
+    {
+        final Class<?> javaType;
+        final MethodHandle handle; // (PageReader)javaType
+
+        Node(Class<?> javaType, MethodHandle handle)
+        {
+            this.javaType = javaType;
+            this.handle = handle;
+        }
+
+        Node as(Class<?> newType)
+        {
+            if (javaType == newType) {
+                return this;
+            }
+            if (javaType == Long.class && newType == Double.class) {
+                return new Node(Double.class, MethodHandles.filterReturnValue(handle, findStatic("toDouble", Double.class, Long.class)));
+            }
+            return new Node(newType, handle.asType(MethodType.methodType(newType, PageReader.class)));
+        }
+    }
+
+    private static MethodHandle findStatic(String name, Class<?> returnType, Class<?>... parameterTypes)
+    {
+        try {
+            return LOOKUP.findStatic(Expression.class, name, MethodType.methodType(returnType, parameterTypes));
+        }
+        catch (NoSuchMethodException | IllegalAccessException ex) {
+            throw new AssertionError(ex);
+        }
+    }
+
+    private static MethodHandle columnGetter(String name, Class<?> javaType, Column column)
+    {
+        return MethodHandles.insertArguments(findStatic(name, javaType, PageReader.class, Column.class), 1, column);
+    }
+
+    private static Node constant(Class<?> javaType, Object value)
+    {
+        return new Node(javaType, MethodHandles.dropArguments(MethodHandles.constant(javaType, value), 0, PageReader.class));
+    }
+
+    // f(a(r), b(r))
+    private static Node binary(MethodHandle f, Node a, Node b)
+    {
+        MethodHandle h = MethodHandles.filterArguments(f, 0, a.handle, b.handle);
+        h = MethodHandles.permuteArguments(h, MethodType.methodType(f.type().returnType(), PageReader.class), 0, 0);
+        return new Node(f.type().returnType(), h);
+    }
+
+    // f(a(r))
+    private static Node unary(MethodHandle f, Node a)
+    {
+        return new Node(f.type().returnType(), MethodHandles.filterReturnValue(a.handle, f));
+    }
+
+    // v = a(r); v != null ? v : b(r)
+    private static Node coalesce(Node a, Node b)
+    {
+        Class<?> t = a.javaType;
+        MethodHandle isNotNull = findStatic("isNotNull", boolean.class, Object.class).asType(MethodType.methodType(boolean.class, t));
+        MethodHandle test = MethodHandles.dropArguments(isNotNull, 1, PageReader.class);
+        MethodHandle target = MethodHandles.dropArguments(MethodHandles.identity(t), 1, PageReader.class);
+        MethodHandle fallback = MethodHandles.dropArguments(b.handle, 0, t);
+        return new Node(t, MethodHandles.foldArguments(MethodHandles.guardWithTest(test, target, fallback), a.handle));
+    }
+
+    // isTrue(condition(r)) ? a(r) : b(r)
+    private static Node when(Node condition, Node a, Node b)
+    {
+        MethodHandle test = MethodHandles.filterReturnValue(condition.handle, findStatic("isTrue", boolean.class, Boolean.class));
+        return new Node(a.javaType, MethodHandles.guardWithTest(test, a.handle, b.handle));
+    }
+
+    private static class Parser
+    {
+        private final String source;
+        private final Schema inputSchema;
+        private final List<String> tokens = new ArrayList<>();
+        private int pos = 0;
+
+        Parser(String source, Schema inputSchema)
+        {
+            this.source = source;
+            this.inputSchema = inputSchema;
+            tokenize();
+        }
+
+        private ConfigException error(String message)
+        {
+            return new ConfigException(String.format("expr: %s in '%s'", message, source));
+        }
+
+        private void tokenize()
+        {
+            int i = 0;
+            int length = source.length();
+            while (i < length) {
+                char c = source.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                }
+                else if (c == '\'') { // 'string', '' to escape '
+                    StringBuilder builder = new StringBuilder("'");
+                    i++;
+                    while (true) {
+                        if (i >= length) {
+                            throw error("unterminated string literal");
+                        }
+                        char d = source.charAt(i++);
+                        if (d == '\'') {
+                            if (i < length && source.charAt(i) == '\'') {
+                                builder.append('\'');
+                                i++;
+                                continue;
+                            }
+                            break;
+                        }
+                        builder.append(d);
+                    }
+                    tokens.add(builder.toString());
+                }
+                else if (c == '`') { // `column name`
+                    int end = source.indexOf('`', i + 1);
+                    if (end < 0) {
+                        throw error("unterminated column name");
+                    }
+                    tokens.add(source.substring(i, end + 1));
+                    i = end + 1;
+                }
+                else if (Character.isDigit(c)) {
+                    int start = i;
+                    while (i < length && (Character.isDigit(source.charAt(i)) || source.charAt(i) == '.')) {
+                        i++;
+                    }
+                    if (i < length && (source.charAt(i) == 'e' || source.charAt(i) == 'E')) {
+                        i++;
+                        if (i < length && (source.charAt(i) == '+' || source.charAt(i) == '-')) {
+                            i++;
+                        }
+                        while (i < length && Character.isDigit(source.charAt(i))) {
+                            i++;
+                        }
+                    }
+                    tokens.add(source.substring(start, i));
+                }
+                else if (Character.isLetter(c) || c == '_') {
+                    int start = i;
+                    while (i < length && (Character.isLetterOrDigit(source.charAt(i)) || source.charAt(i) == '_')) {
+                        i++;
+                    }
+                    tokens.add(source.substring(start, i));
+                }
+                else {
+                    String two = (i + 1 < length) ? source.substring(i, i + 2) : "";
+                    if (two.equals("==") || two.equals("!=") || two.equals("<>") || two.equals("<=") || two.equals(">=") || two.equals("||")) {
+                        tokens.add(two);
+                        i += 2;
+                    }
+                    else if ("+-*/%()<>=,".indexOf(c) >= 0) {
+                        tokens.add(String.valueOf(c));
+                        i++;
+                    }
+                    else {
+                        throw error(String.format("unexpected character '%s'", c));
+                    }
+                }
+            }
+        }
+
+        private String peek()
+        {
+            return pos < tokens.size() ? tokens.get(pos) : null;
+        }
+
+        private boolean accept(String token)
+        {
+            String next = peek();
+            if (next != null && next.equalsIgnoreCase(token) && ! next.startsWith("'") && ! next.startsWith("`")) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(String token)
+        {
+            if (! accept(token)) {
+                throw error(String.format("'%s' is expected but '%s' is found", token, peek()));
+            }
+        }
+
+        void expectEnd()
+        {
+            if (peek() != null) {
+                throw error(String.format("unexpected '%s'", peek()));
+            }
+        }
+
+        Node parseExpression()
+        {
+            return parseOr();
+        }
+
+        private Node parseOr()
+        {
+            Node left = parseAnd();
+            while (accept("or")) {
+                left = binary(findStatic("or", Boolean.class, Boolean.class, Boolean.class), asBoolean(left), asBoolean(parseAnd()));
+            }
+            return left;
+        }
+
+        private Node parseAnd()
+        {
+            Node left = parseNot();
+            while (accept("and")) {
+                left = binary(findStatic("and", Boolean.class, Boolean.class, Boolean.class), asBoolean(left), asBoolean(parseNot()));
+            }
+            return left;
+        }
+
+        private Node parseNot()
+        {
+            if (accept("not")) {
+                return unary(findStatic("not", Boolean.class, Boolean.class), asBoolean(parseNot()));
+            }
+            return parseComparison();
+        }
+
+        private Node parseComparison()
+        {
+            Node left = parseAdditive();
+            if (accept("is")) {
+                boolean negate = accept("not");
+                expect("null");
+                MethodHandle isNull = findStatic(negate ? "isNotNullBoolean" : "isNullBoolean", Boolean.class, Object.class);
+                return unary(isNull.asType(MethodType.methodType(Boolean.class, left.javaType)), left);
+            }
+            String[][] operators = {{"=", "eq"}, {"==", "eq"}, {"!=", "ne"}, {"<>", "ne"}, {"<", "lt"}, {"<=", "le"}, {">", "gt"}, {">=", "ge"}};
+            for (String[] operator : operators) {
+                if (accept(operator[0])) {
+                    Node right = parseAdditive();
+                    Class<?> t = unify(left, right, operator[0]);
+                    if (t == Void.class) {
+                        t = Object.class;
+                    }
+                    MethodHandle f = findStatic(operator[1], Boolean.class, Comparable.class, Comparable.class);
+                    f = f.asType(MethodType.methodType(Boolean.class, t, t));
+                    return binary(f, left.as(t), right.as(t));
+                }
+            }
+            return left;
+        }
+
+        private Node parseAdditive()
+        {
+            Node left = parseMultiplicative();
+            while (true) {
+                if (accept("+")) {
+                    left = arithmetic("add", left, parseMultiplicative());
+                }
+                else if (accept("-")) {
+                    left = arithmetic("sub", left, parseMultiplicative());
+                }
+                else if (accept("||")) {
+                    left = binary(findStatic("concat", String.class, String.class, String.class), asString(left), asString(parseMultiplicative()));
+                }
+                else {
+                    return left;
+                }
+            }
+        }
+
+        private Node parseMultiplicative()
+        {
+            Node left = parseUnary();
+            while (true) {
+                if (accept("*")) {
+                    left = arithmetic("mul", left, parseUnary());
+                }
+                else if (accept("/")) {
+                    left = arithmetic("div", left, parseUnary());
+                }
+                else if (accept("%")) {
+                    left = arithmetic("mod", left, parseUnary());
+                }
+                else {
+                    return left;
+                }
+            }
+        }
+
+        private Node parseUnary()
+        {
+            if (accept("-")) {
+                Node operand = parseUnary();
+                if (operand.javaType == Long.class) {
+                    return unary(findStatic("negLong", Long.class, Long.class), operand);
+                }
+                else if (operand.javaType == Double.class) {
+                    return unary(findStatic("negDouble", Double.class, Double.class), operand);
+                }
+                throw error("'-' is available only for numbers");
+            }
+            return parsePrimary();
+        }
+
+        private Node parsePrimary()
+        {
+            String token = peek();
+            if (token == null) {
+                throw error("unexpected end of expression");
+            }
+            if (accept("(")) {
+                Node node = parseExpression();
+                expect(")");
+                return node;
+            }
+            if (token.startsWith("'")) {
+                pos++;
+                return constant(String.class, token.substring(1));
+            }
+            if (token.startsWith("`")) {
+                pos++;
+                return column(token.substring(1, token.length() - 1));
+            }
+            if (Character.isDigit(token.charAt(0))) {
+                pos++;
+                try {
+                    if (token.contains(".") || token.contains("e") || token.contains("E")) {
+                        return constant(Double.class, Double.valueOf(token));
+                    }
+                    return constant(Long.class, Long.valueOf(token));
+                }
+                catch (NumberFormatException ex) {
+                    throw error(String.format("'%s' is not a number", token));
+                }
+            }
+            if (accept("true")) {
+                return constant(Boolean.class, Boolean.TRUE);
+            }
+            if (accept("false")) {
+                return constant(Boolean.class, Boolean.FALSE);
+            }
+            if (accept("null")) {
+                return constant(Void.class, null);
+            }
+            if (accept("case")) {
+                return parseCase();
+            }
+            if (! Character.isLetter(token.charAt(0)) && token.charAt(0) != '_') {
+                throw error(String.format("unexpected '%s'", token));
+            }
+            pos++;
+            if (accept("(")) {
+                List<Node> args = new ArrayList<>();
+                if (! accept(")")) {
+                    do {
+                        args.add(parseExpression());
+                    } while (accept(","));
+                    expect(")");
+                }
+                return function(token.toLowerCase(), args);
+            }
+            return column(token);
+        }
+
+        private Node parseCase()
+        {
+            List<Node> conditions = new ArrayList<>();
+            List<Node> values = new ArrayList<>();
+            while (accept("when")) {
+                conditions.add(asBoolean(parseExpression()));
+                expect("then");
+                values.add(parseExpression());
+            }
+            if (conditions.isEmpty()) {
+                throw error("case requires when");
+            }
+            Node otherwise = accept("else") ? parseExpression() : constant(Void.class, null);
+            expect("end");
+
+            Class<?> t = otherwise.javaType;
+            for (Node value : values) {
+                t = unify(t, value.javaType, "case");
+            }
+            Node node = otherwise.as(t);
+            for (int i = conditions.size() - 1; i >= 0; i--) {
+                node = when(conditions.get(i), values.get(i).as(t), node);
+            }
+            return node;
+        }
+
+        private Node column(String name)
+        {
+            Column column;
+            try {
+                column = inputSchema.lookupColumn(name);
+            }
+            catch (SchemaConfigException ex) {
+                throw error(String.format("column '%s' is not found in inputSchema", name));
+            }
+            Class<?> t = javaTypeOf(column.getType());
+            if (t == null) {
+                throw error(String.format("type: '%s' of column '%s' is not available", column.getType(), name));
+            }
+            return new Node(t, columnGetter("get" + t.getSimpleName(), t, column));
+        }
+
+        private Node function(String name, List<Node> args)
+        {
+            switch (name) {
+            case "concat":
+                if (args.isEmpty()) {
+                    throw error("concat requires arguments");
+                }
+                Node concat = asString(args.get(0));
+                concat = unary(findStatic("emptyIfNull", String.class, String.class), concat);
+                for (int i = 1; i < args.size(); i++) {
+                    Node arg = unary(findStatic("emptyIfNull", String.class, String.class), asString(args.get(i)));
+                    concat = binary(findStatic("concat", String.class, String.class, String.class), concat, arg);
+                }
+                return concat;
+            case "coalesce":
+                if (args.isEmpty()) {
+                    throw error("coalesce requires arguments");
+                }
+                Class<?> t = Void.class;
+                for (Node arg : args) {
+                    t = unify(t, arg.javaType, "coalesce");
+                }
+                Node node = args.get(args.size() - 1).as(t);
+                for (int i = args.size() - 2; i >= 0; i--) {
+                    node = coalesce(args.get(i).as(t), node);
+                }
+                return node;
+            case "substring":
+                if (args.size() != 2 && args.size() != 3) {
+                    throw error("substring requires 2 or 3 arguments");
+                }
+                Node s = asString(args.get(0));
+                Node start = asLong(args.get(1));
+                Node substring = binary(findStatic("substring", String.class, String.class, Long.class), s, start);
+                if (args.size() == 3) {
+                    substring = binary(findStatic("left", String.class, String.class, Long.class), substring, asLong(args.get(2)));
+                }
+                return substring;
+            case "length":
+                checkArity(name, args, 1);
+                return unary(findStatic("length", Long.class, String.class), asString(args.get(0)));
+            case "upper":
+                checkArity(name, args, 1);
+                return unary(findStatic("upper", String.class, String.class), asString(args.get(0)));
+            case "lower":
+                checkArity(name, args, 1);
+                return unary(findStatic("lower", String.class, String.class), asString(args.get(0)));
+            case "to_string":
+                checkArity(name, args, 1);
+                return asString(args.get(0));
+            default:
+                throw error(String.format("function '%s' is not supported", name));
+            }
+        }
+
+        private void checkArity(String name, List<Node> args, int arity)
+        {
+            if (args.size() != arity) {
+                throw error(String.format("%s requires %d argument(s)", name, arity));
+            }
+        }
+
+        private Node arithmetic(String operator, Node left, Node right)
+        {
+            if (left.javaType == Timestamp.class || right.javaType == Timestamp.class) {
+                return timestampArithmetic(operator, left, right);
+            }
+            Class<?> t = unify(left, right, operator);
+            if (t == Void.class) {
+                t = Long.class;
+            }
+            if (t == Long.class) {
+                return binary(findStatic(operator + "Long", Long.class, Long.class, Long.class), left.as(t), right.as(t));
+            }
+            else if (t == Double.class) {
+                return binary(findStatic(operator + "Double", Double.class, Double.class, Double.class), left.as(t), right.as(t));
+            }
+            throw error(String.format("arithmetic is available only for numbers and timestamps, but %s is given", t.getSimpleName()));
+        }
+
+        // timestamp + seconds, timestamp - seconds, timestamp - timestamp
+        private Node timestampArithmetic(String operator, Node left, Node right)
+        {
+            if (operator.equals("sub") && left.javaType == Timestamp.class && right.javaType == Timestamp.class) {
+                return binary(findStatic("diffSeconds", Double.class, Timestamp.class, Timestamp.class), left, right);
+            }
+            if (left.javaType == Timestamp.class && (right.javaType == Long.class || right.javaType == Double.class)) {
+                if (operator.equals("add")) {
+                    return binary(findStatic("addSeconds", Timestamp.class, Timestamp.class, Double.class), left, right.as(Double.class));
+                }
+                else if (operator.equals("sub")) {
+                    Node negated = unary(findStatic("negDouble", Double.class, Double.class), right.as(Double.class));
+                    return binary(findStatic("addSeconds", Timestamp.class, Timestamp.class, Double.class), left, negated);
+                }
+            }
+            if (operator.equals("add") && right.javaType == Timestamp.class && (left.javaType == Long.class || left.javaType == Double.class)) {
+                return timestampArithmetic(operator, right, left);
+            }
+            throw error(String.format("'%s' is not available for %s and %s", operator, left.javaType.getSimpleName(), right.javaType.getSimpleName()));
+        }
+
+        private Class<?> unify(Node left, Node right, String context)
+        {
+            return unify(left.javaType, right.javaType, context);
+        }
+
+        private Class<?> unify(Class<?> a, Class<?> b, String context)
+        {
+            if (a == b || b == Void.class) {
+                return a;
+            }
+            if (a == Void.class) {
+                return b;
+            }
+            if ((a == Long.class && b == Double.class) || (a == Double.class && b == Long.class)) {
+                return Double.class;
+            }
+            throw error(String.format("%s and %s are not compatible for '%s'", a.getSimpleName(), b.getSimpleName(), context));
+        }
+
+        private Node asBoolean(Node node)
+        {
+            if (node.javaType != Boolean.class && node.javaType != Void.class) {
+                throw error(String.format("boolean is expected, but %s is given", node.javaType.getSimpleName()));
+            }
+            return node.as(Boolean.class);
+        }
+
+        private Node asLong(Node node)
+        {
+            if (node.javaType != Long.class && node.javaType != Void.class) {
+                throw error(String.format("long is expected, but %s is given", node.javaType.getSimpleName()));
+            }
+            return node.as(Long.class);
+        }
+
+        private Node asString(Node node)
+        {
+            if (node.javaType == String.class) {
+                return node;
+            }
+            MethodHandle toString = findStatic("toStringOrNull", String.class, Object.class);
+            return unary(toString.asType(MethodType.methodType(String.class, node.javaType)), node);
+        }
+    }
+
+    // Functions referred by MethodHandles. They must be null-safe.
+
+    private static Boolean getBoolean(PageReader r, Column c)
+    {
+        return r.isNull(c) ? null : r.getBoolean(c);
+    }
+
+    private static Long getLong(PageReader r, Column c)
+    {
+        return r.isNull(c) ? null : r.getLong(c);
+    }
+
+    private static Double getDouble(PageReader r, Column c)
+    {
+        return r.isNull(c) ? null : r.getDouble(c);
+    }
+
+    private static String getString(PageReader r, Column c)
+    {
+        return r.isNull(c) ? null : r.getString(c);
+    }
+
+    private static Timestamp getTimestamp(PageReader r, Column c)
+    {
+        return r.isNull(c) ? null : r.getTimestamp(c);
+    }
+
+    private static Double toDouble(Long v)
+    {
+        return v == null ? null : v.doubleValue();
+    }
+
+    private static boolean isNotNull(Object v)
+    {
+        return v != null;
+    }
+
+    private static boolean isTrue(Boolean v)
+    {
+        return v != null && v.booleanValue();
+    }
+
+    private static Boolean isNullBoolean(Object v)
+    {
+        return v == null;
+    }
+
+    private static Boolean isNotNullBoolean(Object v)
+    {
+        return v != null;
+    }
+
+    // three-valued logic as SQL
+    private static Boolean and(Boolean a, Boolean b)
+    {
+        if (Boolean.FALSE.equals(a) || Boolean.FALSE.equals(b)) {
+            return false;
+        }
+        return (a == null || b == null) ? null : true;
+    }
+
+    private static Boolean or(Boolean a, Boolean b)
+    {
+        if (Boolean.TRUE.equals(a) || Boolean.TRUE.equals(b)) {
+            return true;
+        }
+        return (a == null || b == null) ? null : false;
+    }
+
+    private static Boolean not(Boolean a)
+    {
+        return a == null ? null : ! a;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Integer compare(Comparable a, Comparable b)
+    {
+        return (a == null || b == null) ? null : a.compareTo(b);
+    }
+
+    private static Boolean eq(Comparable a, Comparable b)
+    {
+        Integer c = compare(a, b);
+        return c == null ? null : c == 0;
+    }
+
+    private static Boolean ne(Comparable a, Comparable b)
+    {
+        Integer c = compare(a, b);
+        return c == null ? null : c != 0;
+    }
+
+    private static Boolean lt(Comparable a, Comparable b)
+    {
+        Integer c = compare(a, b);
+        return c == null ? null : c < 0;
+    }
+
+    private static Boolean le(Comparable a, Comparable b)
+    {
+        Integer c = compare(a, b);
+        return c == null ? null : c <= 0;
+    }
+
+    private static Boolean gt(Comparable a, Comparable b)
+    {
+        Integer c = compare(a, b);
+        return c == null ? null : c > 0;
+    }
+
+    private static Boolean ge(Comparable a, Comparable b)
+    {
+        Integer c = compare(a, b);
+        return c == null ? null : c >= 0;
+    }
+
+    private static Long addLong(Long a, Long b)
+    {
+        return (a == null || b == null) ? null : a + b;
+    }
+
+    private static Long subLong(Long a, Long b)
+    {
+        return (a == null || b == null) ? null : a - b;
+    }
+
+    private static Long mulLong(Long a, Long b)
+    {
+        return (a == null || b == null) ? null : a * b;
+    }
+
+    private static Long divLong(Long a, Long b)
+    {
+        return (a == null || b == null || b == 0L) ? null : a / b;
+    }
+
+    private static Long modLong(Long a, Long b)
+    {
+        return (a == null || b == null || b == 0L) ? null : a % b;
+    }
+
+    private static Long negLong(Long a)
+    {
+        return a == null ? null : -a;
+    }
+
+    private static Double addDouble(Double a, Double b)
+    {
+        return (a == null || b == null) ? null : a + b;
+    }
+
+    private static Double subDouble(Double a, Double b)
+    {
+        return (a == null || b == null) ? null : a - b;
+    }
+
+    private static Double mulDouble(Double a, Double b)
+    {
+        return (a == null || b == null) ? null : a * b;
+    }
+
+    private static Double divDouble(Double a, Double b)
+    {
+        return (a == null || b == null) ? null : a / b;
+    }
+
+    private static Double modDouble(Double a, Double b)
+    {
+        return (a == null || b == null) ? null : a % b;
+    }
+
+    private static Double negDouble(Double a)
+    {
+        return a == null ? null : -a;
+    }
+
+    private static Timestamp addSeconds(Timestamp t, Double seconds)
+    {
+        if (t == null || seconds == null) {
+            return null;
+        }
+        long wholeSeconds = (long) Math.floor(seconds);
+        long nanos = Math.round((seconds - wholeSeconds) * 1000000000.0);
+        return Timestamp.ofEpochSecond(t.getEpochSecond() + wholeSeconds, t.getNano() + nanos);
+    }
+
+    private static Double diffSeconds(Timestamp a, Timestamp b)
+    {
+        if (a == null || b == null) {
+            return null;
+        }
+        return (a.getEpochSecond() - b.getEpochSecond()) + (a.getNano() - b.getNano()) / 1000000000.0;
+    }
+
+    private static String toStringOrNull(Object v)
+    {
+        return v == null ? null : v.toString();
+    }
+
+    private static String emptyIfNull(String s)
+    {
+        return s == null ? "" : s;
+    }
+
+    private static String concat(String a, String b)
+    {
+        return (a == null || b == null) ? null : a.concat(b);
+    }
+
+    // 1-origin as SQL
+    private static String substring(String s, Long start)
+    {
+        if (s == null || start == null) {
+            return null;
+        }
+        int begin = (int) Math.max(0L, Math.min(s.length(), start - 1));
+        return s.substring(begin);
+    }
+
+    private static String left(String s, Long length)
+    {
+        if (s == null || length == null) {
+            return null;
+        }
+        return s.substring(0, (int) Math.max(0L, Math.min(s.length(), length)));
+    }
+
+    private static Long length(String s)
+    {
+        return s == null ? null : Long.valueOf(s.length());
+    }
+
+    private static String upper(String s)
+    {
+        return s == null ? null : s.toUpperCase();
+    }
+
+    private static String lower(String s)
+    {
+        return s == null ? null : s.toLowerCase();
+    }
+}
@@ -0,0 +1,48 @@
+package org.embulk.filter.column;
+
+// HyperLogLog to estimate the number of distinct values from their 64 bits hashes.
+// 2^12 registers of a byte give about 1.6% of standard error. Sketches are mergeable.
+public class HyperLogLog
+{
+    private static final int P = 12;
+    private static final int M = 1 << P;
+    private static final double ALPHA = 0.7213 / (1.0 + 1.079 / M);
+
+    private final byte[] registers = new byte[M];
+
+    public void add(long hash)
+    {
+        int index = (int) (hash >>> (64 - P));
+        long w = hash << P;
+        int rank = w == 0 ? (64 - P + 1) : Long.numberOfLeadingZeros(w) + 1;
+        if (rank > registers[index]) {
+            registers[index] = (byte) rank;
+        }
+    }
+
+    public void merge(HyperLogLog other)
+    {
+        for (int i = 0; i < M; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    public long estimate()
+    {
+        double sum = 0.0;
+        int zeros = 0;
+        for (int i = 0; i < M; i++) {
+            sum += 1.0 / (1L << registers[i]);
+            if (registers[i] == 0) {
+                zeros++;
+            }
+        }
+        double estimate = ALPHA * M * M / sum;
+        if (estimate <= 2.5 * M && zeros > 0) {
+            estimate = M * Math.log((double) M / zeros); // linear counting for small cardinality
+        }
+        return Math.round(estimate);
+    }
+}
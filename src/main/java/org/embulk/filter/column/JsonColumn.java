@@ -6,6 +6,9 @@ import org.msgpack.value.StringValue;
 import org.msgpack.value.Value;
 import org.msgpack.value.ValueFactory;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class JsonColumn
 {
     private final String path;
@@ -24,6 +27,8 @@ public class JsonColumn
     private String srcParentPath = null;
     private String srcBaseName = null;
     private Long srcBaseIndex = null;
+    private ArraySlice srcSlice = null;
+    private JsonPathFilter srcFilter = null;
     private StringValue srcParentPathValue = null;
     private StringValue srcBaseNameValue = null;
 
@@ -58,6 +63,8 @@ public class JsonColumn
         this.srcParentPath = parentPath(this.src);
         this.srcBaseName = baseName(this.src);
         this.srcBaseIndex = baseIndex(this.src);
+        this.srcSlice = ArraySlice.parse(this.srcBaseName);
+        this.srcFilter = JsonPathFilter.parse(this.srcBaseName);
         this.srcParentPathValue = ValueFactory.newString(this.srcParentPath);
         this.srcBaseNameValue = ValueFactory.newString(this.srcBaseName);
 
@@ -136,6 +143,18 @@ public class JsonColumn
         return srcBaseIndex;
     }
 
+    // NOTE: null if src is not [start:end] nor [-n]
+    public ArraySlice getSrcSlice()
+    {
+        return srcSlice;
+    }
+
+    // NOTE: null if src is not [?(...)]
+    public JsonPathFilter getSrcFilter()
+    {
+        return srcFilter;
+    }
+
     public StringValue getSrcParentPathValue()
     {
         return srcParentPathValue;
@@ -149,31 +168,14 @@ public class JsonColumn
     // like File.dirname
     public static String parentPath(String path)
     {
-        String[] parts = path.split("\\.");
-        StringBuilder builder = new StringBuilder();
-        for (int i = 0; i < parts.length - 1; i++) {
-            builder.append(".").append(parts[i]);
-        }
-        if (parts[parts.length - 1].contains("[")) {
-            String[] arrayParts = parts[parts.length - 1].split("\\[");
-            builder.append(".").append(arrayParts[0]);
-            for (int j = 1; j < arrayParts.length - 1; j++) {
-                builder.append("[").append(arrayParts[j]);
-            }
-        }
-        return builder.deleteCharAt(0).toString();
+        List<String> parts = splitPath(path);
+        return joinPath(parts, parts.size() - 1);
     }
 
     public static String baseName(String path)
     {
-        String[] parts = path.split("\\.");
-        String[] arrayParts = parts[parts.length - 1].split("\\[");
-        if (arrayParts.length == 1) { // no [i]
-            return arrayParts[arrayParts.length - 1];
-        }
-        else {
-            return "[" + arrayParts[arrayParts.length - 1];
-        }
+        List<String> parts = splitPath(path);
+        return parts.get(parts.size() - 1);
     }
 
     public static Long baseIndex(String path)
@@ -192,4 +194,72 @@ public class JsonColumn
             return null;
         }
     }
+
+    // $.foo.bar[0][?(@.x == 'a.b')] => [$, foo, bar, [0], [?(@.x == 'a.b')]]
+    // NOTE: dots in [] such as of filter expressions do not split the path
+    public static List<String> splitPath(String path)
+    {
+        List<String> parts = new ArrayList<>();
+        int length = path.length();
+        int i = 0;
+        while (i < length) {
+            char c = path.charAt(i);
+            if (c == '[') {
+                int end = closingBracket(path, i);
+                parts.add(path.substring(i, end));
+                i = end;
+                continue;
+            }
+            int start = (c == '.' && ! parts.isEmpty()) ? i + 1 : i;
+            int end = start;
+            while (end < length && path.charAt(end) != '.' && path.charAt(end) != '[') {
+                end++;
+            }
+            parts.add(path.substring(start, end));
+            i = end;
+        }
+        return parts;
+    }
+
+    // first n parts of splitPath joined again
+    public static String joinPath(List<String> parts, int n)
+    {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            String part = parts.get(i);
+            if (i > 0 && ! part.startsWith("[")) {
+                builder.append(".");
+            }
+            builder.append(part);
+        }
+        return builder.toString();
+    }
+
+    // index next to the ] which closes the [ at start, skipping quoted strings
+    private static int closingBracket(String path, int start)
+    {
+        char quote = 0;
+        int depth = 0;
+        for (int i = start; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (quote != 0) {
+                if (c == '\\') {
+                    i++;
+                }
+                else if (c == quote) {
+                    quote = 0;
+                }
+            }
+            else if (c == '\'' || c == '"') {
+                quote = c;
+            }
+            else if (c == '[') {
+                depth++;
+            }
+            else if (c == ']' && --depth == 0) {
+                return i + 1;
+            }
+        }
+        return path.length();
+    }
 }
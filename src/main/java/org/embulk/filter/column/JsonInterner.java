@@ -0,0 +1,187 @@
+package org.embulk.filter.column;
+
+import org.msgpack.value.ArrayValue;
+import org.msgpack.value.MapValue;
+import org.msgpack.value.Value;
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// json_intern_cache: true
+//
+// Makes structurally identical json arrays and maps share one immutable Value instance (hash-consing),
+// so that pages do not hold many copies of the same sub document. The cache is bounded with LRU eviction.
+// NOTE: msgpack's Value#equals ignores the order of map entries, so keys compare values in order here
+// not to change the output.
+// JsonVisitor interns bottom-up, so the hash of a parent combines the hashes of its children, which are
+// remembered for interned instances. A subtree is hashed only once, not again at each upper level.
+public class JsonInterner
+{
+    private final LinkedHashMap<Key, Value> cache;
+    private final IdentityHashMap<Value, Integer> hashes = new IdentityHashMap<>(); // of values in the cache
+
+    public JsonInterner(final int maxSize)
+    {
+        this.cache = new LinkedHashMap<Key, Value>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Value> eldest)
+            {
+                if (size() > maxSize) {
+                    hashes.remove(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    // NOTE: value would be null. The cache is locked for json_parallel_threshold, and so is hashing, which
+    // reads hashes of interned children
+    public Value intern(Value value)
+    {
+        if (value == null || ! (value.isArrayValue() || value.isMapValue())) {
+            return value;
+        }
+        synchronized (cache) {
+            Integer known = hashes.get(value);
+            if (known != null) {
+                cache.get(new Key(value, known)); // already interned, used recently
+                return value;
+            }
+            int hash = hash(value);
+            Value interned = cache.get(new Key(value, hash));
+            if (interned != null) {
+                return interned;
+            }
+            Value immutable = value.immutableValue();
+            cache.put(new Key(immutable, hash), immutable);
+            hashes.put(immutable, hash);
+            return immutable;
+        }
+    }
+
+    // structuralHash, which takes the hashes of interned children as they are
+    private int hash(Value value)
+    {
+        if (value.isArrayValue()) {
+            int hash = 1;
+            for (Value element : value.asArrayValue()) {
+                hash = 31 * hash + childHash(element);
+            }
+            return hash;
+        }
+        else if (value.isMapValue()) {
+            int hash = 2;
+            for (Map.Entry<Value, Value> entry : value.asMapValue().entrySet()) {
+                hash = 31 * hash + childHash(entry.getKey());
+                hash = 31 * hash + childHash(entry.getValue());
+            }
+            return hash;
+        }
+        return structuralHash(value);
+    }
+
+    private int childHash(Value value)
+    {
+        Integer known = hashes.get(value);
+        return known != null ? known : hash(value);
+    }
+
+    public int size()
+    {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    private static class Key
+    {
+        final Value value;
+        final int hash;
+
+        Key(Value value, int hash)
+        {
+            this.value = value;
+            this.hash = hash;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (! (obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hash == other.hash && structuralEquals(value, other.value);
+        }
+    }
+
+    static int structuralHash(Value value)
+    {
+        if (value.isArrayValue()) {
+            int hash = 1;
+            for (Value element : value.asArrayValue()) {
+                hash = 31 * hash + structuralHash(element);
+            }
+            return hash;
+        }
+        else if (value.isMapValue()) {
+            int hash = 2;
+            for (Map.Entry<Value, Value> entry : value.asMapValue().entrySet()) {
+                hash = 31 * hash + structuralHash(entry.getKey());
+                hash = 31 * hash + structuralHash(entry.getValue());
+            }
+            return hash;
+        }
+        return 31 * value.getValueType().hashCode() + value.hashCode();
+    }
+
+    static boolean structuralEquals(Value a, Value b)
+    {
+        if (a == b) {
+            return true;
+        }
+        if (a.getValueType() != b.getValueType()) {
+            return false;
+        }
+        if (a.isArrayValue()) {
+            ArrayValue x = a.asArrayValue();
+            ArrayValue y = b.asArrayValue();
+            if (x.size() != y.size()) {
+                return false;
+            }
+            for (int i = 0; i < x.size(); i++) {
+                if (! structuralEquals(x.get(i), y.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        else if (a.isMapValue()) {
+            MapValue x = a.asMapValue();
+            MapValue y = b.asMapValue();
+            if (x.size() != y.size()) {
+                return false;
+            }
+            Iterator<Map.Entry<Value, Value>> i = x.entrySet().iterator();
+            Iterator<Map.Entry<Value, Value>> j = y.entrySet().iterator();
+            while (i.hasNext()) {
+                Map.Entry<Value, Value> e = i.next();
+                Map.Entry<Value, Value> f = j.next();
+                if (! structuralEquals(e.getKey(), f.getKey()) || ! structuralEquals(e.getValue(), f.getValue())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return a.equals(b);
+    }
+}
@@ -0,0 +1,175 @@
+package org.embulk.filter.column;
+
+import org.embulk.config.ConfigException;
+import org.msgpack.value.MapValue;
+import org.msgpack.value.StringValue;
+import org.msgpack.value.Value;
+import org.msgpack.value.ValueFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// A filter of array elements in JSONPath (like) name, as [?(@.type == 'purchase')].
+//
+// Supports a field of the element (@.foo.bar), compared by ==, !=, <, <=, >, or >= with a literal of
+// string ('a' or "a"), number, true, false, or null. [?(@.foo)] tests only the existence of the field.
+// It is compiled once, and evaluated against elements without copying them.
+public class JsonPathFilter
+{
+    private final String expression;
+    private final StringValue[] keys;
+    private final int operator; // NOTE: WhereFilter.IS_NOT_NULL to test the existence
+    private final Object literal; // NOTE: String, Long, Double, Boolean, or null
+
+    private JsonPathFilter(String expression, StringValue[] keys, int operator, Object literal)
+    {
+        this.expression = expression;
+        this.keys = keys;
+        this.operator = operator;
+        this.literal = literal;
+    }
+
+    // Returns null if baseName is not [?(...)]
+    public static JsonPathFilter parse(String baseName)
+    {
+        if (! (baseName.startsWith("[?(") && baseName.endsWith(")]"))) {
+            return null;
+        }
+        String expression = baseName.substring(3, baseName.length() - 2).trim();
+        if (! expression.startsWith("@")) {
+            throw new ConfigException(String.format("%s: filter expression must start with @", baseName));
+        }
+
+        List<StringValue> keys = new ArrayList<>();
+        int length = expression.length();
+        int i = 1;
+        while (i < length && expression.charAt(i) == '.') {
+            int start = ++i;
+            while (i < length && isNameChar(expression.charAt(i))) {
+                i++;
+            }
+            if (start == i) {
+                throw new ConfigException(String.format("%s: field name is empty", baseName));
+            }
+            keys.add(ValueFactory.newString(expression.substring(start, i)));
+        }
+        if (keys.isEmpty()) {
+            throw new ConfigException(String.format("%s: filter expression must have a field such as @.foo", baseName));
+        }
+
+        String rest = expression.substring(i).trim();
+        if (rest.isEmpty()) {
+            return new JsonPathFilter(expression, keys.toArray(new StringValue[0]), WhereFilter.IS_NOT_NULL, null);
+        }
+        int end = 0;
+        while (end < rest.length() && "=!<>".indexOf(rest.charAt(end)) >= 0) {
+            end++;
+        }
+        String symbol = rest.substring(0, end);
+        if (! (symbol.equals("==") || symbol.equals("!=") || symbol.equals("<") || symbol.equals("<=")
+                    || symbol.equals(">") || symbol.equals(">="))) {
+            throw new ConfigException(String.format("%s: operator '%s' is not supported", baseName, symbol));
+        }
+        Object literal = parseLiteral(baseName, rest.substring(end).trim());
+        return new JsonPathFilter(expression, keys.toArray(new StringValue[0]), WhereFilter.operator(symbol), literal);
+    }
+
+    private static boolean isNameChar(char c)
+    {
+        return c != '.' && c != ' ' && c != '=' && c != '!' && c != '<' && c != '>';
+    }
+
+    private static Object parseLiteral(String baseName, String literal)
+    {
+        if (literal.length() >= 2 && (literal.charAt(0) == '\'' || literal.charAt(0) == '"')
+                && literal.charAt(literal.length() - 1) == literal.charAt(0)) {
+            StringBuilder builder = new StringBuilder();
+            for (int i = 1; i < literal.length() - 1; i++) {
+                char c = literal.charAt(i);
+                if (c == '\\' && i + 1 < literal.length() - 1) {
+                    c = literal.charAt(++i);
+                }
+                builder.append(c);
+            }
+            return builder.toString();
+        }
+        else if (literal.equals("true") || literal.equals("false")) {
+            return Boolean.valueOf(literal);
+        }
+        else if (literal.equals("null")) {
+            return null;
+        }
+        try {
+            return Long.valueOf(literal);
+        }
+        catch (NumberFormatException ex) {
+            // try double
+        }
+        try {
+            return Double.valueOf(literal);
+        }
+        catch (NumberFormatException ex) {
+            throw new ConfigException(String.format("%s: '%s' is not a valid literal", baseName, literal));
+        }
+    }
+
+    public String getExpression()
+    {
+        return expression;
+    }
+
+    public boolean matches(Value element)
+    {
+        Value value = element;
+        for (StringValue key : keys) {
+            if (value == null || ! value.isMapValue()) {
+                return false;
+            }
+            value = lookup(value.asMapValue(), key);
+        }
+        if (value == null) {
+            return false; // missing field never matches
+        }
+        if (operator == WhereFilter.IS_NOT_NULL) {
+            return true;
+        }
+        int compared;
+        if (literal == null) {
+            compared = value.isNilValue() ? 0 : Integer.MIN_VALUE;
+        }
+        else if (literal instanceof String) {
+            compared = value.isStringValue() ? value.asStringValue().asString().compareTo((String) literal) : Integer.MIN_VALUE;
+        }
+        else if (literal instanceof Boolean) {
+            compared = value.isBooleanValue() && value.asBooleanValue().getBoolean() == (Boolean) literal ? 0 : Integer.MIN_VALUE;
+            if (compared != 0 && operator != WhereFilter.EQ && operator != WhereFilter.NE) {
+                return false;
+            }
+        }
+        else if (! value.isNumberValue()) {
+            compared = Integer.MIN_VALUE;
+        }
+        else if (literal instanceof Long && value.isIntegerValue() && value.asIntegerValue().isInLongRange()) {
+            compared = Long.compare(value.asIntegerValue().asLong(), (Long) literal);
+        }
+        else {
+            compared = Double.compare(value.asNumberValue().toDouble(), ((Number) literal).doubleValue());
+        }
+        if (compared == Integer.MIN_VALUE) { // not comparable
+            return operator == WhereFilter.NE;
+        }
+        return WhereFilter.compare(operator, compared);
+    }
+
+    // NOTE: iterates entries not to build a java.util.Map of the map value
+    private static Value lookup(MapValue mapValue, StringValue key)
+    {
+        for (Map.Entry<Value, Value> entry : mapValue.entrySet()) {
+            if (key.equals(entry.getKey())) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+}
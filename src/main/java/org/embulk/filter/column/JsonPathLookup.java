@@ -0,0 +1,111 @@
+package org.embulk.filter.column;
+
+import org.embulk.config.ConfigException;
+import org.msgpack.value.ArrayValue;
+import org.msgpack.value.Value;
+import org.msgpack.value.ValueFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Looks up a single value by a json path such as $.json.foo.bar[0] without copying anything
+public class JsonPathLookup
+{
+    private final String path;
+    private final String rootName;
+    private final Object[] segments; // StringValue for a map key, Integer for an array index, negative from the end
+
+    public JsonPathLookup(String path)
+    {
+        this.path = path;
+        if (! path.startsWith("$.")) {
+            throw new ConfigException(String.format("json path '%s' must start with $.", path));
+        }
+        List<Object> parts = new ArrayList<>();
+        String rootName = null;
+        int i = 2;
+        int length = path.length();
+        while (i < length) {
+            char c = path.charAt(i);
+            if (c == '.') {
+                i++;
+                continue;
+            }
+            if (c == '[') {
+                if (rootName == null) {
+                    throw new ConfigException(String.format("json path '%s' does not have a column name", path));
+                }
+                int end = path.indexOf(']', i);
+                if (end < 0) {
+                    throw new ConfigException(String.format("json path '%s' has an unclosed [", path));
+                }
+                String index = path.substring(i + 1, end);
+                try {
+                    parts.add(Integer.valueOf(index));
+                }
+                catch (NumberFormatException ex) {
+                    throw new ConfigException(String.format("json path '%s': only [n] is available here, but [%s] is given", path, index));
+                }
+                i = end + 1;
+                continue;
+            }
+            int end = i;
+            while (end < length && path.charAt(end) != '.' && path.charAt(end) != '[') {
+                end++;
+            }
+            String name = path.substring(i, end);
+            if (rootName == null) {
+                rootName = name;
+            }
+            else {
+                parts.add(ValueFactory.newString(name));
+            }
+            i = end;
+        }
+        if (rootName == null) {
+            throw new ConfigException(String.format("json path '%s' does not have a column name", path));
+        }
+        this.rootName = rootName;
+        this.segments = parts.toArray();
+    }
+
+    public String getPath()
+    {
+        return path;
+    }
+
+    // name of the column where the json path starts
+    public String getRootName()
+    {
+        return rootName;
+    }
+
+    // returns null if the path does not exist in the value
+    public Value get(Value root)
+    {
+        Value value = root;
+        for (Object segment : segments) {
+            if (value == null) {
+                return null;
+            }
+            if (segment instanceof Integer) {
+                if (! value.isArrayValue()) {
+                    return null;
+                }
+                ArrayValue array = value.asArrayValue();
+                int index = ((Integer) segment).intValue();
+                if (index < 0) {
+                    index += array.size(); // same with ArraySlice
+                }
+                value = (index >= 0 && index < array.size() ? array.get(index) : null);
+            }
+            else {
+                if (! value.isMapValue()) {
+                    return null;
+                }
+                value = value.asMapValue().map().get((Value) segment);
+            }
+        }
+        return value;
+    }
+}
@@ -0,0 +1,361 @@
+package org.embulk.filter.column;
+
+import org.embulk.spi.DataException;
+
+import org.msgpack.value.Value;
+import org.msgpack.value.ValueFactory;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// JSON text of a type: string column, projected by JSONPath (like) names.
+//
+// Tokenizes the text in one pass, and builds msgpack values only for members which JsonVisitor may output.
+// A member of a map is skipped without building a value if the map is under `columns` and the member is
+// not a src of them, or if the member is in `drop_columns`. The result still goes through JsonVisitor,
+// which applies the rest such as defaults, types, and the order of members.
+public class JsonTextProjector
+{
+    private final JsonVisitor visitor;
+    // json path of a map => names of members to read. NOTE: all members are read if the path is not here
+    private final HashMap<String, HashSet<String>> readMembers = new HashMap<>();
+    // json path of a map => names of members which JsonVisitor visits by another path, read without projection
+    private final HashMap<String, HashSet<String>> wholeMembers = new HashMap<>();
+
+    private String text;
+    private int pos;
+
+    JsonTextProjector(JsonVisitor visitor)
+    {
+        this.visitor = visitor;
+        for (Map.Entry<String, LinkedHashMap<String, JsonColumn>> entry : visitor.jsonColumns.entrySet()) {
+            HashSet<String> members = new HashSet<>();
+            for (JsonColumn jsonColumn : entry.getValue().values()) {
+                members.add(jsonColumn.getSrcBaseNameValue().asString());
+                if (! jsonColumn.getPath().equals(jsonColumn.getSrc())) {
+                    addWholeMember(entry.getKey(), jsonColumn);
+                }
+            }
+            if (! visitor.jsonDropColumns.containsKey(entry.getKey())) { // drop_columns wins, see JsonVisitor#visitMap
+                readMembers.put(entry.getKey(), members);
+            }
+        }
+        for (Map.Entry<String, LinkedHashMap<String, JsonColumn>> entry : visitor.jsonAddColumns.entrySet()) {
+            for (JsonColumn jsonColumn : entry.getValue().values()) {
+                // NOTE: add_columns get src from the map as is, even if it is dropped
+                addWholeMember(entry.getKey(), jsonColumn);
+                if (readMembers.containsKey(entry.getKey())) {
+                    readMembers.get(entry.getKey()).add(jsonColumn.getSrcBaseNameValue().asString());
+                }
+            }
+        }
+    }
+
+    private void addWholeMember(String path, JsonColumn jsonColumn)
+    {
+        if (! wholeMembers.containsKey(path)) {
+            wholeMembers.put(path, new HashSet<String>());
+        }
+        wholeMembers.get(path).add(jsonColumn.getSrcBaseNameValue().asString());
+    }
+
+    // Throws DataException if the text is not valid JSON
+    public Value project(String jsonPath, String text)
+    {
+        this.text = text;
+        this.pos = 0;
+        try {
+            skipWhitespace();
+            Value value = readValue(jsonPath);
+            skipWhitespace();
+            if (pos < text.length()) {
+                throw invalid("unexpected text after the value");
+            }
+            return value;
+        }
+        finally {
+            this.text = null;
+        }
+    }
+
+    // path is null under paths which JsonVisitor does not visit, to read all
+    private Value readValue(String path)
+    {
+        char c = peek();
+        switch (c) {
+        case '{':
+            return readMap(path);
+        case '[':
+            return readArray(path);
+        case '"':
+            return ValueFactory.newString(readString());
+        case 't':
+            expect("true");
+            return ValueFactory.newBoolean(true);
+        case 'f':
+            expect("false");
+            return ValueFactory.newBoolean(false);
+        case 'n':
+            expect("null");
+            return ValueFactory.newNil();
+        default:
+            return readNumber();
+        }
+    }
+
+    private Value readMap(String path)
+    {
+        pos++; // {
+        boolean visited = path != null && visitor.shouldVisit(path);
+        HashSet<String> members = visited ? readMembers.get(path) : null;
+        HashSet<String> wholes = visited ? wholeMembers.get(path) : null;
+        HashSet<String> drops = visited ? visitor.jsonDropColumns.get(path) : null;
+        List<Value> kvs = new ArrayList<>();
+        skipWhitespace();
+        if (peek() == '}') {
+            pos++;
+            return ValueFactory.newMap(new Value[0], true);
+        }
+        while (true) {
+            skipWhitespace();
+            if (peek() != '"') {
+                throw invalid("a member name is expected");
+            }
+            String key = readString();
+            skipWhitespace();
+            if (next() != ':') {
+                throw invalid("':' is expected");
+            }
+            skipWhitespace();
+            String childPath = visited ? new StringBuilder(path).append('.').append(key).toString() : null;
+            if (wholes != null && wholes.contains(key)) {
+                kvs.add(ValueFactory.newString(key));
+                kvs.add(readValue(null));
+            }
+            else if ((members != null && ! members.contains(key)) || (drops != null && drops.contains(childPath))) {
+                skipValue();
+            }
+            else {
+                kvs.add(ValueFactory.newString(key));
+                kvs.add(readValue(childPath));
+            }
+            skipWhitespace();
+            char c = next();
+            if (c == '}') {
+                return ValueFactory.newMap(kvs.toArray(new Value[0]), true);
+            }
+            if (c != ',') {
+                throw invalid("',' or '}' is expected");
+            }
+        }
+    }
+
+    private Value readArray(String path)
+    {
+        pos++; // [
+        boolean visited = path != null && visitor.shouldVisit(path);
+        List<Value> values = new ArrayList<>();
+        skipWhitespace();
+        if (peek() == ']') {
+            pos++;
+            return ValueFactory.newArray(new Value[0], true);
+        }
+        while (true) {
+            skipWhitespace();
+            values.add(readValue(visited ? visitor.newArrayJsonPath(path, values.size()) : null));
+            skipWhitespace();
+            char c = next();
+            if (c == ']') {
+                return ValueFactory.newArray(values.toArray(new Value[0]), true);
+            }
+            if (c != ',') {
+                throw invalid("',' or ']' is expected");
+            }
+        }
+    }
+
+    // Skips a value without building it. NOTE: only brackets and strings are checked in a skipped value
+    private void skipValue()
+    {
+        char c = peek();
+        if (c == '"') {
+            skipString();
+        }
+        else if (c == '{' || c == '[') {
+            int depth = 0;
+            do {
+                c = next();
+                if (c == '"') {
+                    pos--;
+                    skipString();
+                }
+                else if (c == '{' || c == '[') {
+                    depth++;
+                }
+                else if (c == '}' || c == ']') {
+                    depth--;
+                }
+            } while (depth > 0);
+        }
+        else {
+            int start = pos;
+            while (pos < text.length() && "{}[],: \t\r\n".indexOf(text.charAt(pos)) < 0) {
+                pos++;
+            }
+            if (start == pos) {
+                throw invalid("a value is expected");
+            }
+        }
+    }
+
+    private void skipString()
+    {
+        pos++; // "
+        while (true) {
+            char c = next();
+            if (c == '"') {
+                return;
+            }
+            if (c == '\\') {
+                next();
+            }
+        }
+    }
+
+    private String readString()
+    {
+        pos++; // "
+        int start = pos;
+        // fast path without escapes
+        while (pos < text.length()) {
+            char c = text.charAt(pos);
+            if (c == '"') {
+                return text.substring(start, pos++);
+            }
+            if (c == '\\') {
+                break;
+            }
+            pos++;
+        }
+        StringBuilder builder = new StringBuilder().append(text, start, pos);
+        while (true) {
+            char c = next();
+            if (c == '"') {
+                return builder.toString();
+            }
+            if (c != '\\') {
+                builder.append(c);
+                continue;
+            }
+            c = next();
+            switch (c) {
+            case 'b':
+                builder.append('\b');
+                break;
+            case 'f':
+                builder.append('\f');
+                break;
+            case 'n':
+                builder.append('\n');
+                break;
+            case 'r':
+                builder.append('\r');
+                break;
+            case 't':
+                builder.append('\t');
+                break;
+            case 'u':
+                if (pos + 4 > text.length()) {
+                    throw invalid("\\u needs 4 hex digits");
+                }
+                try {
+                    builder.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                }
+                catch (NumberFormatException ex) {
+                    throw invalid("\\u needs 4 hex digits");
+                }
+                pos += 4;
+                break;
+            default: // " \ /
+                builder.append(c);
+                break;
+            }
+        }
+    }
+
+    private Value readNumber()
+    {
+        int start = pos;
+        boolean integral = true;
+        while (pos < text.length()) {
+            char c = text.charAt(pos);
+            if (c == '.' || c == 'e' || c == 'E') {
+                integral = false;
+            }
+            else if (! (c == '-' || c == '+' || (c >= '0' && c <= '9'))) {
+                break;
+            }
+            pos++;
+        }
+        String number = text.substring(start, pos);
+        try {
+            if (! integral) {
+                return ValueFactory.newFloat(Double.parseDouble(number));
+            }
+            try {
+                return ValueFactory.newInteger(Long.parseLong(number));
+            }
+            catch (NumberFormatException ex) {
+                return ValueFactory.newInteger(new BigInteger(number));
+            }
+        }
+        catch (NumberFormatException ex) {
+            pos = start;
+            throw invalid("a value is expected");
+        }
+    }
+
+    private void expect(String literal)
+    {
+        if (! text.startsWith(literal, pos)) {
+            throw invalid(String.format("'%s' is expected", literal));
+        }
+        pos += literal.length();
+    }
+
+    private void skipWhitespace()
+    {
+        while (pos < text.length()) {
+            char c = text.charAt(pos);
+            if (c != ' ' && c != '\t' && c != '\r' && c != '\n') {
+                return;
+            }
+            pos++;
+        }
+    }
+
+    private char peek()
+    {
+        if (pos >= text.length()) {
+            throw invalid("unexpected end of text");
+        }
+        return text.charAt(pos);
+    }
+
+    private char next()
+    {
+        char c = peek();
+        pos++;
+        return c;
+    }
+
+    private DataException invalid(String message)
+    {
+        return new DataException(String.format("invalid JSON text at %d: %s", pos, message));
+    }
+}
@@ -0,0 +1,125 @@
+package org.embulk.filter.column;
+
+import org.embulk.spi.type.BooleanType;
+import org.embulk.spi.type.DoubleType;
+import org.embulk.spi.type.LongType;
+import org.embulk.spi.type.StringType;
+import org.embulk.spi.type.Type;
+import org.msgpack.value.Value;
+import org.msgpack.value.ValueFactory;
+
+// Converts a json value of JSONPath (like) name into the type of the column while visiting, such as
+// "123" into 123 for type: long, and 123 into "123" for type: string. Only leaf values are converted,
+// so null, arrays, maps, and values of type: json are kept.
+public class JsonValueCoercer
+{
+    private JsonValueCoercer()
+    {
+    }
+
+    // Returns null if the value cannot be converted
+    public static Value coerce(Type type, Value value)
+    {
+        if (type == null || value == null || value.isNilValue() || value.isArrayValue() || value.isMapValue()) {
+            return value;
+        }
+        if (type instanceof LongType) {
+            return toLong(value);
+        }
+        else if (type instanceof DoubleType) {
+            return toDouble(value);
+        }
+        else if (type instanceof StringType) {
+            return toStringValue(value);
+        }
+        else if (type instanceof BooleanType) {
+            return toBoolean(value);
+        }
+        return value;
+    }
+
+    private static Value toLong(Value value)
+    {
+        if (value.isIntegerValue()) {
+            return value;
+        }
+        else if (value.isFloatValue()) {
+            return fromDouble(value.asNumberValue().toDouble());
+        }
+        else if (value.isStringValue()) {
+            String s = value.asStringValue().asString().trim();
+            try {
+                return ValueFactory.newInteger(Long.parseLong(s));
+            }
+            catch (NumberFormatException ex) {
+                return fromDouble(parseDouble(s));
+            }
+        }
+        return null;
+    }
+
+    // NOTE: 1.0 is converted into 1, but 1.5 is not converted not to lose the fraction
+    private static Value fromDouble(Double d)
+    {
+        if (d == null || d != Math.rint(d) || d < -9.223372036854775808E18 || d >= 9.223372036854775808E18) {
+            return null;
+        }
+        return ValueFactory.newInteger(d.longValue());
+    }
+
+    private static Value toDouble(Value value)
+    {
+        if (value.isFloatValue()) {
+            return value;
+        }
+        else if (value.isIntegerValue()) {
+            return ValueFactory.newFloat(value.asNumberValue().toDouble());
+        }
+        else if (value.isStringValue()) {
+            Double d = parseDouble(value.asStringValue().asString().trim());
+            return d == null ? null : ValueFactory.newFloat(d);
+        }
+        return null;
+    }
+
+    private static Double parseDouble(String s)
+    {
+        try {
+            return Double.valueOf(s);
+        }
+        catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    private static Value toStringValue(Value value)
+    {
+        if (value.isStringValue()) {
+            return value;
+        }
+        return ValueFactory.newString(value.toJson());
+    }
+
+    private static Value toBoolean(Value value)
+    {
+        if (value.isBooleanValue()) {
+            return value;
+        }
+        else if (value.isStringValue()) {
+            String s = value.asStringValue().asString().trim();
+            if (s.equalsIgnoreCase("true")) {
+                return ValueFactory.newBoolean(true);
+            }
+            else if (s.equalsIgnoreCase("false")) {
+                return ValueFactory.newBoolean(false);
+            }
+        }
+        else if (value.isIntegerValue() && value.asIntegerValue().isInLongRange()) {
+            long l = value.asIntegerValue().asLong();
+            if (l == 0 || l == 1) {
+                return ValueFactory.newBoolean(l == 1);
+            }
+        }
+        return null;
+    }
+}
@@ -27,10 +27,16 @@ import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class JsonVisitor
 {
     static final Logger logger = Exec.getLogger(ColumnFilterPlugin.class);
+    static final int DROP_NULLS = 1;
+    static final int DROP_EMPTY = 2;
+    private static final int MAX_CAUSE_VALUE_LENGTH = 64; // of a value embedded in malformedCause
     final PluginTask task;
     final Schema inputSchema;
     final Schema outputSchema;
@@ -38,6 +44,15 @@ public class JsonVisitor
     final HashMap<String, LinkedHashMap<String, JsonColumn>> jsonColumns = new HashMap<>();
     final HashMap<String, LinkedHashMap<String, JsonColumn>> jsonAddColumns = new HashMap<>();
     final HashMap<String, HashSet<String>> jsonDropColumns = new HashMap<>();
+    final HashMap<String, List<ArraySlice>> jsonDropSlices = new HashMap<>();
+    final HashMap<String, List<JsonPathFilter>> jsonDropFilters = new HashMap<>();
+    final HashMap<String, Integer> pruneFlags = new HashMap<>(); // json path => DROP_NULLS | DROP_EMPTY
+    final JsonInterner interner; // NOTE: null if json_intern_cache is false
+    final int parallelThreshold; // NOTE: 0 if json_parallel_threshold is not specified
+    final String onCoerceError;
+    // NOTE: visit() must be thread-safe for json_parallel_threshold
+    private final AtomicLong malformedCount = new AtomicLong();
+    private volatile String malformedCause = null; // of the last malformed value, for error messages
 
     JsonVisitor(PluginTask task, Schema inputSchema, Schema outputSchema)
     {
@@ -45,8 +60,12 @@ public class JsonVisitor
         this.inputSchema  = inputSchema;
         this.outputSchema = outputSchema;
 
+        buildPruneFlags();
         buildShouldVisitSet();
         buildJsonSchema();
+        this.interner = task.getJsonInternCache() ? new JsonInterner(task.getJsonInternCacheSize()) : null;
+        this.parallelThreshold = task.getJsonParallelThreshold().or(0);
+        this.onCoerceError = task.getOnCoerceError();
     }
 
     static Value getDefault(PluginTask task, String name, Type type, ColumnConfig columnConfig)
@@ -103,6 +122,20 @@ public class JsonVisitor
             jsonDropColumns.put(parentPath, new HashSet<String>());
         }
         jsonDropColumns.get(parentPath).add(path);
+        ArraySlice slice = ArraySlice.parse(JsonColumn.baseName(path));
+        if (slice != null) {
+            if (! jsonDropSlices.containsKey(parentPath)) {
+                jsonDropSlices.put(parentPath, new ArrayList<ArraySlice>());
+            }
+            jsonDropSlices.get(parentPath).add(slice);
+        }
+        JsonPathFilter filter = JsonPathFilter.parse(JsonColumn.baseName(path));
+        if (filter != null) {
+            if (! jsonDropFilters.containsKey(parentPath)) {
+                jsonDropFilters.put(parentPath, new ArrayList<JsonPathFilter>());
+            }
+            jsonDropFilters.get(parentPath).add(filter);
+        }
     }
 
     // build jsonColumns, jsonAddColumns, and jsonDropColumns
@@ -132,7 +165,8 @@ public class JsonVisitor
                 }
                 if (column.getSrc().isPresent()) {
                     String src = column.getSrc().get();
-                    jsonColumnsPut(name, new JsonColumn(name, null, null, src));
+                    Type type = column.getType().isPresent() ? column.getType().get() : null;
+                    jsonColumnsPut(name, new JsonColumn(name, type, null, src));
                 }
                 else if (column.getType().isPresent() && column.getDefault().isPresent()) { // add column
                     Type type = column.getType().get();
@@ -156,7 +190,8 @@ public class JsonVisitor
                 }
                 if (column.getSrc().isPresent()) {
                     String src = column.getSrc().get();
-                    jsonAddColumnsPut(name, new JsonColumn(name, null, null, src));
+                    Type type = column.getType().isPresent() ? column.getType().get() : null;
+                    jsonAddColumnsPut(name, new JsonColumn(name, type, null, src));
                 }
                 else if (column.getType().isPresent() && column.getDefault().isPresent()) { // add column
                     Type type = column.getType().get();
@@ -182,24 +217,38 @@ public class JsonVisitor
             if (!name.startsWith("$.")) {
                 continue;
             }
-            String[] parts = name.split("\\.");
-            StringBuilder partialPath = new StringBuilder("$");
-            for (int i = 1; i < parts.length; i++) {
-                if (parts[i].contains("[")) {
-                    String[] arrayParts = parts[i].split("\\[");
-                    partialPath.append(".").append(arrayParts[0]);
-                    this.shouldVisitSet.add(partialPath.toString());
-                    for (int j = 1; j < arrayParts.length; j++) {
-                        // Simply add [0] or [*] here
-                        partialPath.append("[").append(arrayParts[j]);
-                        this.shouldVisitSet.add(partialPath.toString());
-                    }
-                }
-                else {
-                    partialPath.append(".").append(parts[i]);
-                    this.shouldVisitSet.add(partialPath.toString());
-                }
+            addShouldVisitPath(name);
+        }
+        for (String name : pruneFlags.keySet()) {
+            addShouldVisitPath(name);
+        }
+    }
+
+    private void addShouldVisitPath(String name)
+    {
+        List<String> parts = JsonColumn.splitPath(name);
+        for (int i = 2; i <= parts.size(); i++) {
+            // $.foo, $.foo.bar, $.foo.bar[0], and so on
+            this.shouldVisitSet.add(JsonColumn.joinPath(parts, i));
+        }
+    }
+
+    // drop_nulls and drop_empty of columns and add_columns
+    private void buildPruneFlags()
+    {
+        ArrayList<ColumnConfig> columnConfigs = new ArrayList<>(task.getColumns());
+        columnConfigs.addAll(task.getAddColumns());
+
+        for (ColumnConfig columnConfig : columnConfigs) {
+            int flags = (columnConfig.getDropNulls() ? DROP_NULLS : 0) | (columnConfig.getDropEmpty() ? DROP_EMPTY : 0);
+            if (flags == 0) {
+                continue;
             }
+            String name = columnConfig.getName();
+            if (! name.startsWith("$.")) { // a column of type: json
+                name = new StringBuilder("$.").append(name).toString();
+            }
+            pruneFlags.put(name, flags);
         }
     }
 
@@ -217,66 +266,242 @@ public class JsonVisitor
         return newPath;
     }
 
+    // Convert a visited value into the type of the column, or nil if null
+    private Value coerce(JsonColumn jsonColumn, Value visited)
+    {
+        if (visited == null) {
+            return ValueFactory.newNil();
+        }
+        Value coerced = JsonValueCoercer.coerce(jsonColumn.getType(), visited);
+        if (coerced != null) {
+            return coerced;
+        }
+        switch (onCoerceError) {
+        case "null":
+            return ValueFactory.newNil();
+        case "error": // on_error handles it as a malformed value
+            malformedCause = String.format("'%s' can not be coerced into type: %s", jsonColumn.getPath(), jsonColumn.getType());
+            malformedCount.incrementAndGet();
+            return visited;
+        default: // keep
+            return visited;
+        }
+    }
+
+    // Number of malformed values visited, such as a map with a non-string key
+    long getMalformedCount()
+    {
+        return malformedCount.get();
+    }
+
+    // Why the last malformed value was malformed, or null if none was visited
+    String getMalformedCause()
+    {
+        return malformedCause;
+    }
+
     String newMapJsonPath(String rootPath, Value elementPathValue)
     {
-        String elementPath = elementPathValue.asStringValue().asString();
+        String elementPath;
+        if (elementPathValue.isStringValue()) {
+            elementPath = elementPathValue.asStringValue().asString();
+        }
+        else { // check the type not to throw MessageTypeCastException
+            elementPath = elementPathValue.toJson();
+            malformedCause = String.format("'%s' has a map key which is not a string: %s", rootPath, abbreviate(elementPath));
+            malformedCount.incrementAndGet();
+        }
         String newPath = new StringBuilder(rootPath).append(".").append(elementPath).toString();
         return newPath;
     }
 
-    Value visitArray(String rootPath, ArrayValue arrayValue)
+    private static String abbreviate(String text)
+    {
+        return text.length() <= MAX_CAUSE_VALUE_LENGTH ? text : text.substring(0, MAX_CAUSE_VALUE_LENGTH) + "...";
+    }
+
+    Value visitArray(String rootPath, ArrayValue arrayValue, int prune)
     {
         int size = arrayValue.size();
         ArrayList<Value> newValue = new ArrayList<>(size);
         int j = 0;
         if (this.jsonDropColumns.containsKey(rootPath)) {
             HashSet<String> jsonDropColumns = this.jsonDropColumns.get(rootPath);
+            List<ArraySlice> jsonDropSlices = this.jsonDropSlices.get(rootPath);
+            List<JsonPathFilter> jsonDropFilters = this.jsonDropFilters.get(rootPath);
             for (int i = 0; i < size; i++) {
+                if (jsonDropSlices != null) {
+                    int to = droppedTo(jsonDropSlices, i, size);
+                    if (to > i) { // skip the dropped range at once
+                        i = to - 1;
+                        continue;
+                    }
+                }
                 String newPath = newArrayJsonPath(rootPath, i);
-                if (! jsonDropColumns.contains(newPath)) {
-                    Value v = arrayValue.get(i);
-                    newValue.add(j++, visit(newPath, v));
+                Value v = arrayValue.get(i);
+                if (! jsonDropColumns.contains(newPath) && ! matchesAny(jsonDropFilters, v)) {
+                    newValue.add(j++, visit(newPath, v, prune));
                 }
             }
         }
         else if (this.jsonColumns.containsKey(rootPath)) {
             for (JsonColumn jsonColumn : this.jsonColumns.get(rootPath).values()) {
-                int src = jsonColumn.getSrcBaseIndex().intValue();
-                Value v = (src < arrayValue.size() ? arrayValue.get(src) : null);
+                ArraySlice slice = jsonColumn.getSrcSlice();
+                if (slice != null && slice.isRange()) {
+                    // copy only the selected range of elements
+                    int to = slice.to(size);
+                    for (int i = slice.from(size); i < to; i++) {
+                        Value visited = visit(jsonColumn.getPath(), arrayValue.get(i), prune);
+                        newValue.add(j++, coerce(jsonColumn, visited));
+                    }
+                    continue;
+                }
+                JsonPathFilter filter = jsonColumn.getSrcFilter();
+                if (filter != null) {
+                    // keep only matched elements, evaluated inline
+                    for (int i = 0; i < size; i++) {
+                        Value v = arrayValue.get(i);
+                        if (filter.matches(v)) {
+                            Value visited = visit(jsonColumn.getPath(), v, prune);
+                            newValue.add(j++, coerce(jsonColumn, visited));
+                        }
+                    }
+                    continue;
+                }
+                Value v = getArrayElement(arrayValue, jsonColumn);
                 if (v == null) {
                     v = jsonColumn.getDefaultValue();
                 }
                 String newPath = jsonColumn.getPath();
-                Value visited = visit(newPath, v);
+                Value visited = visit(newPath, v, prune);
                 // int i = jsonColumn.getBaseIndex().intValue();
                 // index is shifted, so j++ is used.
-                newValue.add(j++, visited == null ? ValueFactory.newNil() : visited);
+                newValue.add(j++, coerce(jsonColumn, visited));
+            }
+        }
+        else if (parallelThreshold > 0 && size >= parallelThreshold) {
+            Value[] visited = new Value[size];
+            ParallelArrayVisit.POOL.invoke(new ParallelArrayVisit(this, rootPath, arrayValue, prune, visited, 0, size));
+            for (Value v : visited) {
+                newValue.add(j++, v);
             }
         }
         else {
             for (int i = 0; i < size; i++) {
                 String newPath = newArrayJsonPath(rootPath, i);
                 Value v = arrayValue.get(i);
-                newValue.add(j++, visit(newPath, v));
+                newValue.add(j++, visit(newPath, v, prune));
             }
         }
         if (this.jsonAddColumns.containsKey(rootPath)) {
             for (JsonColumn jsonColumn : this.jsonAddColumns.get(rootPath).values()) {
-                int src = jsonColumn.getSrcBaseIndex().intValue();
-                Value v = (src < arrayValue.size() ? arrayValue.get(src) : null);
+                Value v = getArrayElement(arrayValue, jsonColumn);
                 if (v == null) {
                     v = jsonColumn.getDefaultValue();
                 }
                 String newPath = jsonColumn.getPath();
-                Value visited = visit(newPath, v);
+                Value visited = visit(newPath, v, prune);
                 // this ignores specified index, but appends to last now
-                newValue.add(j++, visited == null ? ValueFactory.newNil() : visited);
+                newValue.add(j++, coerce(jsonColumn, visited));
             }
         }
+        if (prune != 0) {
+            removeDropped(newValue, 1, prune);
+        }
         return ValueFactory.newArray(newValue.toArray(new Value[0]), true);
     }
 
-    Value visitMap(String rootPath, MapValue mapValue)
+    // src element of [i] or [-n], the first element matched with [?(...)], or null if not found
+    private static Value getArrayElement(ArrayValue arrayValue, JsonColumn jsonColumn)
+    {
+        int size = arrayValue.size();
+        JsonPathFilter filter = jsonColumn.getSrcFilter();
+        if (filter != null) {
+            for (int i = 0; i < size; i++) {
+                if (filter.matches(arrayValue.get(i))) {
+                    return arrayValue.get(i);
+                }
+            }
+            return null;
+        }
+        ArraySlice slice = jsonColumn.getSrcSlice();
+        if (slice != null) {
+            int from = slice.from(size);
+            return from < slice.to(size) ? arrayValue.get(from) : null;
+        }
+        int src = jsonColumn.getSrcBaseIndex().intValue();
+        return (src < size ? arrayValue.get(src) : null);
+    }
+
+    private static boolean matchesAny(List<JsonPathFilter> filters, Value v)
+    {
+        if (filters == null) {
+            return false;
+        }
+        for (JsonPathFilter filter : filters) {
+            if (filter.matches(v)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // End of a dropped range which contains i, or i if not dropped
+    private static int droppedTo(List<ArraySlice> slices, int i, int size)
+    {
+        int to = i;
+        for (ArraySlice slice : slices) {
+            if (slice.from(size) <= i && i < slice.to(size)) {
+                to = Math.max(to, slice.to(size));
+            }
+        }
+        return to;
+    }
+
+    // json_parallel_threshold: visits elements of a large array in chunks on a shared ForkJoinPool.
+    // Each chunk writes results into its own range of the array, so the order is kept.
+    static class ParallelArrayVisit extends RecursiveAction
+    {
+        static final ForkJoinPool POOL = new ForkJoinPool();
+        private static final int MIN_CHUNK_SIZE = 256;
+
+        private final JsonVisitor visitor;
+        private final String rootPath;
+        private final ArrayValue arrayValue;
+        private final int prune;
+        private final Value[] visited;
+        private final int from;
+        private final int to;
+
+        ParallelArrayVisit(JsonVisitor visitor, String rootPath, ArrayValue arrayValue, int prune, Value[] visited, int from, int to)
+        {
+            this.visitor = visitor;
+            this.rootPath = rootPath;
+            this.arrayValue = arrayValue;
+            this.prune = prune;
+            this.visited = visited;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            int chunkSize = Math.max(MIN_CHUNK_SIZE, visited.length / (POOL.getParallelism() * 4));
+            if (to - from <= chunkSize) {
+                for (int i = from; i < to; i++) {
+                    String newPath = visitor.newArrayJsonPath(rootPath, i);
+                    visited[i] = visitor.visit(newPath, arrayValue.get(i), prune);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new ParallelArrayVisit(visitor, rootPath, arrayValue, prune, visited, from, middle),
+                    new ParallelArrayVisit(visitor, rootPath, arrayValue, prune, visited, middle, to));
+        }
+    }
+
+    Value visitMap(String rootPath, MapValue mapValue, int prune)
     {
         int size = mapValue.size();
         int i = 0;
@@ -288,7 +513,7 @@ public class JsonVisitor
                 Value v = entry.getValue();
                 String newPath = newMapJsonPath(rootPath, k);
                 if (! jsonDropColumns.contains(newPath)) {
-                    Value visited = visit(newPath, v);
+                    Value visited = visit(newPath, v, prune);
                     newValue.add(i++, k);
                     newValue.add(i++, visited);
                 }
@@ -303,9 +528,9 @@ public class JsonVisitor
                     v = jsonColumn.getDefaultValue();
                 }
                 String newPath = jsonColumn.getPath();
-                Value visited = visit(newPath, v);
+                Value visited = visit(newPath, v, prune);
                 newValue.add(i++, jsonColumn.getBaseNameValue());
-                newValue.add(i++, visited == null ? ValueFactory.newNil() : visited);
+                newValue.add(i++, coerce(jsonColumn, visited));
             }
         }
         else {
@@ -313,7 +538,7 @@ public class JsonVisitor
                 Value k = entry.getKey();
                 Value v = entry.getValue();
                 String newPath = newMapJsonPath(rootPath, k);
-                Value visited = visit(newPath, v);
+                Value visited = visit(newPath, v, prune);
                 newValue.add(i++, k);
                 newValue.add(i++, visited);
             }
@@ -327,30 +552,108 @@ public class JsonVisitor
                     v = jsonColumn.getDefaultValue();
                 }
                 String newPath = jsonColumn.getPath();
-                Value visited = visit(newPath, v);
+                Value visited = visit(newPath, v, prune);
                 newValue.add(i++, jsonColumn.getBaseNameValue());
-                newValue.add(i++, visited == null ? ValueFactory.newNil() : visited);
+                newValue.add(i++, coerce(jsonColumn, visited));
             }
         }
+        if (prune != 0) {
+            removeDropped(newValue, 2, prune);
+        }
         return ValueFactory.newMap(newValue.toArray(new Value[0]), true);
     }
 
     public Value visit(String rootPath, Value value)
     {
+        return visit(rootPath, value, 0);
+    }
+
+    // upperPrune: DROP_NULLS and DROP_EMPTY of the upper paths
+    Value visit(String rootPath, Value value, int upperPrune)
+    {
+        int prune = upperPrune;
+        if (! pruneFlags.isEmpty() && pruneFlags.containsKey(rootPath)) {
+            prune |= pruneFlags.get(rootPath);
+        }
         if (! shouldVisit(rootPath)) {
-            return value;
+            return intern(prune == 0 ? value : pruneValue(value, prune));
         }
         if (value == null) {
             return null;
         }
         else if (value.isArrayValue()) {
-            return visitArray(rootPath, value.asArrayValue());
+            return intern(visitArray(rootPath, value.asArrayValue(), prune));
         }
         else if (value.isMapValue()) {
-            return visitMap(rootPath, value.asMapValue());
+            return intern(visitMap(rootPath, value.asMapValue(), prune));
         }
         else {
             return value;
         }
     }
+
+    // drop_nulls and drop_empty under paths which are not visited. Returns value itself if nothing is dropped
+    static Value pruneValue(Value value, int prune)
+    {
+        if (value == null || ! (value.isArrayValue() || value.isMapValue())) {
+            return value;
+        }
+        boolean changed = false;
+        ArrayList<Value> newValue = new ArrayList<>();
+        if (value.isArrayValue()) {
+            for (Value v : value.asArrayValue()) {
+                Value pruned = pruneValue(v, prune);
+                changed |= pruned != v;
+                newValue.add(pruned);
+            }
+        }
+        else {
+            for (Map.Entry<Value, Value> entry : value.asMapValue().entrySet()) {
+                Value pruned = pruneValue(entry.getValue(), prune);
+                changed |= pruned != entry.getValue();
+                newValue.add(entry.getKey());
+                newValue.add(pruned);
+            }
+        }
+        int step = value.isArrayValue() ? 1 : 2;
+        changed |= removeDropped(newValue, step, prune);
+        if (! changed) {
+            return value;
+        }
+        Value[] values = newValue.toArray(new Value[0]);
+        return value.isArrayValue() ? ValueFactory.newArray(values, true) : ValueFactory.newMap(values, true);
+    }
+
+    // Remove elements (step 1) or key-value pairs (step 2) to drop, and returns true if removed
+    private static boolean removeDropped(ArrayList<Value> values, int step, int prune)
+    {
+        int j = 0;
+        for (int i = 0; i < values.size(); i += step) {
+            if (! shouldDrop(values.get(i + step - 1), prune)) {
+                for (int k = 0; k < step; k++) {
+                    values.set(j++, values.get(i + k));
+                }
+            }
+        }
+        boolean removed = j < values.size();
+        values.subList(j, values.size()).clear();
+        return removed;
+    }
+
+    private static boolean shouldDrop(Value value, int prune)
+    {
+        if ((prune & DROP_NULLS) != 0 && (value == null || value.isNilValue())) {
+            return true;
+        }
+        if ((prune & DROP_EMPTY) != 0 && value != null) {
+            return (value.isArrayValue() && value.asArrayValue().size() == 0)
+                || (value.isMapValue() && value.asMapValue().size() == 0);
+        }
+        return false;
+    }
+
+    private Value intern(Value value)
+    {
+        return interner == null ? value : interner.intern(value);
+    }
 }
@@ -0,0 +1,78 @@
+package org.embulk.filter.column;
+
+import org.embulk.spi.Column;
+import org.embulk.spi.PageReader;
+import org.embulk.spi.Schema;
+import org.embulk.spi.SchemaConfigException;
+import org.embulk.spi.time.Timestamp;
+import org.embulk.spi.type.BooleanType;
+import org.embulk.spi.type.DoubleType;
+import org.embulk.spi.type.JsonType;
+import org.embulk.spi.type.LongType;
+import org.embulk.spi.type.StringType;
+
+import java.util.List;
+
+// Hashes values of key columns of the current record with xxHash64.
+// Each value is encoded canonically as a type tag followed by its bytes, so that the hash is stable
+// across runs and ("ab", "c") does not collide with ("a", "bc").
+public class KeyHasher
+{
+    private static final byte NULL = 0;
+    private static final byte BOOLEAN = 1;
+    private static final byte LONG = 2;
+    private static final byte DOUBLE = 3;
+    private static final byte STRING = 4;
+    private static final byte TIMESTAMP = 5;
+    private static final byte JSON = 6;
+
+    private final Column[] columns;
+    private final long seed;
+    private final XxHash64 hasher = new XxHash64();
+
+    public KeyHasher(Schema inputSchema, List<String> keys, long seed, String optionName)
+    {
+        this.columns = new Column[keys.size()];
+        for (int i = 0; i < columns.length; i++) {
+            try {
+                columns[i] = inputSchema.lookupColumn(keys.get(i));
+            }
+            catch (SchemaConfigException ex) {
+                throw new SchemaConfigException(String.format("%s: Column '%s' is not found in inputSchema", optionName, keys.get(i)));
+            }
+        }
+        this.seed = seed;
+    }
+
+    public long hash(PageReader pageReader)
+    {
+        hasher.reset(seed);
+        for (Column column : columns) {
+            if (pageReader.isNull(column)) {
+                hasher.update(NULL);
+            }
+            else if (column.getType() instanceof BooleanType) {
+                hasher.update(BOOLEAN).update((byte) (pageReader.getBoolean(column) ? 1 : 0));
+            }
+            else if (column.getType() instanceof LongType) {
+                hasher.update(LONG).updateLong(pageReader.getLong(column));
+            }
+            else if (column.getType() instanceof DoubleType) {
+                hasher.update(DOUBLE).updateLong(Double.doubleToLongBits(pageReader.getDouble(column)));
+            }
+            else if (column.getType() instanceof StringType) {
+                String value = pageReader.getString(column);
+                hasher.update(STRING).updateInt(value.length()).updateUtf8(value);
+            }
+            else if (column.getType() instanceof JsonType) {
+                String value = pageReader.getJson(column).toJson();
+                hasher.update(JSON).updateInt(value.length()).updateUtf8(value);
+            }
+            else {
+                Timestamp value = pageReader.getTimestamp(column);
+                hasher.update(TIMESTAMP).updateLong(value.getEpochSecond()).updateInt(value.getNano());
+            }
+        }
+        return hasher.digest();
+    }
+}
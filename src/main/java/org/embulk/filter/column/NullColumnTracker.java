@@ -0,0 +1,243 @@
+package org.embulk.filter.column;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+
+import org.embulk.filter.column.ColumnFilterPlugin.ColumnConfig;
+import org.embulk.filter.column.ColumnFilterPlugin.PluginTask;
+
+import org.embulk.spi.Column;
+import org.embulk.spi.DataException;
+import org.embulk.spi.PageReader;
+import org.embulk.spi.Schema;
+import org.embulk.spi.SchemaConfigException;
+import org.embulk.spi.json.JsonParser;
+
+import org.msgpack.value.Value;
+import org.msgpack.value.ValueFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+// auto_drop_null_columns: true
+//
+// transaction() must fix the output schema before any page is read, so the lookahead is the previous run.
+// Tasks track input columns which had only nulls, and transaction() saves them to null_columns_path at the
+// end of the run. The next run drops output columns which just copy one of them.
+// The tracker is the first RecordFilter, and stops checking a column once it has a value, so that only
+// the columns still null are checked for each record. A value of a column whose copies are dropped fails
+// the task, not to lose it.
+public class NullColumnTracker implements RecordFilter
+{
+    // run id => trackers published by tasks
+    private static final ConcurrentMap<String, Queue<NullColumnTracker>> published = new ConcurrentHashMap<>();
+
+    private final Column[] nullColumns; // columns without a value so far, in [0, size)
+    private int size;
+    private long records = 0;
+    private final boolean[] dropped; // indexed by input column index, see droppedInputNames
+    private final String path;
+
+    public NullColumnTracker(PluginTask task, Schema inputSchema)
+    {
+        this.nullColumns = inputSchema.getColumns().toArray(new Column[0]);
+        this.size = nullColumns.length;
+        this.dropped = new boolean[nullColumns.length];
+        if (task.getDroppedNullColumns() != null) {
+            for (String name : task.getDroppedNullColumns()) {
+                dropped[inputSchema.lookupColumn(name).getIndex()] = true;
+            }
+        }
+        this.path = task.getNullColumnsPath().orNull();
+    }
+
+    @Override
+    public boolean accept(PageReader pageReader)
+    {
+        records++;
+        int i = 0;
+        while (i < size) {
+            if (pageReader.isNull(nullColumns[i])) {
+                i++;
+            }
+            else if (dropped[nullColumns[i].getIndex()]) {
+                throw new DataException(String.format("auto_drop_null_columns: input column '%s' has a value, but it is dropped from the output because it had only nulls in the previous run. Delete '%s' and run again to output it",
+                        nullColumns[i].getName(), path));
+            }
+            else {
+                nullColumns[i] = nullColumns[--size]; // swap remove
+            }
+        }
+        return true;
+    }
+
+    // Called at the end of the task
+    void publish(String runId)
+    {
+        if (runId == null) {
+            return;
+        }
+        Queue<NullColumnTracker> queue = published.get(runId);
+        if (queue == null) {
+            Queue<NullColumnTracker> newQueue = new ConcurrentLinkedQueue<>();
+            queue = published.putIfAbsent(runId, newQueue);
+            if (queue == null) {
+                queue = newQueue;
+            }
+        }
+        queue.add(this);
+    }
+
+    private boolean isNullColumn(Column column)
+    {
+        for (int i = 0; i < size; i++) {
+            if (nullColumns[i].getIndex() == column.getIndex()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Save input columns with only nulls in all tasks of the run to null_columns_path, and forget them.
+    // Keeps the file of the previous run if the run had no records
+    static void save(PluginTask task, Schema inputSchema, String runId)
+    {
+        Queue<NullColumnTracker> queue = published.remove(runId);
+        if (queue == null) {
+            return;
+        }
+        long records = 0;
+        for (NullColumnTracker tracker : queue) {
+            records += tracker.records;
+        }
+        if (records == 0) {
+            return;
+        }
+        List<Value> nullColumns = new ArrayList<>();
+        for (Column column : inputSchema.getColumns()) { // in the order of inputSchema
+            boolean isNull = true;
+            for (NullColumnTracker tracker : queue) {
+                isNull = isNull && tracker.isNullColumn(column);
+            }
+            if (isNull) {
+                nullColumns.add(ValueFactory.newString(column.getName()));
+            }
+        }
+        String json = ValueFactory.newMap(
+                ValueFactory.newString("records"), ValueFactory.newInteger(records),
+                ValueFactory.newString("null_columns"), ValueFactory.newArray(nullColumns)).toJson();
+        try {
+            Files.write(Paths.get(task.getNullColumnsPath().get()), json.getBytes(StandardCharsets.UTF_8));
+        }
+        catch (IOException ex) {
+            throw Throwables.propagate(ex);
+        }
+    }
+
+    // Forget tracked columns of a failed run
+    static void forget(String runId)
+    {
+        published.remove(runId);
+    }
+
+    // Input column names saved by the previous run, or an empty set if it does not exist
+    static Set<String> load(PluginTask task)
+    {
+        Path path = Paths.get(task.getNullColumnsPath().get());
+        if (! Files.exists(path)) {
+            return Collections.emptySet();
+        }
+        Value state;
+        try {
+            state = new JsonParser().parse(new String(Files.readAllBytes(path), StandardCharsets.UTF_8));
+        }
+        catch (IOException ex) {
+            throw Throwables.propagate(ex);
+        }
+        Set<String> names = new HashSet<>();
+        for (Map.Entry<Value, Value> entry : state.asMapValue().entrySet()) { // NOTE: "records" is informational
+            if (entry.getKey().asStringValue().asString().equals("null_columns")) {
+                for (Value name : entry.getValue().asArrayValue()) {
+                    names.add(name.asStringValue().asString());
+                }
+            }
+        }
+        return names;
+    }
+
+    // Drop output columns which copy an input column of nullColumns without default, expr, or generator
+    static Schema dropNullColumns(PluginTask task, Schema inputSchema, Schema outputSchema, Set<String> nullColumns)
+    {
+        ImmutableList.Builder<Column> builder = ImmutableList.builder();
+        int i = 0;
+        for (Column outputColumn : outputSchema.getColumns()) {
+            String inputName = copiedInputName(task, inputSchema, outputColumn.getName());
+            if (inputName != null && nullColumns.contains(inputName)) {
+                continue;
+            }
+            builder.add(new Column(i++, outputColumn.getName(), outputColumn.getType()));
+        }
+        return new Schema(builder.build());
+    }
+
+    // Input columns of nullColumns which an output column dropped by dropNullColumns copies
+    static List<String> droppedInputNames(PluginTask task, Schema inputSchema, Schema outputSchema, Set<String> nullColumns)
+    {
+        List<String> names = new ArrayList<>();
+        for (Column outputColumn : outputSchema.getColumns()) {
+            String inputName = copiedInputName(task, inputSchema, outputColumn.getName());
+            if (inputName != null && nullColumns.contains(inputName) && ! names.contains(inputName)) {
+                names.add(inputName);
+            }
+        }
+        return names;
+    }
+
+    // The input column which the output column just copies, or null
+    private static String copiedInputName(PluginTask task, Schema inputSchema, String name)
+    {
+        ColumnConfig columnConfig = getColumnConfig(name, task.getColumns());
+        if (columnConfig == null) {
+            columnConfig = getColumnConfig(name, task.getAddColumns());
+        }
+        String srcName = name;
+        if (columnConfig != null) {
+            if (columnConfig.getDefault().isPresent() || columnConfig.getExpr().isPresent() || columnConfig.getGenerator().isPresent()) {
+                return null;
+            }
+            srcName = columnConfig.getSrc().or(name);
+        }
+        if (task.getExplode().isPresent() && (name.equals(Exploder.elementName(task)) || name.equals(task.getExplodeIndex().orNull()))) {
+            return null;
+        }
+        try {
+            return inputSchema.lookupColumn(srcName).getName();
+        }
+        catch (SchemaConfigException ex) {
+            return null;
+        }
+    }
+
+    private static ColumnConfig getColumnConfig(String name, List<ColumnConfig> columnConfigs)
+    {
+        for (ColumnConfig columnConfig : columnConfigs) {
+            if (columnConfig.getName().equals(name)) {
+                return columnConfig;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,215 @@
+package org.embulk.filter.column;
+
+import com.google.common.base.Optional;
+
+import org.embulk.filter.column.ColumnFilterPlugin.ColumnConfig;
+import org.embulk.filter.column.ColumnFilterPlugin.PluginTask;
+import org.embulk.filter.column.ColumnFilterPlugin.WhereConfig;
+
+import org.embulk.spi.Column;
+import org.embulk.spi.Schema;
+import org.embulk.spi.SchemaConfigException;
+import org.embulk.spi.type.JsonType;
+import org.embulk.spi.type.StringType;
+import org.embulk.spi.type.Type;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+// explain: true
+//
+// Describes how each output column is processed, and the visit tree of type: json columns, so that
+// configurations can be tuned without a profiler. Warns JSONPath names which never match.
+public class PlanExplainer
+{
+    private PlanExplainer()
+    {
+    }
+
+    public static List<String> explain(PluginTask task, Schema inputSchema, Schema outputSchema)
+    {
+        List<String> lines = new ArrayList<>();
+        JsonVisitor jsonVisitor = new JsonVisitor(task, inputSchema, outputSchema);
+
+        lines.add(String.format("engine: %s, async_output: %s, string_dictionary: %s",
+                    task.getEngine(), task.getAsyncOutput(), task.getStringDictionary()));
+        List<String> recordFilters = new ArrayList<>();
+        if (task.getSampleRate().isPresent()) {
+            recordFilters.add(String.format("sample_rate %s", task.getSampleRate().get()));
+        }
+        if (task.getWhere().size() > 0) {
+            recordFilters.add(String.format("where (%d conditions)", task.getWhere().size()));
+        }
+        if (task.getDedupeKeys().size() > 0) {
+            recordFilters.add(String.format("dedupe %s by %s", task.getDedupeKeys(), task.getDedupeMethod()));
+        }
+        if (! recordFilters.isEmpty()) {
+            lines.add(String.format("record filters: %s", recordFilters));
+        }
+        if (task.getShadowEngine().isPresent()) {
+            lines.add(String.format("shadow_engine: %s compared on %s of records", task.getShadowEngine().get(), task.getShadowSampleRate()));
+        }
+        if (task.getExplode().isPresent()) {
+            lines.add(String.format("explode: %s into column '%s' with the columnar engine", task.getExplode().get(), Exploder.elementName(task)));
+        }
+
+        for (Column outputColumn : outputSchema.getColumns()) {
+            lines.add(String.format("column '%s' (%s): %s", outputColumn.getName(), outputColumn.getType(),
+                        explainColumn(task, inputSchema, outputSchema, outputColumn, jsonVisitor)));
+        }
+
+        for (String path : new TreeSet<>(jsonVisitor.shouldVisitSet)) {
+            lines.add(String.format("json visit %s%s", path, explainJsonPath(jsonVisitor, path)));
+        }
+
+        for (String path : jsonPathNames(task)) {
+            String warning = checkJsonPath(path, outputSchema, "output", true);
+            if (warning != null) {
+                lines.add(String.format("WARNING: '%s' %s", path, warning));
+            }
+        }
+        for (WhereConfig where : task.getWhere()) {
+            String path = where.getColumn();
+            String warning = path.startsWith("$.") ? checkJsonPath(path, inputSchema, "input", false) : null;
+            if (warning != null) {
+                lines.add(String.format("WARNING: where '%s' %s", path, warning));
+            }
+        }
+        return lines;
+    }
+
+    private static String explainColumn(PluginTask task, Schema inputSchema, Schema outputSchema, Column outputColumn, JsonVisitor jsonVisitor)
+    {
+        String name = outputColumn.getName();
+        if (task.getExplode().isPresent() && outputColumn.getIndex() >= outputSchema.getColumnCount() - (task.getExplodeIndex().isPresent() ? 2 : 1)) {
+            return name.equals(Exploder.elementName(task)) ? "explode element" : "explode index";
+        }
+        String generator = ColumnVisitorImpl.getGenerator(name, task.getColumns());
+        if (generator == null) {
+            generator = ColumnVisitorImpl.getGenerator(name, task.getAddColumns());
+        }
+        if (generator != null) {
+            return String.format("generator %s", generator);
+        }
+
+        String expr = ColumnVisitorImpl.getExpr(name, task.getColumns());
+        if (expr == null) {
+            expr = ColumnVisitorImpl.getExpr(name, task.getAddColumns());
+        }
+        String defaultValue = getRawDefault(name, task.getColumns());
+        if (defaultValue == null) {
+            defaultValue = getRawDefault(name, task.getAddColumns());
+        }
+        String suffix = defaultValue == null ? "" : String.format(", default fill %s if null", defaultValue);
+        if (expr != null) {
+            return String.format("expr %s%s", expr, suffix);
+        }
+
+        String srcName = ColumnVisitorImpl.getSrc(name, task.getColumns());
+        if (srcName == null) {
+            srcName = ColumnVisitorImpl.getSrc(name, task.getAddColumns());
+        }
+        if (srcName == null) {
+            srcName = name;
+        }
+        Column inputColumn;
+        try {
+            inputColumn = inputSchema.lookupColumn(srcName);
+        }
+        catch (SchemaConfigException ex) {
+            inputColumn = null;
+        }
+        if (inputColumn == null) {
+            return String.format("default fill %s", defaultValue);
+        }
+
+        Type type = outputColumn.getType();
+        String jsonPath = new StringBuilder("$.").append(name).toString();
+        String copy;
+        if (inputColumn.getType() instanceof StringType && (type instanceof JsonType || jsonVisitor.shouldVisit(jsonPath))) {
+            copy = "json text visit"; // see JsonTextProjector
+        }
+        else if (type instanceof JsonType) {
+            copy = jsonVisitor.shouldVisit(jsonPath) ? "json visit" : "json skip (passthrough)";
+        }
+        else if (type instanceof StringType) {
+            copy = task.getStringDictionary() ? "string copy with dictionary" : "string copy";
+        }
+        else {
+            copy = "fixed-width copy";
+        }
+        if (inputColumn.getIndex() == outputColumn.getIndex() && inputColumn.getName().equals(name) && defaultValue == null) {
+            copy = copy + " (passthrough)";
+        }
+        return String.format("%s from input column '%s' at %d%s", copy, inputColumn.getName(), inputColumn.getIndex(), suffix);
+    }
+
+    private static String explainJsonPath(JsonVisitor jsonVisitor, String path)
+    {
+        StringBuilder builder = new StringBuilder();
+        if (jsonVisitor.jsonColumns.containsKey(path)) {
+            builder.append(", columns ").append(jsonVisitor.jsonColumns.get(path).keySet());
+        }
+        if (jsonVisitor.jsonAddColumns.containsKey(path)) {
+            builder.append(", add_columns ").append(jsonVisitor.jsonAddColumns.get(path).keySet());
+        }
+        if (jsonVisitor.jsonDropColumns.containsKey(path)) {
+            builder.append(", drop_columns ").append(new TreeSet<>(jsonVisitor.jsonDropColumns.get(path)));
+        }
+        return builder.toString();
+    }
+
+    private static String getRawDefault(String name, List<ColumnConfig> columnConfigs)
+    {
+        for (ColumnConfig columnConfig : columnConfigs) {
+            Optional<Object> defaultValue = columnConfig.getDefault();
+            if (columnConfig.getName().equals(name) && defaultValue.isPresent()) {
+                return defaultValue.get().toString();
+            }
+        }
+        return null;
+    }
+
+    private static List<String> jsonPathNames(PluginTask task)
+    {
+        List<ColumnConfig> columnConfigs = new ArrayList<>(task.getColumns());
+        columnConfigs.addAll(task.getAddColumns());
+        columnConfigs.addAll(task.getDropColumns());
+        List<String> paths = new ArrayList<>();
+        for (ColumnConfig columnConfig : columnConfigs) {
+            if (columnConfig.getName().startsWith("$.")) {
+                paths.add(columnConfig.getName());
+            }
+            if (columnConfig.getSrc().isPresent() && columnConfig.getSrc().get().startsWith("$.")) {
+                paths.add(columnConfig.getSrc().get());
+            }
+        }
+        return paths;
+    }
+
+    // A JSONPath name matches only values of the type: json column of its root name, or of the type: string
+    // column holding JSON text if jsonText, see JsonTextProjector
+    private static String checkJsonPath(String path, Schema schema, String schemaName, boolean jsonText)
+    {
+        String rest = path.substring(2);
+        int end = rest.length();
+        for (int i = 0; i < rest.length(); i++) {
+            char c = rest.charAt(i);
+            if (c == '.' || c == '[') {
+                end = i;
+                break;
+            }
+        }
+        String rootName = rest.substring(0, end);
+        for (Column column : schema.getColumns()) {
+            if (column.getName().equals(rootName)) {
+                if (column.getType() instanceof JsonType || (jsonText && column.getType() instanceof StringType)) {
+                    return null;
+                }
+                return String.format("never matches because column '%s' is not type: json", rootName);
+            }
+        }
+        return String.format("never matches because column '%s' is not in the %s schema", rootName, schemaName);
+    }
+}
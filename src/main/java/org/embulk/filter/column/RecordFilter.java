@@ -0,0 +1,9 @@
+package org.embulk.filter.column;
+
+import org.embulk.spi.PageReader;
+
+// Decides whether the current record of the PageReader is emitted, before any column is copied
+public interface RecordFilter
+{
+    boolean accept(PageReader pageReader);
+}
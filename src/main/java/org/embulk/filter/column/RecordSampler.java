@@ -0,0 +1,36 @@
+package org.embulk.filter.column;
+
+import org.embulk.config.ConfigException;
+import org.embulk.filter.column.ColumnFilterPlugin.PluginTask;
+
+import org.embulk.spi.PageReader;
+import org.embulk.spi.Schema;
+
+// sample_rate: keeps a record if the xxHash64 of its sample_keys falls below rate * 2^64.
+// The same keys are always kept or dropped, so the sample is reproducible across runs.
+// Without sample_keys, the sequence number of the record in the task is hashed instead.
+public class RecordSampler implements RecordFilter
+{
+    private final long threshold; // compared with the upper 53 bits of the hash
+    private final long seed;
+    private final KeyHasher keyHasher; // NOTE: null if sample_keys is empty
+    private long sequence = 0;
+
+    public RecordSampler(PluginTask task, Schema inputSchema)
+    {
+        double rate = task.getSampleRate().get();
+        if (rate < 0.0 || rate > 1.0) {
+            throw new ConfigException(String.format("sample_rate must be between 0.0 and 1.0, but %s is given", rate));
+        }
+        this.threshold = (long) (rate * (1L << 53));
+        this.seed = task.getSampleSeed();
+        this.keyHasher = task.getSampleKeys().isEmpty() ? null : new KeyHasher(inputSchema, task.getSampleKeys(), seed, "sample_keys");
+    }
+
+    @Override
+    public boolean accept(PageReader pageReader)
+    {
+        long hash = (keyHasher == null ? XxHash64.hashLong(sequence++, seed) : keyHasher.hash(pageReader));
+        return (hash >>> 11) < threshold;
+    }
+}
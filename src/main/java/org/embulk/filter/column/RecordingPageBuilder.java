@@ -0,0 +1,130 @@
+package org.embulk.filter.column;
+
+import org.embulk.spi.BufferAllocator;
+import org.embulk.spi.Column;
+import org.embulk.spi.PageBuilder;
+import org.embulk.spi.PageOutput;
+import org.embulk.spi.Schema;
+import org.embulk.spi.time.Timestamp;
+
+import org.msgpack.value.Value;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// PageBuilder which captures values of records added to it while recording, to compare the outputs of
+// engines in shadow mode, see ShadowEngine. Values are still written to the page as is.
+// Subclasses may capture values of all records by isCapturing(), and take them by recordAdded().
+public class RecordingPageBuilder extends PageBuilder
+{
+    private final Object[] values; // values of the current record, null if not set
+    private boolean recording = false;
+    private List<Object[]> records = new ArrayList<>();
+
+    public RecordingPageBuilder(BufferAllocator allocator, Schema schema, PageOutput output)
+    {
+        super(allocator, schema, output);
+        this.values = new Object[schema.getColumnCount()];
+    }
+
+    void startRecording()
+    {
+        recording = true;
+    }
+
+    // Records added since startRecording()
+    List<Object[]> stopRecording()
+    {
+        List<Object[]> recorded = records;
+        recording = false;
+        records = new ArrayList<>();
+        return recorded;
+    }
+
+    @Override
+    public void setNull(Column column)
+    {
+        if (isCapturing()) {
+            values[column.getIndex()] = null;
+        }
+        super.setNull(column);
+    }
+
+    @Override
+    public void setBoolean(Column column, boolean value)
+    {
+        if (isCapturing()) {
+            values[column.getIndex()] = value;
+        }
+        super.setBoolean(column, value);
+    }
+
+    @Override
+    public void setLong(Column column, long value)
+    {
+        if (isCapturing()) {
+            values[column.getIndex()] = value;
+        }
+        super.setLong(column, value);
+    }
+
+    @Override
+    public void setDouble(Column column, double value)
+    {
+        if (isCapturing()) {
+            values[column.getIndex()] = value;
+        }
+        super.setDouble(column, value);
+    }
+
+    @Override
+    public void setString(Column column, String value)
+    {
+        if (isCapturing()) {
+            values[column.getIndex()] = value;
+        }
+        super.setString(column, value);
+    }
+
+    @Override
+    public void setJson(Column column, Value value)
+    {
+        if (isCapturing()) {
+            values[column.getIndex()] = value;
+        }
+        super.setJson(column, value);
+    }
+
+    @Override
+    public void setTimestamp(Column column, Timestamp value)
+    {
+        if (isCapturing()) {
+            values[column.getIndex()] = value;
+        }
+        super.setTimestamp(column, value);
+    }
+
+    protected boolean isCapturing()
+    {
+        return recording;
+    }
+
+    // Called with values of a record being added, if isCapturing()
+    protected void recordAdded(Object[] values)
+    {
+        if (recording) {
+            records.add(values.clone());
+        }
+    }
+
+    @Override
+    public void addRecord()
+    {
+        if (isCapturing()) {
+            recordAdded(values);
+            Arrays.fill(values, null); // same with PageBuilder, which clears values by addRecord()
+        }
+        super.addRecord();
+    }
+}
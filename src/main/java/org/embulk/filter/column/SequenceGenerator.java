@@ -0,0 +1,76 @@
+package org.embulk.filter.column;
+
+import org.embulk.config.ConfigException;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// generator: sequence, and generator: row_number
+//
+// sequence numbers records uniquely across tasks of a run. A task reserves a block of numbers from the
+// counter shared by the run with one getAndAdd, and numbers its records from the block without any
+// synchronization. Numbers increase within a task, but blocks of tasks interleave.
+// The counter lives in the JVM of the transaction, which registers it. A task in another JVM, such as under
+// a distributed executor, does not find it and fails, not to number records from 1 again.
+// row_number numbers records of a task densely from 1.
+public class SequenceGenerator
+{
+    // run id => next number not reserved yet
+    private static final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+
+    private final AtomicLong counter; // NOTE: null for row_number
+    private final int blockSize;
+    private long next;
+    private long limit;
+
+    private SequenceGenerator(AtomicLong counter, int blockSize, long next, long limit)
+    {
+        this.counter = counter;
+        this.blockSize = blockSize;
+        this.next = next;
+        this.limit = limit;
+    }
+
+    // Called by the transaction before running tasks
+    public static void register(String runId)
+    {
+        counters.putIfAbsent(runId, new AtomicLong(1));
+    }
+
+    // runId would be null if the task was not created by transaction(), then numbers are unique only in the task
+    public static SequenceGenerator sequence(String runId, int blockSize)
+    {
+        AtomicLong counter;
+        if (runId == null) {
+            counter = new AtomicLong(1);
+        }
+        else {
+            counter = counters.get(runId);
+            if (counter == null) {
+                throw new ConfigException("generator: sequence is available only with the local executor, which runs tasks in the JVM of the transaction");
+            }
+        }
+        return new SequenceGenerator(counter, blockSize, 0, 0);
+    }
+
+    public static SequenceGenerator rowNumber()
+    {
+        return new SequenceGenerator(null, 0, 1, Long.MAX_VALUE);
+    }
+
+    // Called at the end of the transaction
+    public static void release(String runId)
+    {
+        counters.remove(runId);
+    }
+
+    public long next()
+    {
+        if (next == limit) {
+            next = counter.getAndAdd(blockSize);
+            limit = next + blockSize;
+        }
+        return next++;
+    }
+}
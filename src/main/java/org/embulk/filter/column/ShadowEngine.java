@@ -0,0 +1,231 @@
+package org.embulk.filter.column;
+
+import org.embulk.filter.column.ColumnFilterPlugin.PluginTask;
+
+import org.embulk.spi.Column;
+import org.embulk.spi.Exec;
+import org.embulk.spi.Page;
+import org.embulk.spi.PageOutput;
+import org.embulk.spi.PageReader;
+import org.embulk.spi.Schema;
+
+import org.msgpack.value.Value;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// shadow_engine: columnar
+//
+// Runs the columnar engine alongside the record engine on a sampled share of records, and compares their
+// outputs value by value. Only the output of the record engine goes downstream.
+// Sampled records, which are already accepted by RecordFilters, are decoded by the columnar engine with its
+// own ColumnVisitorImpl as the record engine visits them, and processed at the end of the page into a
+// PageBuilder whose pages are discarded. Columns of generator and default: now differ by design, and are
+// not compared. The columnar engine is disabled for the rest of the task if it fails.
+public class ShadowEngine
+{
+    private static final Logger logger = Exec.getLogger(ColumnFilterPlugin.class);
+    private static final int MAX_LOGGED_MISMATCHES = 10;
+    private static final long SEED = 0;
+
+    private final Column[] outputColumns;
+    private final boolean[] compared; // indexed by output column index
+    private final RecordingPageBuilder reference;
+    private final RecordingPageBuilder shadowBuilder;
+    private final ColumnVisitorImpl shadowVisitor;
+    private final ColumnarPageProcessor shadow;
+    private final long threshold; // compared with the upper 53 bits of the hash, see RecordSampler
+    private long sequence = 0;
+    private boolean failed = false;
+
+    private final List<Object[]> referenceRecords = new ArrayList<>(); // of the current page
+    private int pageSamples = 0;
+    private long startNanos;
+    private long referenceNanos = 0;
+    private long shadowNanos = 0;
+    private long records = 0;
+    private long samples = 0;
+    private long comparedRecords = 0;
+    private long mismatches = 0;
+
+    ShadowEngine(PluginTask task, Schema inputSchema, Schema outputSchema, PageReader pageReader, RecordingPageBuilder reference)
+    {
+        this.outputColumns = outputSchema.getColumns().toArray(new Column[0]);
+        this.reference = reference;
+        this.shadowBuilder = new RecordingPageBuilder(Exec.getBufferAllocator(), outputSchema, new PageOutput() {
+            @Override
+            public void add(Page page)
+            {
+                page.release();
+            }
+
+            @Override
+            public void finish()
+            {
+            }
+
+            @Override
+            public void close()
+            {
+            }
+        });
+        this.shadowVisitor = new ColumnVisitorImpl(task, inputSchema, outputSchema, pageReader, shadowBuilder, true);
+        this.shadow = new ColumnarPageProcessor(outputSchema, shadowVisitor, new RecordFilter[0]);
+        this.threshold = (long) (task.getShadowSampleRate() * (1L << 53));
+        this.compared = new boolean[outputColumns.length];
+        for (Column outputColumn : outputColumns) {
+            compared[outputColumn.getIndex()] = ! shadowVisitor.isVolatile(outputColumn);
+        }
+    }
+
+    // Called before processing records of a new input page
+    void startPage()
+    {
+        if (! failed) {
+            shadowVisitor.startPage();
+        }
+    }
+
+    // Called for each record accepted by RecordFilters, before the record engine visits it.
+    // Returns true if the record is sampled, then endRecord() must be called after the visit
+    boolean startRecord()
+    {
+        records++;
+        if (failed || (XxHash64.hashLong(sequence++, SEED) >>> 11) >= threshold) {
+            return false;
+        }
+        samples++;
+        reference.startRecording();
+        startNanos = System.nanoTime();
+        return true;
+    }
+
+    void endRecord(PageReader pageReader)
+    {
+        long endNanos = System.nanoTime();
+        referenceNanos += endNanos - startNanos;
+        referenceRecords.addAll(reference.stopRecording()); // NOTE: empty if skipped by on_error or on_overflow
+        try {
+            shadow.decodeRecord(pageReader);
+            pageSamples++;
+        }
+        catch (RuntimeException ex) {
+            fail(ex);
+        }
+        shadowNanos += System.nanoTime() - endNanos;
+    }
+
+    // Called at the end of the input page
+    void finishPage()
+    {
+        if (failed || pageSamples == 0) {
+            referenceRecords.clear();
+            return;
+        }
+        pageSamples = 0;
+        long processNanos = System.nanoTime();
+        shadowBuilder.startRecording();
+        try {
+            shadow.processDecoded(shadowBuilder);
+        }
+        catch (RuntimeException ex) {
+            fail(ex);
+        }
+        List<Object[]> shadowRecords = shadowBuilder.stopRecording();
+        shadowNanos += System.nanoTime() - processNanos;
+        if (! failed) {
+            compare(referenceRecords, shadowRecords);
+        }
+        referenceRecords.clear();
+    }
+
+    private void compare(List<Object[]> referenceRecords, List<Object[]> shadowRecords)
+    {
+        if (referenceRecords.size() != shadowRecords.size()) {
+            mismatch(String.format("%d records are output by the record engine, but %d by the columnar engine", referenceRecords.size(), shadowRecords.size()));
+            return;
+        }
+        for (int r = 0; r < referenceRecords.size(); r++) {
+            Object[] expected = referenceRecords.get(r);
+            Object[] actual = shadowRecords.get(r);
+            for (Column outputColumn : outputColumns) {
+                int c = outputColumn.getIndex();
+                if (compared[c] && ! equals(expected[c], actual[c])) {
+                    mismatch(String.format("column '%s' is %s by the record engine, but %s by the columnar engine", outputColumn.getName(), toString(expected[c]), toString(actual[c])));
+                }
+            }
+        }
+        comparedRecords += referenceRecords.size();
+    }
+
+    private static boolean equals(Object expected, Object actual)
+    {
+        if (expected == null || actual == null) {
+            return expected == actual;
+        }
+        if (expected instanceof Value && actual instanceof Value) {
+            return ((Value) expected).toJson().equals(((Value) actual).toJson()); // NOTE: the order of map keys matters
+        }
+        return expected.equals(actual);
+    }
+
+    private static String toString(Object value)
+    {
+        return value instanceof Value ? ((Value) value).toJson() : String.valueOf(value);
+    }
+
+    private void mismatch(String message)
+    {
+        mismatches++;
+        if (mismatches <= MAX_LOGGED_MISMATCHES) {
+            logger.warn(String.format("shadow_engine: %s", message));
+        }
+    }
+
+    private void fail(RuntimeException ex)
+    {
+        failed = true;
+        logger.warn("shadow_engine: the columnar engine failed, and is disabled for the rest of the task", ex);
+    }
+
+    long getComparedRecords()
+    {
+        return comparedRecords;
+    }
+
+    long getMismatches()
+    {
+        return mismatches;
+    }
+
+    boolean isFailed()
+    {
+        return failed;
+    }
+
+    // Called at the end of the task
+    void finish()
+    {
+        shadowBuilder.finish();
+        if (samples == 0) {
+            return;
+        }
+        double referenceMicros = referenceNanos / 1000.0 / samples;
+        double shadowMicros = shadowNanos / 1000.0 / samples;
+        String message = String.format("shadow_engine: %d of %d records were compared, with %d mismatches%s. %.3f us/record by the record engine, %.3f us/record (x%.2f) by the columnar engine",
+                comparedRecords, records, mismatches, failed ? " until the columnar engine failed" : "",
+                referenceMicros, shadowMicros, referenceMicros == 0.0 ? 0.0 : shadowMicros / referenceMicros);
+        if (mismatches > 0 || failed) {
+            logger.warn(message);
+        }
+        else {
+            logger.info(message);
+        }
+    }
+
+    void close()
+    {
+        shadowBuilder.close();
+    }
+}
@@ -0,0 +1,77 @@
+package org.embulk.filter.column;
+
+import org.embulk.spi.BufferAllocator;
+import org.embulk.spi.Column;
+import org.embulk.spi.PageOutput;
+import org.embulk.spi.Schema;
+import org.embulk.spi.time.Timestamp;
+
+import org.msgpack.value.Value;
+
+// PageBuilder which accumulates ColumnStats of records added to it, see ColumnStats.
+// Every path writing output values goes through its setters, so statistics are taken without another pass.
+// Values are taken at addRecord() from those captured by RecordingPageBuilder, so that records skipped after
+// their values were set, such as by on_error: skip and on_overflow: skip, are not counted.
+public class StatsPageBuilder extends RecordingPageBuilder
+{
+    private final String runId;
+    private final ColumnStats[] stats;
+
+    public StatsPageBuilder(BufferAllocator allocator, Schema schema, PageOutput output, String runId)
+    {
+        super(allocator, schema, output);
+        this.runId = runId;
+        this.stats = new ColumnStats[schema.getColumnCount()];
+        for (Column column : schema.getColumns()) {
+            stats[column.getIndex()] = new ColumnStats(column);
+        }
+    }
+
+    ColumnStats[] getStats()
+    {
+        return stats;
+    }
+
+    @Override
+    protected boolean isCapturing()
+    {
+        return true;
+    }
+
+    @Override
+    protected void recordAdded(Object[] values)
+    {
+        super.recordAdded(values);
+        for (int i = 0; i < values.length; i++) {
+            Object value = values[i];
+            if (value == null) {
+                stats[i].addNull();
+            }
+            else if (value instanceof Boolean) {
+                stats[i].addBoolean((Boolean) value);
+            }
+            else if (value instanceof Long) {
+                stats[i].addLong((Long) value);
+            }
+            else if (value instanceof Double) {
+                stats[i].addDouble((Double) value);
+            }
+            else if (value instanceof String) {
+                stats[i].addString((String) value);
+            }
+            else if (value instanceof Timestamp) {
+                stats[i].addTimestamp((Timestamp) value);
+            }
+            else {
+                stats[i].addJson((Value) value);
+            }
+        }
+    }
+
+    @Override
+    public void finish()
+    {
+        super.finish();
+        ColumnStats.publish(runId, stats);
+    }
+}
@@ -0,0 +1,41 @@
+package org.embulk.filter.column;
+
+import java.util.HashMap;
+
+// Makes equal string values of a page share one String instance.
+// PageBuilder keeps a reference for every setString, so low-cardinality columns otherwise hold
+// thousands of equal but distinct String objects until the page is flushed.
+public class StringDictionary
+{
+    private final int maxSize;
+    private final HashMap<String, String> dictionary;
+
+    public StringDictionary(int maxSize)
+    {
+        this.maxSize = maxSize;
+        this.dictionary = new HashMap<>();
+    }
+
+    public String get(String value)
+    {
+        String found = dictionary.get(value);
+        if (found != null) {
+            return found;
+        }
+        // Stop registering once full, values are returned as is then
+        if (dictionary.size() < maxSize) {
+            dictionary.put(value, value);
+        }
+        return value;
+    }
+
+    public int size()
+    {
+        return dictionary.size();
+    }
+
+    public void clear()
+    {
+        dictionary.clear();
+    }
+}
@@ -0,0 +1,193 @@
+package org.embulk.filter.column;
+
+import org.embulk.config.ConfigException;
+import org.embulk.spi.time.Timestamp;
+
+import org.joda.time.DateTimeZone;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// to_timezone: converts a timestamp into the local time of a timezone, as a string or a shifted timestamp.
+//
+// Offsets are resolved through a small cache of [start, end) ranges between transitions of the zone, so
+// that converting many values which mostly fall in a few ranges needs no DateTimeZone lookup. Local time
+// fields are computed arithmetically from the shifted epoch seconds.
+// Formats support a subset of strftime: %Y %m %d %H %M %S %L %N %z %Z and %%.
+public class TimeZoneConverter
+{
+    private static final int CACHE_SIZE = 4;
+
+    private final DateTimeZone zone;
+    private final Object[] format; // String literal or Character directive. NOTE: null for shifted timestamps
+
+    // cached ranges, replaced in round-robin
+    private final long[] rangeStarts = new long[CACHE_SIZE];
+    private final long[] rangeEnds = new long[CACHE_SIZE];
+    private final int[] rangeOffsets = new int[CACHE_SIZE];
+    private int ranges = 0;
+    private int nextRange = 0;
+    private long lookups = 0; // number of DateTimeZone lookups
+
+    private final StringBuilder builder = new StringBuilder();
+
+    public TimeZoneConverter(DateTimeZone zone, String format)
+    {
+        this.zone = zone;
+        this.format = format == null ? null : compile(format);
+    }
+
+    private static Object[] compile(String format)
+    {
+        List<Object> parts = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < format.length(); i++) {
+            char c = format.charAt(i);
+            if (c != '%') {
+                literal.append(c);
+                continue;
+            }
+            if (i + 1 >= format.length()) {
+                throw new ConfigException(String.format("format '%s' ends with %%", format));
+            }
+            char directive = format.charAt(++i);
+            if (directive == '%') {
+                literal.append('%');
+                continue;
+            }
+            if ("YmdHMSLNzZ".indexOf(directive) < 0) {
+                throw new ConfigException(String.format("format '%s': %%%s is not supported for to_timezone", format, directive));
+            }
+            if (literal.length() > 0) {
+                parts.add(literal.toString());
+                literal.setLength(0);
+            }
+            parts.add(Character.valueOf(directive));
+        }
+        if (literal.length() > 0) {
+            parts.add(literal.toString());
+        }
+        return parts.toArray();
+    }
+
+    // Offset of the zone at the instant in milliseconds
+    public int getOffset(long epochMillis)
+    {
+        for (int i = 0; i < ranges; i++) {
+            if (rangeStarts[i] <= epochMillis && epochMillis < rangeEnds[i]) {
+                return rangeOffsets[i];
+            }
+        }
+        lookups++;
+        int offset = zone.getOffset(epochMillis);
+        long start;
+        long end;
+        if (zone.isFixed()) {
+            start = Long.MIN_VALUE;
+            end = Long.MAX_VALUE;
+        }
+        else {
+            // NOTE: previousTransition and nextTransition return the argument itself if there is no transition
+            long previous = zone.previousTransition(epochMillis + 1);
+            start = previous == epochMillis + 1 ? Long.MIN_VALUE : previous;
+            long next = zone.nextTransition(epochMillis);
+            end = next == epochMillis ? Long.MAX_VALUE : next;
+        }
+        rangeStarts[nextRange] = start;
+        rangeEnds[nextRange] = end;
+        rangeOffsets[nextRange] = offset;
+        nextRange = (nextRange + 1) % CACHE_SIZE;
+        ranges = Math.min(ranges + 1, CACHE_SIZE);
+        return offset;
+    }
+
+    long getLookups()
+    {
+        return lookups;
+    }
+
+    // The timestamp whose UTC wall-clock time is the local time in the zone
+    public Timestamp shift(Timestamp value)
+    {
+        int offset = getOffset(value.toEpochMilli());
+        return Timestamp.ofEpochSecond(value.getEpochSecond() + offset / 1000, value.getNano() + (offset % 1000) * 1000000L);
+    }
+
+    public String format(Timestamp value)
+    {
+        int offset = getOffset(value.toEpochMilli());
+        long local = value.getEpochSecond() + offset / 1000;
+        long days = floorDiv(local, 86400L);
+        int secondOfDay = (int) (local - days * 86400L);
+
+        // civil date from days since 1970-01-01, see http://howardhinnant.github.io/date_algorithms.html
+        long z = days + 719468;
+        long era = floorDiv(z, 146097L);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        builder.setLength(0);
+        for (Object part : format) {
+            if (part instanceof String) {
+                builder.append((String) part);
+                continue;
+            }
+            switch ((Character) part) {
+            case 'Y':
+                builder.append(year);
+                break;
+            case 'm':
+                pad(month, 2);
+                break;
+            case 'd':
+                pad(day, 2);
+                break;
+            case 'H':
+                pad(secondOfDay / 3600, 2);
+                break;
+            case 'M':
+                pad(secondOfDay / 60 % 60, 2);
+                break;
+            case 'S':
+                pad(secondOfDay % 60, 2);
+                break;
+            case 'L':
+                pad(value.getNano() / 1000000, 3);
+                break;
+            case 'N':
+                pad(value.getNano(), 9);
+                break;
+            case 'z':
+                int minutes = Math.abs(offset) / 60000;
+                builder.append(offset < 0 ? '-' : '+');
+                pad(minutes / 60, 2);
+                pad(minutes % 60, 2);
+                break;
+            default: // Z
+                builder.append(zone.getID());
+                break;
+            }
+        }
+        return builder.toString();
+    }
+
+    private static long floorDiv(long x, long y)
+    {
+        long q = x / y;
+        return (x % y != 0 && (x < 0) != (y < 0)) ? q - 1 : q;
+    }
+
+    private void pad(int value, int width)
+    {
+        String s = Integer.toString(value);
+        for (int i = s.length(); i < width; i++) {
+            builder.append('0');
+        }
+        builder.append(s);
+    }
+}
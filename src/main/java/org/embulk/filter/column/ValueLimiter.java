@@ -0,0 +1,261 @@
+package org.embulk.filter.column;
+
+import org.msgpack.value.Value;
+import org.msgpack.value.ValueFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// max_bytes and max_depth of a string or json column.
+//
+// Sizes are measured as UTF-8 bytes of the string, or of the json text, with an early exit at the limit,
+// so that an oversized value is never encoded in full. A value within the limits is returned as is.
+// Truncation keeps a prefix: a string is cut at a character boundary, containers deeper than max_depth
+// become null, and arrays and maps keep leading elements which fit in max_bytes.
+public class ValueLimiter
+{
+    private static final int UNLIMITED = Integer.MAX_VALUE;
+
+    private final int maxBytes;
+    private final int maxDepth;
+
+    public ValueLimiter(Integer maxBytes, Integer maxDepth)
+    {
+        this.maxBytes = maxBytes == null ? UNLIMITED : maxBytes;
+        this.maxDepth = maxDepth == null ? UNLIMITED : maxDepth;
+    }
+
+    // Returns the string itself if it is within max_bytes, or its longest prefix within max_bytes
+    public String limitString(String value)
+    {
+        int end = utf8Prefix(value, maxBytes);
+        return end == value.length() ? value : value.substring(0, end);
+    }
+
+    // Returns the value itself if it is within max_bytes and max_depth, or a truncated copy
+    public Value limitJson(Value value)
+    {
+        if (size(value, 1, maxDepth, maxBytes) >= 0) {
+            return value;
+        }
+        Value cut = maxDepth == UNLIMITED ? value : cutDepth(value, 1);
+        return truncate(cut, maxBytes);
+    }
+
+    // Number of chars of the longest prefix of s within maxBytes in UTF-8, see ColumnStats#utf8Length
+    static int utf8Prefix(CharSequence s, long maxBytes)
+    {
+        int length = s.length();
+        long bytes = 0;
+        for (int i = 0; i < length; i++) {
+            int n = utf8Bytes(s, i);
+            if (bytes + n > maxBytes) {
+                return i;
+            }
+            bytes += n;
+            if (n == 4) {
+                i++; // surrogate pair
+            }
+        }
+        return length;
+    }
+
+    // Bytes of the char at i in UTF-8, or 4 for a surrogate pair from i
+    private static int utf8Bytes(CharSequence s, int i)
+    {
+        char c = s.charAt(i);
+        if (c < 0x80) {
+            return 1;
+        }
+        else if (c < 0x800) {
+            return 2;
+        }
+        else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+            return 4;
+        }
+        else if (Character.isSurrogate(c)) {
+            return 1; // unpaired surrogate is encoded as '?'
+        }
+        return 3;
+    }
+
+    // Bytes of the json text, or -1 if it exceeds budget or maxDepth
+    static long size(Value value, int depth, int maxDepth, long budget)
+    {
+        if (value.isArrayValue()) {
+            if (depth > maxDepth) {
+                return -1;
+            }
+            long bytes = 2;
+            boolean first = true;
+            for (Value element : value.asArrayValue()) {
+                bytes += first ? 0 : 1;
+                first = false;
+                long n = size(element, depth + 1, maxDepth, budget - bytes);
+                if (n < 0) {
+                    return -1;
+                }
+                bytes += n;
+            }
+            return bytes <= budget ? bytes : -1;
+        }
+        else if (value.isMapValue()) {
+            if (depth > maxDepth) {
+                return -1;
+            }
+            long bytes = 2;
+            boolean first = true;
+            for (Map.Entry<Value, Value> entry : value.asMapValue().entrySet()) {
+                bytes += first ? 1 : 2; // : and ,
+                first = false;
+                long k = size(entry.getKey(), depth + 1, maxDepth, budget - bytes);
+                if (k < 0) {
+                    return -1;
+                }
+                bytes += k;
+                long v = size(entry.getValue(), depth + 1, maxDepth, budget - bytes);
+                if (v < 0) {
+                    return -1;
+                }
+                bytes += v;
+            }
+            return bytes <= budget ? bytes : -1;
+        }
+        else if (value.isStringValue()) {
+            long bytes = 2 + escapedUtf8Length(value.asStringValue().asString(), budget);
+            return bytes <= budget ? bytes : -1;
+        }
+        long bytes = value.toJson().length(); // nil, boolean, and number are short
+        return bytes <= budget ? bytes : -1;
+    }
+
+    // Bytes of the escaped json string without quotes, stopping once it exceeds budget
+    private static long escapedUtf8Length(String s, long budget)
+    {
+        int length = s.length();
+        long bytes = 0;
+        for (int i = 0; i < length && bytes <= budget; i++) {
+            int n = escapedBytes(s, i);
+            bytes += n;
+            if (n == 4) {
+                i++; // surrogate pair
+            }
+        }
+        return bytes;
+    }
+
+    // Bytes of the char at i in a json string
+    private static int escapedBytes(CharSequence s, int i)
+    {
+        char c = s.charAt(i);
+        if (c == '"' || c == '\\' || c == '\b' || c == '\f' || c == '\n' || c == '\r' || c == '\t') {
+            return 2;
+        }
+        else if (c < 0x20) {
+            return 6; // backslash u00XX
+        }
+        return utf8Bytes(s, i);
+    }
+
+    // Replace containers deeper than maxDepth with null
+    private Value cutDepth(Value value, int depth)
+    {
+        if (! (value.isArrayValue() || value.isMapValue())) {
+            return value;
+        }
+        if (depth > maxDepth) {
+            return ValueFactory.newNil();
+        }
+        if (value.isArrayValue()) {
+            List<Value> values = new ArrayList<>();
+            for (Value element : value.asArrayValue()) {
+                values.add(cutDepth(element, depth + 1));
+            }
+            return ValueFactory.newArray(values.toArray(new Value[0]), true);
+        }
+        List<Value> kvs = new ArrayList<>();
+        for (Map.Entry<Value, Value> entry : value.asMapValue().entrySet()) {
+            kvs.add(entry.getKey());
+            kvs.add(cutDepth(entry.getValue(), depth + 1));
+        }
+        return ValueFactory.newMap(kvs.toArray(new Value[0]), true);
+    }
+
+    // Truncate value into budget bytes. Returns null if nothing fits
+    private static Value truncate(Value value, long budget)
+    {
+        if (size(value, 1, UNLIMITED, budget) >= 0) {
+            return value;
+        }
+        if (value.isStringValue()) {
+            if (budget < 2) {
+                return null;
+            }
+            String s = value.asStringValue().asString();
+            long bytes = 2;
+            int end = 0;
+            while (end < s.length()) {
+                int n = escapedBytes(s, end);
+                if (bytes + n > budget) {
+                    break;
+                }
+                bytes += n;
+                end += n == 4 ? 2 : 1;
+            }
+            return ValueFactory.newString(s.substring(0, end));
+        }
+        else if (value.isArrayValue()) {
+            if (budget < 2) {
+                return null;
+            }
+            List<Value> values = new ArrayList<>();
+            long bytes = 2;
+            for (Value element : value.asArrayValue()) {
+                long comma = values.isEmpty() ? 0 : 1;
+                long n = size(element, 1, UNLIMITED, budget - bytes - comma);
+                if (n >= 0) {
+                    values.add(element);
+                    bytes += comma + n;
+                    continue;
+                }
+                Value truncated = truncate(element, budget - bytes - comma);
+                if (truncated != null) {
+                    values.add(truncated);
+                }
+                break;
+            }
+            return ValueFactory.newArray(values.toArray(new Value[0]), true);
+        }
+        else if (value.isMapValue()) {
+            if (budget < 2) {
+                return null;
+            }
+            List<Value> kvs = new ArrayList<>();
+            long bytes = 2;
+            for (Map.Entry<Value, Value> entry : value.asMapValue().entrySet()) {
+                long separator = kvs.isEmpty() ? 1 : 2;
+                long k = size(entry.getKey(), 1, UNLIMITED, budget - bytes - separator);
+                if (k < 0) {
+                    break;
+                }
+                long rest = budget - bytes - separator - k;
+                long v = size(entry.getValue(), 1, UNLIMITED, rest);
+                if (v >= 0) {
+                    kvs.add(entry.getKey());
+                    kvs.add(entry.getValue());
+                    bytes += separator + k + v;
+                    continue;
+                }
+                Value truncated = truncate(entry.getValue(), rest);
+                if (truncated != null) {
+                    kvs.add(entry.getKey());
+                    kvs.add(truncated);
+                }
+                break;
+            }
+            return ValueFactory.newMap(kvs.toArray(new Value[0]), true);
+        }
+        return budget >= 4 ? ValueFactory.newNil() : null; // a number or boolean does not fit
+    }
+}
@@ -0,0 +1,522 @@
+package org.embulk.filter.column;
+
+import org.embulk.config.ConfigException;
+import org.embulk.filter.column.ColumnFilterPlugin.PluginTask;
+import org.embulk.filter.column.ColumnFilterPlugin.WhereConfig;
+
+import org.embulk.spi.Column;
+import org.embulk.spi.PageReader;
+import org.embulk.spi.Schema;
+import org.embulk.spi.SchemaConfigException;
+import org.embulk.spi.time.Timestamp;
+import org.embulk.spi.time.TimestampParseException;
+import org.embulk.spi.time.TimestampParser;
+import org.embulk.spi.type.BooleanType;
+import org.embulk.spi.type.DoubleType;
+import org.embulk.spi.type.JsonType;
+import org.embulk.spi.type.LongType;
+import org.embulk.spi.type.StringType;
+import org.embulk.spi.type.TimestampType;
+import org.embulk.spi.type.Type;
+
+import org.joda.time.DateTimeZone;
+import org.msgpack.value.Value;
+import org.msgpack.value.ValueFactory;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+// where: conditions are compiled once per task, and evaluated against the input record
+// in the order of configuration. Evaluation stops at the first unmatched condition.
+public class WhereFilter implements RecordFilter
+{
+    static final int EQ = 0;
+    static final int NE = 1;
+    static final int GT = 2;
+    static final int GE = 3;
+    static final int LT = 4;
+    static final int LE = 5;
+    static final int IN = 6;
+    static final int NOT_IN = 7;
+    static final int IS_NULL = 8;
+    static final int IS_NOT_NULL = 9;
+
+    private final Condition[] conditions;
+
+    public WhereFilter(PluginTask task, Schema inputSchema)
+    {
+        List<WhereConfig> whereConfigs = task.getWhere();
+        this.conditions = new Condition[whereConfigs.size()];
+        for (int i = 0; i < conditions.length; i++) {
+            conditions[i] = compile(task, inputSchema, whereConfigs.get(i));
+        }
+    }
+
+    @Override
+    public boolean accept(PageReader pageReader)
+    {
+        for (Condition condition : conditions) {
+            if (! condition.test(pageReader)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static int operator(String operator)
+    {
+        switch (operator) {
+        case "==":
+            return EQ;
+        case "!=":
+            return NE;
+        case ">":
+            return GT;
+        case ">=":
+            return GE;
+        case "<":
+            return LT;
+        case "<=":
+            return LE;
+        case "in":
+            return IN;
+        case "not_in":
+            return NOT_IN;
+        case "is_null":
+            return IS_NULL;
+        case "is_not_null":
+            return IS_NOT_NULL;
+        default:
+            throw new ConfigException(String.format("where: operator '%s' is not supported", operator));
+        }
+    }
+
+    static boolean compare(int op, int cmp)
+    {
+        switch (op) {
+        case EQ:
+            return cmp == 0;
+        case NE:
+            return cmp != 0;
+        case GT:
+            return cmp > 0;
+        case GE:
+            return cmp >= 0;
+        case LT:
+            return cmp < 0;
+        default: // LE
+            return cmp <= 0;
+        }
+    }
+
+    private static Condition compile(PluginTask task, Schema inputSchema, WhereConfig where)
+    {
+        String name = where.getColumn();
+        int op = operator(where.getOperator());
+        JsonPathLookup jsonPath = null;
+        if (name.startsWith("$.")) {
+            jsonPath = new JsonPathLookup(name);
+            name = jsonPath.getRootName();
+        }
+        Column column;
+        try {
+            column = inputSchema.lookupColumn(name);
+        }
+        catch (SchemaConfigException ex) {
+            throw new SchemaConfigException(String.format("where: Column '%s' is not found in inputSchema", name));
+        }
+        Type type = column.getType();
+        if (jsonPath != null && ! (type instanceof JsonType)) {
+            throw new ConfigException(String.format("where: '%s' is not type: json", name));
+        }
+
+        if (op == IS_NULL || op == IS_NOT_NULL) {
+            if (jsonPath != null) {
+                return new JsonPathCondition(column, jsonPath, op, null);
+            }
+            return new NullCondition(column, op == IS_NULL);
+        }
+        List<Object> literals;
+        if (op == IN || op == NOT_IN) {
+            literals = where.getValues();
+        }
+        else {
+            if (! where.getValue().isPresent()) {
+                throw new ConfigException(String.format("where: \"value\" is required for '%s' operator of '%s'", where.getOperator(), where.getColumn()));
+            }
+            literals = Arrays.asList(where.getValue().get());
+        }
+
+        if (jsonPath != null) {
+            Value[] values = new Value[literals.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = toJsonValue(literals.get(i));
+            }
+            return new JsonPathCondition(column, jsonPath, op, values);
+        }
+        else if (type instanceof BooleanType) {
+            if (op != EQ && op != NE) {
+                throw new ConfigException(String.format("where: '%s' operator is not available for type: boolean", where.getOperator()));
+            }
+            return new BooleanCondition(column, op, Boolean.parseBoolean(literals.get(0).toString()));
+        }
+        else if (type instanceof LongType) {
+            long[] values = new long[literals.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = toLong(literals.get(i));
+            }
+            if (op == IN || op == NOT_IN) {
+                Arrays.sort(values);
+                return new LongInCondition(column, values, op == IN);
+            }
+            return new LongCondition(column, op, values[0]);
+        }
+        else if (type instanceof DoubleType) {
+            double[] values = new double[literals.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = toDouble(literals.get(i));
+            }
+            if (op == IN || op == NOT_IN) {
+                Arrays.sort(values);
+                return new DoubleInCondition(column, values, op == IN);
+            }
+            return new DoubleCondition(column, op, values[0]);
+        }
+        else if (type instanceof StringType) {
+            if (op == IN || op == NOT_IN) {
+                HashSet<String> values = new HashSet<>();
+                for (Object literal : literals) {
+                    values.add(literal.toString());
+                }
+                return new StringInCondition(column, values, op == IN);
+            }
+            return new StringCondition(column, op, literals.get(0).toString());
+        }
+        else if (type instanceof TimestampType) {
+            String format = where.getFormat().or(task.getDefaultTimestampFormat());
+            DateTimeZone timezone = where.getTimeZone().or(task.getDefaultTimeZone());
+            TimestampParser parser = new TimestampParser(task.getJRuby(), format, timezone);
+            Timestamp[] values = new Timestamp[literals.size()];
+            for (int i = 0; i < values.length; i++) {
+                try {
+                    values[i] = parser.parse(literals.get(i).toString());
+                }
+                catch (TimestampParseException ex) {
+                    throw new ConfigException(String.format("where: value '%s' of '%s' is not a timestamp of format '%s'", literals.get(i), name, format));
+                }
+            }
+            if (op == IN || op == NOT_IN) {
+                return new TimestampInCondition(column, new HashSet<>(Arrays.asList(values)), op == IN);
+            }
+            return new TimestampCondition(column, op, values[0]);
+        }
+        else {
+            throw new ConfigException(String.format("where: only is_null and is_not_null are available for '%s', or use json path", name));
+        }
+    }
+
+    private static long toLong(Object literal)
+    {
+        try {
+            return Long.parseLong(literal.toString());
+        }
+        catch (NumberFormatException ex) {
+            throw new ConfigException(String.format("where: value '%s' is not a long", literal));
+        }
+    }
+
+    private static double toDouble(Object literal)
+    {
+        try {
+            return Double.parseDouble(literal.toString());
+        }
+        catch (NumberFormatException ex) {
+            throw new ConfigException(String.format("where: value '%s' is not a double", literal));
+        }
+    }
+
+    static Value toJsonValue(Object literal)
+    {
+        if (literal == null) {
+            return ValueFactory.newNil();
+        }
+        else if (literal instanceof Boolean) {
+            return ValueFactory.newBoolean((Boolean) literal);
+        }
+        else if (literal instanceof Integer || literal instanceof Long) {
+            return ValueFactory.newInteger(((Number) literal).longValue());
+        }
+        else if (literal instanceof Number) {
+            return ValueFactory.newFloat(((Number) literal).doubleValue());
+        }
+        else {
+            return ValueFactory.newString(literal.toString());
+        }
+    }
+
+    // returns null if they are not comparable
+    static Integer compareJson(Value value, Value literal)
+    {
+        if (value.isIntegerValue() && literal.isIntegerValue()) {
+            return Long.compare(value.asIntegerValue().toLong(), literal.asIntegerValue().toLong());
+        }
+        else if (value.isNumberValue() && literal.isNumberValue()) {
+            return Double.compare(value.asNumberValue().toDouble(), literal.asNumberValue().toDouble());
+        }
+        else if (value.isStringValue() && literal.isStringValue()) {
+            return value.asStringValue().asString().compareTo(literal.asStringValue().asString());
+        }
+        else if (value.isBooleanValue() && literal.isBooleanValue()) {
+            return Boolean.compare(value.asBooleanValue().getBoolean(), literal.asBooleanValue().getBoolean());
+        }
+        else if (value.isNilValue() && literal.isNilValue()) {
+            return 0;
+        }
+        return null;
+    }
+
+    abstract static class Condition
+    {
+        final Column column;
+
+        Condition(Column column)
+        {
+            this.column = column;
+        }
+
+        abstract boolean test(PageReader pageReader);
+    }
+
+    static class NullCondition extends Condition
+    {
+        private final boolean expected;
+
+        NullCondition(Column column, boolean expected)
+        {
+            super(column);
+            this.expected = expected;
+        }
+
+        @Override
+        boolean test(PageReader pageReader)
+        {
+            return pageReader.isNull(column) == expected;
+        }
+    }
+
+    static class BooleanCondition extends Condition
+    {
+        private final boolean expected;
+
+        BooleanCondition(Column column, int op, boolean value)
+        {
+            super(column);
+            this.expected = (op == EQ ? value : ! value);
+        }
+
+        @Override
+        boolean test(PageReader pageReader)
+        {
+            return ! pageReader.isNull(column) && pageReader.getBoolean(column) == expected;
+        }
+    }
+
+    static class LongCondition extends Condition
+    {
+        private final int op;
+        private final long value;
+
+        LongCondition(Column column, int op, long value)
+        {
+            super(column);
+            this.op = op;
+            this.value = value;
+        }
+
+        @Override
+        boolean test(PageReader pageReader)
+        {
+            return ! pageReader.isNull(column) && compare(op, Long.compare(pageReader.getLong(column), value));
+        }
+    }
+
+    static class LongInCondition extends Condition
+    {
+        private final long[] values; // sorted
+        private final boolean in;
+
+        LongInCondition(Column column, long[] values, boolean in)
+        {
+            super(column);
+            this.values = values;
+            this.in = in;
+        }
+
+        @Override
+        boolean test(PageReader pageReader)
+        {
+            return ! pageReader.isNull(column) && (Arrays.binarySearch(values, pageReader.getLong(column)) >= 0) == in;
+        }
+    }
+
+    static class DoubleCondition extends Condition
+    {
+        private final int op;
+        private final double value;
+
+        DoubleCondition(Column column, int op, double value)
+        {
+            super(column);
+            this.op = op;
+            this.value = value;
+        }
+
+        @Override
+        boolean test(PageReader pageReader)
+        {
+            return ! pageReader.isNull(column) && compare(op, Double.compare(pageReader.getDouble(column), value));
+        }
+    }
+
+    static class DoubleInCondition extends Condition
+    {
+        private final double[] values; // sorted
+        private final boolean in;
+
+        DoubleInCondition(Column column, double[] values, boolean in)
+        {
+            super(column);
+            this.values = values;
+            this.in = in;
+        }
+
+        @Override
+        boolean test(PageReader pageReader)
+        {
+            return ! pageReader.isNull(column) && (Arrays.binarySearch(values, pageReader.getDouble(column)) >= 0) == in;
+        }
+    }
+
+    static class StringCondition extends Condition
+    {
+        private final int op;
+        private final String value;
+
+        StringCondition(Column column, int op, String value)
+        {
+            super(column);
+            this.op = op;
+            this.value = value;
+        }
+
+        @Override
+        boolean test(PageReader pageReader)
+        {
+            return ! pageReader.isNull(column) && compare(op, pageReader.getString(column).compareTo(value));
+        }
+    }
+
+    static class StringInCondition extends Condition
+    {
+        private final HashSet<String> values;
+        private final boolean in;
+
+        StringInCondition(Column column, HashSet<String> values, boolean in)
+        {
+            super(column);
+            this.values = values;
+            this.in = in;
+        }
+
+        @Override
+        boolean test(PageReader pageReader)
+        {
+            return ! pageReader.isNull(column) && values.contains(pageReader.getString(column)) == in;
+        }
+    }
+
+    static class TimestampCondition extends Condition
+    {
+        private final int op;
+        private final Timestamp value;
+
+        TimestampCondition(Column column, int op, Timestamp value)
+        {
+            super(column);
+            this.op = op;
+            this.value = value;
+        }
+
+        @Override
+        boolean test(PageReader pageReader)
+        {
+            return ! pageReader.isNull(column) && compare(op, pageReader.getTimestamp(column).compareTo(value));
+        }
+    }
+
+    static class TimestampInCondition extends Condition
+    {
+        private final HashSet<Timestamp> values;
+        private final boolean in;
+
+        TimestampInCondition(Column column, HashSet<Timestamp> values, boolean in)
+        {
+            super(column);
+            this.values = values;
+            this.in = in;
+        }
+
+        @Override
+        boolean test(PageReader pageReader)
+        {
+            return ! pageReader.isNull(column) && values.contains(pageReader.getTimestamp(column)) == in;
+        }
+    }
+
+    static class JsonPathCondition extends Condition
+    {
+        private final JsonPathLookup jsonPath;
+        private final int op;
+        private final Value[] values; // NOTE: null for is_null and is_not_null
+
+        JsonPathCondition(Column column, JsonPathLookup jsonPath, int op, Value[] values)
+        {
+            super(column);
+            this.jsonPath = jsonPath;
+            this.op = op;
+            this.values = values;
+        }
+
+        @Override
+        boolean test(PageReader pageReader)
+        {
+            Value value = pageReader.isNull(column) ? null : jsonPath.get(pageReader.getJson(column));
+            boolean isNull = (value == null || value.isNilValue());
+            switch (op) {
+            case IS_NULL:
+                return isNull;
+            case IS_NOT_NULL:
+                return ! isNull;
+            case IN:
+            case NOT_IN:
+                if (isNull) {
+                    return false;
+                }
+                for (Value literal : values) {
+                    Integer cmp = compareJson(value, literal);
+                    if (cmp != null && cmp.intValue() == 0) {
+                        return op == IN;
+                    }
+                }
+                return op == NOT_IN;
+            default:
+                if (isNull) {
+                    return false;
+                }
+                Integer cmp = compareJson(value, values[0]);
+                return cmp != null && compare(op, cmp.intValue());
+            }
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package org.embulk.filter.column;
+
+// Streaming xxHash64 (https://github.com/Cyan4973/xxHash) which does not allocate per hash.
+// An instance is reusable by reset(), but not thread-safe.
+public class XxHash64
+{
+    private static final long PRIME64_1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME64_2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME64_3 = 0x165667B19E3779F9L;
+    private static final long PRIME64_4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME64_5 = 0x27D4EB2F165667C5L;
+
+    private final byte[] buffer = new byte[32];
+    private int bufferSize;
+    private long totalLength;
+    private long seed;
+    private long v1;
+    private long v2;
+    private long v3;
+    private long v4;
+
+    public XxHash64()
+    {
+        reset(0L);
+    }
+
+    public XxHash64 reset(long seed)
+    {
+        this.seed = seed;
+        this.v1 = seed + PRIME64_1 + PRIME64_2;
+        this.v2 = seed + PRIME64_2;
+        this.v3 = seed;
+        this.v4 = seed - PRIME64_1;
+        this.bufferSize = 0;
+        this.totalLength = 0;
+        return this;
+    }
+
+    public XxHash64 update(byte b)
+    {
+        buffer[bufferSize++] = b;
+        totalLength++;
+        if (bufferSize == 32) {
+            v1 = round(v1, readLong(buffer, 0));
+            v2 = round(v2, readLong(buffer, 8));
+            v3 = round(v3, readLong(buffer, 16));
+            v4 = round(v4, readLong(buffer, 24));
+            bufferSize = 0;
+        }
+        return this;
+    }
+
+    public XxHash64 update(byte[] bytes, int offset, int length)
+    {
+        for (int i = offset; i < offset + length; i++) {
+            update(bytes[i]);
+        }
+        return this;
+    }
+
+    public XxHash64 updateInt(int v)
+    {
+        update((byte) v);
+        update((byte) (v >>> 8));
+        update((byte) (v >>> 16));
+        update((byte) (v >>> 24));
+        return this;
+    }
+
+    // little endian, as xxHash64 reads its input
+    public XxHash64 updateLong(long v)
+    {
+        for (int i = 0; i < 64; i += 8) {
+            update((byte) (v >>> i));
+        }
+        return this;
+    }
+
+    // UTF-8 bytes of the string, without encoding it to a byte array
+    public XxHash64 updateUtf8(CharSequence s)
+    {
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                update((byte) c);
+            }
+            else if (c < 0x800) {
+                update((byte) (0xC0 | (c >> 6)));
+                update((byte) (0x80 | (c & 0x3F)));
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                update((byte) (0xF0 | (cp >> 18)));
+                update((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                update((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                update((byte) (0x80 | (cp & 0x3F)));
+            }
+            else if (Character.isSurrogate(c)) {
+                update((byte) '?'); // unpaired surrogate, same as String#getBytes
+            }
+            else {
+                update((byte) (0xE0 | (c >> 12)));
+                update((byte) (0x80 | ((c >> 6) & 0x3F)));
+                update((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        return this;
+    }
+
+    public long digest()
+    {
+        long h;
+        if (totalLength >= 32) {
+            h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            h = mergeRound(h, v1);
+            h = mergeRound(h, v2);
+            h = mergeRound(h, v3);
+            h = mergeRound(h, v4);
+        }
+        else {
+            h = seed + PRIME64_5;
+        }
+        h += totalLength;
+
+        int p = 0;
+        while (p + 8 <= bufferSize) {
+            h ^= round(0, readLong(buffer, p));
+            h = Long.rotateLeft(h, 27) * PRIME64_1 + PRIME64_4;
+            p += 8;
+        }
+        if (p + 4 <= bufferSize) {
+            h ^= (readInt(buffer, p) & 0xFFFFFFFFL) * PRIME64_1;
+            h = Long.rotateLeft(h, 23) * PRIME64_2 + PRIME64_3;
+            p += 4;
+        }
+        while (p < bufferSize) {
+            h ^= (buffer[p] & 0xFFL) * PRIME64_5;
+            h = Long.rotateLeft(h, 11) * PRIME64_1;
+            p++;
+        }
+        return avalanche(h);
+    }
+
+    // xxHash64 of the 8 bytes of v (little endian)
+    public static long hashLong(long v, long seed)
+    {
+        long h = seed + PRIME64_5 + 8;
+        h ^= round(0, v);
+        h = Long.rotateLeft(h, 27) * PRIME64_1 + PRIME64_4;
+        return avalanche(h);
+    }
+
+    private static long round(long acc, long input)
+    {
+        acc += input * PRIME64_2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * PRIME64_1;
+    }
+
+    private static long mergeRound(long acc, long val)
+    {
+        acc ^= round(0, val);
+        return acc * PRIME64_1 + PRIME64_4;
+    }
+
+    private static long avalanche(long h)
+    {
+        h ^= h >>> 33;
+        h *= PRIME64_2;
+        h ^= h >>> 29;
+        h *= PRIME64_3;
+        h ^= h >>> 32;
+        return h;
+    }
+
+    private static long readLong(byte[] b, int i)
+    {
+        return (b[i] & 0xFFL)
+                | (b[i + 1] & 0xFFL) << 8
+                | (b[i + 2] & 0xFFL) << 16
+                | (b[i + 3] & 0xFFL) << 24
+                | (b[i + 4] & 0xFFL) << 32
+                | (b[i + 5] & 0xFFL) << 40
+                | (b[i + 6] & 0xFFL) << 48
+                | (b[i + 7] & 0xFFL) << 56;
+    }
+
+    private static int readInt(byte[] b, int i)
+    {
+        return (b[i] & 0xFF)
+                | (b[i + 1] & 0xFF) << 8
+                | (b[i + 2] & 0xFF) << 16
+                | (b[i + 3] & 0xFF) << 24;
+    }
+}
@@ -0,0 +1,72 @@
+package org.embulk.filter.column;
+
+import org.embulk.config.ConfigException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestArraySlice
+{
+    @Test
+    public void parse()
+    {
+        assertNull(ArraySlice.parse("[0]"));
+        assertNull(ArraySlice.parse("[*]"));
+        assertNull(ArraySlice.parse("foo"));
+        assertTrue(ArraySlice.parse("[1:3]").isRange());
+        assertTrue(ArraySlice.parse("[:3]").isRange());
+        assertTrue(ArraySlice.parse("[:]").isRange());
+        assertFalse(ArraySlice.parse("[-1]").isRange());
+    }
+
+    @Test(expected = ConfigException.class)
+    public void parse_TooLarge()
+    {
+        ArraySlice.parse("[0:99999999999999999999]");
+    }
+
+    @Test
+    public void range()
+    {
+        ArraySlice slice = ArraySlice.parse("[1:3]");
+        assertEquals(1, slice.from(5));
+        assertEquals(3, slice.to(5));
+        assertEquals(1, slice.from(2));
+        assertEquals(2, slice.to(2));
+        assertEquals(0, slice.from(0));
+        assertEquals(0, slice.to(0));
+
+        slice = ArraySlice.parse("[:3]");
+        assertEquals(0, slice.from(5));
+        assertEquals(3, slice.to(5));
+
+        slice = ArraySlice.parse("[-2:]");
+        assertEquals(3, slice.from(5));
+        assertEquals(5, slice.to(5));
+        assertEquals(0, slice.from(1));
+        assertEquals(1, slice.to(1));
+
+        slice = ArraySlice.parse("[3:1]");
+        assertEquals(3, slice.from(5));
+        assertEquals(3, slice.to(5));
+    }
+
+    @Test
+    public void negativeIndex()
+    {
+        ArraySlice slice = ArraySlice.parse("[-1]");
+        assertEquals(4, slice.from(5));
+        assertEquals(5, slice.to(5));
+        assertEquals(0, slice.from(0));
+        assertEquals(0, slice.to(0));
+
+        slice = ArraySlice.parse("[-2]");
+        assertEquals(3, slice.from(5));
+        assertEquals(4, slice.to(5));
+        assertEquals(0, slice.from(1));
+        assertEquals(0, slice.to(1));
+    }
+}
@@ -0,0 +1,101 @@
+package org.embulk.filter.column;
+
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.spi.Page;
+import org.embulk.spi.PageOutput;
+import org.embulk.spi.PageTestUtils;
+import org.embulk.spi.Schema;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.embulk.spi.type.Types.LONG;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestAsyncPageOutput
+{
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    private static class RecordingPageOutput implements PageOutput
+    {
+        final List<Page> pages = new ArrayList<>();
+        boolean finished = false;
+        boolean closed = false;
+        boolean failOnAdd = false;
+
+        @Override
+        public void add(Page page)
+        {
+            if (failOnAdd) {
+                throw new IllegalStateException("downstream failure");
+            }
+            pages.add(page);
+        }
+
+        @Override
+        public void finish()
+        {
+            finished = true;
+        }
+
+        @Override
+        public void close()
+        {
+            closed = true;
+        }
+    }
+
+    private List<Page> pages(int n)
+    {
+        Schema schema = Schema.builder().add("long", LONG).build();
+        List<Page> pages = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            pages.addAll(PageTestUtils.buildPage(runtime.getBufferAllocator(), schema, new Long(i)));
+        }
+        return pages;
+    }
+
+    @Test
+    public void addFinishClose()
+    {
+        RecordingPageOutput downstream = new RecordingPageOutput();
+        AsyncPageOutput output = new AsyncPageOutput(downstream, 1);
+        List<Page> pages = pages(5);
+        for (Page page : pages) {
+            output.add(page);
+        }
+        output.finish();
+        output.close();
+
+        assertEquals(pages, downstream.pages);
+        assertTrue(downstream.finished);
+        assertTrue(downstream.closed);
+    }
+
+    @Test
+    public void propagateDownstreamException()
+    {
+        RecordingPageOutput downstream = new RecordingPageOutput();
+        downstream.failOnAdd = true;
+        AsyncPageOutput output = new AsyncPageOutput(downstream, 1);
+        try {
+            for (Page page : pages(5)) {
+                output.add(page);
+            }
+            output.finish();
+            fail();
+        }
+        catch (IllegalStateException ex) {
+            assertEquals("downstream failure", ex.getMessage());
+        }
+        finally {
+            output.close();
+        }
+        assertTrue(downstream.closed);
+    }
+}
@@ -0,0 +1,93 @@
+package org.embulk.filter.column;
+
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.spi.Column;
+import org.embulk.spi.Schema;
+import org.embulk.spi.time.Timestamp;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.embulk.spi.type.Types.DOUBLE;
+import static org.embulk.spi.type.Types.LONG;
+import static org.embulk.spi.type.Types.STRING;
+import static org.embulk.spi.type.Types.TIMESTAMP;
+import static org.junit.Assert.assertEquals;
+
+public class TestColumnStats
+{
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    @Test
+    public void add_Long()
+    {
+        ColumnStats stats = new ColumnStats(new Column(0, "l", LONG));
+        stats.addLong(3L);
+        stats.addNull();
+        stats.addLong(-1L);
+        stats.addLong(3L);
+        assertEquals(4L, stats.getCount());
+        assertEquals(1L, stats.getNullCount());
+        assertEquals(2L, stats.getDistinctCount());
+        assertEquals("{\"name\":\"l\",\"type\":\"long\",\"count\":4,\"null_count\":1,\"distinct_count\":2,\"min\":-1,\"max\":3}",
+                stats.toValue().toJson());
+    }
+
+    @Test
+    public void add_String()
+    {
+        ColumnStats stats = new ColumnStats(new Column(0, "s", STRING));
+        stats.addString("a");
+        stats.addString("\u3042\u3044");
+        assertEquals(2L, stats.getDistinctCount());
+        assertEquals(6L, stats.getMaxBytes());
+        assertEquals("{\"name\":\"s\",\"type\":\"string\",\"count\":2,\"null_count\":0,\"distinct_count\":2,\"max_bytes\":6}",
+                stats.toValue().toJson());
+    }
+
+    @Test
+    public void merge()
+    {
+        ColumnStats a = new ColumnStats(new Column(0, "d", DOUBLE));
+        ColumnStats b = new ColumnStats(new Column(0, "d", DOUBLE));
+        ColumnStats c = new ColumnStats(new Column(0, "d", DOUBLE));
+        a.addDouble(1.5);
+        b.addDouble(-2.5);
+        b.addNull();
+        c.addNull();
+        a.merge(b);
+        a.merge(c);
+        assertEquals("{\"name\":\"d\",\"type\":\"double\",\"count\":4,\"null_count\":2,\"distinct_count\":2,\"min\":-2.5,\"max\":1.5}",
+                a.toValue().toJson());
+    }
+
+    @Test
+    public void collect()
+    {
+        Schema schema = Schema.builder().add("t", TIMESTAMP).build();
+        ColumnStats[] first = new ColumnStats[] {new ColumnStats(schema.getColumn(0))};
+        ColumnStats[] second = new ColumnStats[] {new ColumnStats(schema.getColumn(0))};
+        first[0].addTimestamp(Timestamp.ofEpochSecond(10));
+        second[0].addTimestamp(Timestamp.ofEpochSecond(5));
+        second[0].addTimestamp(Timestamp.ofEpochSecond(20));
+        ColumnStats.publish("run", first);
+        ColumnStats.publish("run", second);
+
+        ColumnStats[] merged = ColumnStats.collect("run", schema);
+        assertEquals(3L, merged[0].getCount());
+        assertEquals(3L, merged[0].getDistinctCount());
+        assertEquals(0L, ColumnStats.collect("run", schema)[0].getCount());
+    }
+
+    @Test
+    public void forget()
+    {
+        Schema schema = Schema.builder().add("t", TIMESTAMP).build();
+        ColumnStats[] stats = new ColumnStats[] {new ColumnStats(schema.getColumn(0))};
+        stats[0].addTimestamp(Timestamp.ofEpochSecond(10));
+        ColumnStats.publish("failed", stats);
+
+        ColumnStats.forget("failed");
+        assertEquals(0L, ColumnStats.collect("failed", schema)[0].getCount());
+    }
+}
@@ -4,6 +4,7 @@ import org.embulk.EmbulkTestRuntime;
 import org.embulk.config.ConfigLoader;
 import org.embulk.config.ConfigSource;
 import org.embulk.filter.column.ColumnFilterPlugin.PluginTask;
+import org.embulk.spi.DataException;
 import org.embulk.spi.Exec;
 import org.embulk.spi.Page;
 import org.embulk.spi.PageBuilder;
@@ -25,6 +26,9 @@ import static org.embulk.spi.type.Types.LONG;
 import static org.embulk.spi.type.Types.STRING;
 import static org.embulk.spi.type.Types.TIMESTAMP;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.util.List;
 
@@ -33,6 +37,8 @@ public class TestColumnVisitorImpl
     @Rule
     public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
 
+    private StatsPageBuilder statsPageBuilder; // of the last filter() with stats: true
+
     @Before
     public void createResource()
     {
@@ -56,21 +62,38 @@ public class TestColumnVisitorImpl
         return config.loadConfig(PluginTask.class);
     }
 
+    // same with PageOutput#add of ColumnFilterPlugin
     private List<Object[]> filter(PluginTask task, Schema inputSchema, Object ... objects)
     {
         MockPageOutput output = new MockPageOutput();
         Schema outputSchema = ColumnFilterPlugin.buildOutputSchema(task, inputSchema);
-        PageBuilder pageBuilder = new PageBuilder(runtime.getBufferAllocator(), outputSchema, output);
+        PageBuilder pageBuilder = task.getStats() ?
+                (statsPageBuilder = new StatsPageBuilder(runtime.getBufferAllocator(), outputSchema, output, task.getRunId())) :
+                new PageBuilder(runtime.getBufferAllocator(), outputSchema, output);
         PageReader pageReader = new PageReader(inputSchema);
         ColumnVisitorImpl visitor = new ColumnVisitorImpl(task, inputSchema, outputSchema, pageReader, pageBuilder);
+        RecordFilter[] recordFilters = ColumnFilterPlugin.buildRecordFilters(task, inputSchema);
+        DedupeFilter dedupe = DedupeFilter.of(recordFilters);
 
         List<Page> pages = PageTestUtils.buildPage(runtime.getBufferAllocator(), inputSchema, objects);
         for (Page page : pages) {
             pageReader.setPage(page);
+            visitor.startPage();
 
             while (pageReader.nextRecord()) {
-                outputSchema.visitColumns(visitor);
-                pageBuilder.addRecord();
+                boolean accepted = true;
+                for (RecordFilter recordFilter : recordFilters) {
+                    accepted = accepted && recordFilter.accept(pageReader);
+                }
+                if (! accepted) {
+                    continue;
+                }
+                if (visitor.visitRecord()) {
+                    if (dedupe != null) {
+                        dedupe.add(dedupe.getLastHash());
+                    }
+                    pageBuilder.addRecord();
+                }
             }
         }
         pageBuilder.finish();
@@ -289,4 +312,376 @@ public class TestColumnVisitorImpl
             assertEquals("src", record[1]);
         }
     }
+
+    @Test
+    public void visit_AddColumns_WithExpr()
+    {
+        PluginTask task = taskFromYamlString(
+                "type: column",
+                "add_columns:",
+                "  - {name: full_name, expr: \"concat(first, ' ', last)\"}",
+                "  - {name: total, expr: \"price * quantity\"}",
+                "  - {name: grade, expr: \"case when price >= 100 then 'high' else 'low' end\"}",
+                "  - {name: last_upper, expr: \"upper(last)\", default: \"-\"}");
+        Schema inputSchema = Schema.builder()
+                .add("first", STRING)
+                .add("last", STRING)
+                .add("price", LONG)
+                .add("quantity", LONG)
+                .build();
+        List<Object[]> records = filter(task, inputSchema,
+                "John", "Doe", Long.valueOf(100), Long.valueOf(3),
+                "Jane", null, null, Long.valueOf(1));
+
+        assertEquals(2, records.size());
+
+        Object[] record;
+        {
+            record = records.get(0);
+            assertEquals(8, record.length);
+            assertEquals("John Doe", record[4]);
+            assertEquals(300L, record[5]);
+            assertEquals("high", record[6]);
+            assertEquals("DOE", record[7]);
+        }
+        {
+            record = records.get(1);
+            assertEquals("Jane ", record[4]);
+            assertEquals(null, record[5]);
+            assertEquals("low", record[6]);
+            assertEquals("-", record[7]);
+        }
+    }
+
+    @Test
+    public void visit_AddColumns_WithGenerator()
+    {
+        PluginTask task = taskFromYamlString(
+                "type: column",
+                "sequence_block_size: 2",
+                "add_columns:",
+                "  - {name: seq, generator: sequence}",
+                "  - {name: row, generator: row_number}");
+        Schema inputSchema = Schema.builder()
+                .add("string", STRING)
+                .build();
+        List<Object[]> records = filter(task, inputSchema,
+                "a", "b", "c");
+
+        assertEquals(3, records.size());
+        for (int i = 0; i < 3; i++) {
+            Object[] record = records.get(i);
+            assertEquals(3, record.length);
+            assertEquals(Long.valueOf(i + 1), record[1]);
+            assertEquals(Long.valueOf(i + 1), record[2]);
+        }
+    }
+
+    @Test
+    public void visit_AddColumns_WithDynamicTimestampDefault()
+    {
+        PluginTask task = taskFromYamlString(
+                "type: column",
+                "add_columns:",
+                "  - {name: now, type: timestamp, default: now}",
+                "  - {name: transaction_time, type: timestamp, default: transaction_time}",
+                "  - {name: task_start, type: timestamp, default: task_start}");
+        Schema inputSchema = Schema.builder()
+                .add("string", STRING)
+                .build();
+        long before = System.currentTimeMillis();
+        List<Object[]> records = filter(task, inputSchema,
+                "a", "b");
+        long after = System.currentTimeMillis();
+
+        assertEquals(2, records.size());
+        Object[] first = records.get(0);
+        Object[] second = records.get(1);
+        long now = ((Timestamp) first[1]).toEpochMilli();
+        assertTrue(before <= now && now <= after);
+        assertEquals(first[1], second[1]); // evaluated once for a page
+        assertEquals(Exec.getTransactionTime(), first[2]);
+        assertEquals(first[3], second[3]);
+        assertTrue(((Timestamp) first[3]).toEpochMilli() <= now);
+    }
+
+    @Test
+    public void visit_OnError()
+    {
+        Schema inputSchema = Schema.builder()
+                .add("json", JSON)
+                .build();
+        Object[] objects = new Object[] {
+            ValueFactory.newMap(ValueFactory.newString("a"), ValueFactory.newInteger(1), ValueFactory.newString("b"), ValueFactory.newInteger(2)),
+            ValueFactory.newMap(ValueFactory.newInteger(1), ValueFactory.newString("non-string key")),
+        };
+
+        PluginTask skip = taskFromYamlString(
+                "type: column",
+                "on_error: skip",
+                "drop_columns:",
+                "  - {name: $.json.a}");
+        List<Object[]> records = filter(skip, inputSchema, objects);
+        assertEquals(1, records.size());
+        assertEquals("{\"b\":2}", records.get(0)[0].toString());
+
+        PluginTask setNull = taskFromYamlString(
+                "type: column",
+                "on_error: \"null\"",
+                "drop_columns:",
+                "  - {name: $.json.a}");
+        records = filter(setNull, inputSchema, objects);
+        assertEquals(2, records.size());
+        assertEquals(null, records.get(1)[0]);
+    }
+
+    @Test
+    public void visit_OnErrorSkip_WithStatsAndRowNumber()
+    {
+        PluginTask task = taskFromYamlString(
+                "type: column",
+                "stats: true",
+                "on_error: skip",
+                "drop_columns:",
+                "  - {name: $.json.a}",
+                "add_columns:",
+                "  - {name: row, generator: row_number}");
+        Schema inputSchema = Schema.builder()
+                .add("json", JSON)
+                .build();
+        List<Object[]> records = filter(task, inputSchema,
+                ValueFactory.newMap(ValueFactory.newString("b"), ValueFactory.newInteger(1)),
+                ValueFactory.newMap(ValueFactory.newInteger(1), ValueFactory.newString("non-string key")),
+                ValueFactory.newMap(ValueFactory.newString("b"), ValueFactory.newInteger(2)));
+
+        // the skipped record is neither counted by stats nor numbered
+        assertEquals(2, records.size());
+        assertEquals(Long.valueOf(1), records.get(0)[1]);
+        assertEquals(Long.valueOf(2), records.get(1)[1]);
+        ColumnStats[] stats = statsPageBuilder.getStats();
+        assertEquals(2L, stats[0].getCount());
+        assertEquals(0L, stats[0].getNullCount());
+        assertEquals(2L, stats[0].getDistinctCount());
+        assertEquals(2L, stats[1].getCount());
+    }
+
+    @Test
+    public void visit_OnOverflowSkip_WithStatsAndRowNumber()
+    {
+        PluginTask task = taskFromYamlString(
+                "type: column",
+                "stats: true",
+                "columns:",
+                "  - {name: string, max_bytes: 3, on_overflow: skip}",
+                "add_columns:",
+                "  - {name: row, generator: row_number}");
+        Schema inputSchema = Schema.builder()
+                .add("string", STRING)
+                .build();
+        List<Object[]> records = filter(task, inputSchema,
+                "abc", "abcdef", "xyz", null);
+
+        // the skipped record is neither counted by stats nor numbered
+        assertEquals(3, records.size());
+        assertEquals("abc", records.get(0)[0]);
+        assertEquals(Long.valueOf(1), records.get(0)[1]);
+        assertEquals("xyz", records.get(1)[0]);
+        assertEquals(Long.valueOf(2), records.get(1)[1]);
+        assertEquals(Long.valueOf(3), records.get(2)[1]);
+        ColumnStats[] stats = statsPageBuilder.getStats();
+        assertEquals(3L, stats[0].getCount());
+        assertEquals(1L, stats[0].getNullCount());
+        assertEquals(3L, stats[0].getMaxBytes());
+        assertEquals(3L, stats[1].getCount());
+    }
+
+    @Test
+    public void visit_Dedupe_AfterOverflowSkip()
+    {
+        PluginTask task = taskFromYamlString(
+                "type: column",
+                "dedupe_keys: [id]",
+                "columns:",
+                "  - {name: id}",
+                "  - {name: string, max_bytes: 3, on_overflow: skip}");
+        Schema inputSchema = Schema.builder()
+                .add("id", LONG)
+                .add("string", STRING)
+                .build();
+        List<Object[]> records = filter(task, inputSchema,
+                new Long(1), "abcdef",
+                new Long(1), "abc",
+                new Long(1), "xyz");
+
+        // the key of the skipped record is not remembered
+        assertEquals(1, records.size());
+        assertEquals("abc", records.get(0)[1]);
+    }
+
+    @Test(expected = DataException.class)
+    public void visit_OnErrorFail()
+    {
+        PluginTask task = taskFromYamlString(
+                "type: column",
+                "drop_columns:",
+                "  - {name: $.json.a}");
+        Schema inputSchema = Schema.builder()
+                .add("json", JSON)
+                .build();
+        filter(task, inputSchema, ValueFactory.newMap(ValueFactory.newInteger(1), ValueFactory.newString("non-string key")));
+    }
+
+    @Test
+    public void visit_OnErrorFail_Cause()
+    {
+        Schema inputSchema = Schema.builder()
+                .add("json", JSON)
+                .build();
+        PluginTask coerce = taskFromYamlString(
+                "type: column",
+                "on_coerce_error: error",
+                "columns:",
+                "  - {name: json}",
+                "  - {name: \"$.json.k\", type: long}");
+        try {
+            filter(coerce, inputSchema, ValueFactory.newMap(ValueFactory.newString("k"), ValueFactory.newString("abc")));
+            fail();
+        }
+        catch (DataException ex) {
+            assertEquals("type: json value of '$.json' is malformed: '$.json.k' can not be coerced into type: long", ex.getMessage());
+        }
+
+        PluginTask key = taskFromYamlString(
+                "type: column",
+                "drop_columns:",
+                "  - {name: $.json.a}");
+        try {
+            filter(key, inputSchema, ValueFactory.newMap(ValueFactory.newInteger(1), ValueFactory.newString("non-string key")));
+            fail();
+        }
+        catch (DataException ex) {
+            assertEquals("type: json value of '$.json' is malformed: '$.json' has a map key which is not a string: 1", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void visit_MaxBytes()
+    {
+        Schema inputSchema = Schema.builder()
+                .add("string", STRING)
+                .add("json", JSON)
+                .build();
+        Object[] objects = new Object[] {
+            "abc", ValueFactory.newArray(ValueFactory.newInteger(1)),
+            "abcdef", ValueFactory.newArray(ValueFactory.newInteger(1), ValueFactory.newInteger(2), ValueFactory.newInteger(3)),
+        };
+
+        PluginTask truncate = taskFromYamlString(
+                "type: column",
+                "columns:",
+                "  - {name: string, max_bytes: 4}",
+                "  - {name: json, max_bytes: 5}");
+        List<Object[]> records = filter(truncate, inputSchema, objects);
+        assertEquals(2, records.size());
+        assertEquals("abc", records.get(0)[0]);
+        assertEquals("[1]", records.get(0)[1].toString());
+        assertEquals("abcd", records.get(1)[0]);
+        assertEquals("[1,2]", records.get(1)[1].toString());
+
+        PluginTask setNull = taskFromYamlString(
+                "type: column",
+                "columns:",
+                "  - {name: string, max_bytes: 4, on_overflow: \"null\", default: x, type: string}",
+                "  - {name: json}");
+        records = filter(setNull, inputSchema, objects);
+        assertEquals(2, records.size());
+        assertEquals("abc", records.get(0)[0]);
+        assertEquals(null, records.get(1)[0]);
+
+        PluginTask skip = taskFromYamlString(
+                "type: column",
+                "columns:",
+                "  - {name: string}",
+                "  - {name: json, max_depth: 1, on_overflow: skip}");
+        records = filter(skip, inputSchema, objects[0], objects[1],
+                "x", ValueFactory.newArray(ValueFactory.newArray()));
+        assertEquals(1, records.size());
+        assertEquals("abc", records.get(0)[0]);
+    }
+
+    @Test
+    public void visit_ToTimeZone()
+    {
+        PluginTask task = taskFromYamlString(
+                "type: column",
+                "columns:",
+                "  - {name: timestamp, to_timezone: Asia/Tokyo}",
+                "  - {name: local, src: timestamp, type: string, to_timezone: Asia/Tokyo, format: \"%Y-%m-%d %H:%M:%S %z\"}",
+                "  - {name: missing, src: timestamp, type: string, default: none, to_timezone: Asia/Tokyo}");
+        Schema inputSchema = Schema.builder()
+                .add("timestamp", TIMESTAMP)
+                .build();
+        List<Object[]> records = filter(task, inputSchema, Timestamp.ofEpochSecond(1436745600), null);
+
+        assertEquals(2, records.size());
+        assertEquals(Timestamp.ofEpochSecond(1436745600 + 9 * 3600), records.get(0)[0]);
+        assertEquals("2015-07-13 09:00:00 +0900", records.get(0)[1]);
+        assertEquals(null, records.get(1)[0]);
+        assertEquals(null, records.get(1)[1]);
+        assertEquals("none", records.get(1)[2]);
+    }
+
+    @Test
+    public void visit_Fingerprint()
+    {
+        PluginTask task = taskFromYamlString(
+                "type: column",
+                "add_columns:",
+                "  - {name: fingerprint, generator: fingerprint, keys: [id, name]}");
+        Schema inputSchema = Schema.builder()
+                .add("id", LONG)
+                .add("name", STRING)
+                .add("other", STRING)
+                .build();
+        List<Object[]> records = filter(task, inputSchema,
+                new Long(1), "a", "x",
+                new Long(1), "a", "y",
+                new Long(1), "b", "x",
+                new Long(1), null, "x");
+
+        assertEquals(4, records.size());
+        assertEquals(4, records.get(0).length);
+        assertEquals(records.get(0)[3], records.get(1)[3]); // other is not a key
+        assertNotEquals(records.get(0)[3], records.get(2)[3]);
+        assertNotEquals(records.get(0)[3], records.get(3)[3]);
+        assertNotEquals(records.get(2)[3], records.get(3)[3]);
+    }
+
+    @Test
+    public void visit_JsonText()
+    {
+        PluginTask task = taskFromYamlString(
+                "type: column",
+                "on_error: \"null\"",
+                "columns:",
+                "  - {name: text}",
+                "  - {name: json, src: text, type: json, default: \"{}\"}",
+                "  - {name: \"$.text.a\"}",
+                "  - {name: \"$.json.b\"}");
+        Schema inputSchema = Schema.builder()
+                .add("text", STRING)
+                .build();
+        List<Object[]> records = filter(task, inputSchema,
+                "{\"a\": 1, \"b\": [2]}",
+                "not json",
+                null);
+
+        assertEquals(3, records.size());
+        assertEquals("{\"a\":1}", records.get(0)[0]);
+        assertEquals("{\"b\":[2]}", records.get(0)[1].toString());
+        assertEquals(null, records.get(1)[0]);
+        assertEquals("{\"b\":null}", records.get(1)[1].toString()); // default
+        assertEquals(null, records.get(2)[0]);
+        assertEquals("{\"b\":null}", records.get(2)[1].toString());
+    }
 }
@@ -0,0 +1,291 @@
+package org.embulk.filter.column;
+
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.config.ConfigLoader;
+import org.embulk.config.ConfigSource;
+import org.embulk.filter.column.ColumnFilterPlugin.PluginTask;
+import org.embulk.spi.Exec;
+import org.embulk.spi.Page;
+import org.embulk.spi.PageBuilder;
+import org.embulk.spi.PageReader;
+import org.embulk.spi.PageTestUtils;
+import org.embulk.spi.Schema;
+import org.embulk.spi.TestPageBuilderReader.MockPageOutput;
+import org.embulk.spi.time.Timestamp;
+import org.embulk.spi.util.Pages;
+import org.junit.Rule;
+import org.junit.Test;
+import org.msgpack.value.ValueFactory;
+
+import static org.embulk.spi.type.Types.BOOLEAN;
+import static org.embulk.spi.type.Types.DOUBLE;
+import static org.embulk.spi.type.Types.JSON;
+import static org.embulk.spi.type.Types.LONG;
+import static org.embulk.spi.type.Types.STRING;
+import static org.embulk.spi.type.Types.TIMESTAMP;
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+public class TestColumnarPageProcessor
+{
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    private StatsPageBuilder statsPageBuilder; // of the last filter() with stats: true
+
+    private PluginTask taskFromYamlString(String... lines)
+    {
+        StringBuilder builder = new StringBuilder();
+        for (String line : lines) {
+            builder.append(line).append("\n");
+        }
+        String yamlString = builder.toString();
+
+        ConfigLoader loader = new ConfigLoader(Exec.getModelManager());
+        ConfigSource config = loader.fromYamlString(yamlString);
+        return config.loadConfig(PluginTask.class);
+    }
+
+    private List<Object[]> filter(PluginTask task, Schema inputSchema, Object ... objects)
+    {
+        MockPageOutput output = new MockPageOutput();
+        Schema outputSchema = ColumnFilterPlugin.buildOutputSchema(task, inputSchema);
+        PageBuilder pageBuilder = task.getStats() ?
+                (statsPageBuilder = new StatsPageBuilder(runtime.getBufferAllocator(), outputSchema, output, task.getRunId())) :
+                new PageBuilder(runtime.getBufferAllocator(), outputSchema, output);
+        PageReader pageReader = new PageReader(inputSchema);
+        ColumnVisitorImpl visitor = new ColumnVisitorImpl(task, inputSchema, outputSchema, pageReader, pageBuilder);
+        ColumnarPageProcessor processor = new ColumnarPageProcessor(outputSchema, visitor, ColumnFilterPlugin.buildRecordFilters(task, inputSchema),
+                ColumnFilterPlugin.buildExploder(task, inputSchema, outputSchema));
+
+        List<Page> pages = PageTestUtils.buildPage(runtime.getBufferAllocator(), inputSchema, objects);
+        for (Page page : pages) {
+            pageReader.setPage(page);
+            processor.process(pageReader, pageBuilder);
+        }
+        pageBuilder.finish();
+        pageBuilder.close();
+        return Pages.toObjects(outputSchema, output.pages);
+    }
+
+    @Test
+    public void process_Columns_WithDefault()
+    {
+        PluginTask task = taskFromYamlString(
+                "type: column",
+                "engine: columnar",
+                "columns:",
+                "  - {name: timestamp, type: timestamp, default: 2015-07-13, format: \"%Y-%m-%d\", timezone: UTC}",
+                "  - {name: string, type: string, default: string}",
+                "  - {name: boolean, type: boolean, default: true}",
+                "  - {name: long, type: long, default: 0}",
+                "  - {name: double, type: double, default: 0.5}",
+                "  - {name: json, type: json, default: \"{\\\"foo\\\":\\\"bar\\\"}\" }",
+                "  - {name: copy, src: long}");
+        Schema inputSchema = Schema.builder()
+                .add("timestamp", TIMESTAMP)
+                .add("string", STRING)
+                .add("boolean", BOOLEAN)
+                .add("long", LONG)
+                .add("double", DOUBLE)
+                .add("json", JSON)
+                .add("remove_me", STRING)
+                .build();
+        List<Object[]> records = filter(task, inputSchema,
+                Timestamp.ofEpochSecond(0), "s", new Boolean(false), new Long(1), new Double(1.5), ValueFactory.newString("json"), "remove_me",
+                null, null, null, null, null, null, "remove_me");
+
+        assertEquals(2, records.size());
+
+        Object[] record;
+        {
+            record = records.get(0);
+            assertEquals(7, record.length);
+            assertEquals(Timestamp.ofEpochSecond(0), record[0]);
+            assertEquals("s", record[1]);
+            assertEquals(new Boolean(false), record[2]);
+            assertEquals(new Long(1), record[3]);
+            assertEquals(new Double(1.5), record[4]);
+            assertEquals(ValueFactory.newString("json"), record[5]);
+            assertEquals(new Long(1), record[6]);
+        }
+        {
+            record = records.get(1);
+            assertEquals(7, record.length);
+            assertEquals(Timestamp.ofEpochSecond(1436745600), record[0]);
+            assertEquals("string", record[1]);
+            assertEquals(new Boolean(true), record[2]);
+            assertEquals(new Long(0), record[3]);
+            assertEquals(new Double(0.5), record[4]);
+            assertEquals("{\"foo\":\"bar\"}", record[5].toString());
+            assertEquals(null, record[6]);
+        }
+    }
+
+    @Test
+    public void process_JsonPath()
+    {
+        PluginTask task = taskFromYamlString(
+                "type: column",
+                "engine: columnar",
+                "drop_columns:",
+                "  - {name: $.json.k2}");
+        Schema inputSchema = Schema.builder()
+                .add("long", LONG)
+                .add("json", JSON)
+                .build();
+        List<Object[]> records = filter(task, inputSchema,
+                new Long(1), ValueFactory.newMap(
+                        ValueFactory.newString("k1"), ValueFactory.newString("v"),
+                        ValueFactory.newString("k2"), ValueFactory.newString("v")));
+
+        assertEquals(1, records.size());
+        assertEquals(new Long(1), records.get(0)[0]);
+        assertEquals("{\"k1\":\"v\"}", records.get(0)[1].toString());
+    }
+
+    @Test
+    public void process_OnErrorSkip_WithStatsAndRowNumber()
+    {
+        PluginTask task = taskFromYamlString(
+                "type: column",
+                "engine: columnar",
+                "stats: true",
+                "on_error: skip",
+                "drop_columns:",
+                "  - {name: $.json.a}",
+                "add_columns:",
+                "  - {name: row, generator: row_number}");
+        Schema inputSchema = Schema.builder()
+                .add("json", JSON)
+                .build();
+        List<Object[]> records = filter(task, inputSchema,
+                ValueFactory.newMap(ValueFactory.newString("b"), ValueFactory.newInteger(1)),
+                ValueFactory.newMap(ValueFactory.newInteger(1), ValueFactory.newString("non-string key")),
+                ValueFactory.newMap(ValueFactory.newString("b"), ValueFactory.newInteger(2)));
+
+        // the skipped record is neither counted by stats nor numbered
+        assertEquals(2, records.size());
+        assertEquals(Long.valueOf(1), records.get(0)[1]);
+        assertEquals(Long.valueOf(2), records.get(1)[1]);
+        ColumnStats[] stats = statsPageBuilder.getStats();
+        assertEquals(2L, stats[0].getCount());
+        assertEquals(0L, stats[0].getNullCount());
+        assertEquals(2L, stats[0].getDistinctCount());
+        assertEquals(2L, stats[1].getCount());
+    }
+
+    @Test
+    public void process_OnOverflowSkip_WithStatsAndRowNumber()
+    {
+        PluginTask task = taskFromYamlString(
+                "type: column",
+                "engine: columnar",
+                "stats: true",
+                "columns:",
+                "  - {name: string, max_bytes: 3, on_overflow: skip}",
+                "add_columns:",
+                "  - {name: row, generator: row_number}");
+        Schema inputSchema = Schema.builder()
+                .add("string", STRING)
+                .build();
+        List<Object[]> records = filter(task, inputSchema,
+                "abc", "abcdef", "xyz", null);
+
+        // the skipped record is neither counted by stats nor numbered
+        assertEquals(3, records.size());
+        assertEquals("abc", records.get(0)[0]);
+        assertEquals(Long.valueOf(1), records.get(0)[1]);
+        assertEquals("xyz", records.get(1)[0]);
+        assertEquals(Long.valueOf(2), records.get(1)[1]);
+        assertEquals(Long.valueOf(3), records.get(2)[1]);
+        ColumnStats[] stats = statsPageBuilder.getStats();
+        assertEquals(3L, stats[0].getCount());
+        assertEquals(1L, stats[0].getNullCount());
+        assertEquals(3L, stats[0].getMaxBytes());
+        assertEquals(3L, stats[1].getCount());
+    }
+
+    @Test
+    public void process_Dedupe_AfterOverflowSkip()
+    {
+        PluginTask task = taskFromYamlString(
+                "type: column",
+                "engine: columnar",
+                "dedupe_keys: [id]",
+                "columns:",
+                "  - {name: id}",
+                "  - {name: string, max_bytes: 3, on_overflow: skip}");
+        Schema inputSchema = Schema.builder()
+                .add("id", LONG)
+                .add("string", STRING)
+                .build();
+        List<Object[]> records = filter(task, inputSchema,
+                new Long(1), "abcdef",
+                new Long(1), "abc",
+                new Long(1), "xyz");
+
+        // the key of the skipped record is not remembered
+        assertEquals(1, records.size());
+        assertEquals("abc", records.get(0)[1]);
+    }
+
+    @Test
+    public void process_Explode()
+    {
+        PluginTask task = taskFromYamlString(
+                "type: column",
+                "columns:",
+                "  - {name: id}",
+                "explode: \"$.payload.items[*]\"",
+                "explode_index: item_index");
+        Schema inputSchema = Schema.builder()
+                .add("id", LONG)
+                .add("payload", JSON)
+                .build();
+        List<Object[]> records = filter(task, inputSchema,
+                new Long(1), ValueFactory.newMap(ValueFactory.newString("items"), ValueFactory.newArray(ValueFactory.newString("a"), ValueFactory.newString("b"))),
+                new Long(2), ValueFactory.newMap(ValueFactory.newString("items"), ValueFactory.newArray()),
+                new Long(3), null,
+                new Long(4), ValueFactory.newMap(ValueFactory.newString("items"), ValueFactory.newArray(ValueFactory.newString("c"))));
+
+        assertEquals(3, records.size());
+        assertEquals(3, records.get(0).length);
+        assertEquals(new Long(1), records.get(0)[0]);
+        assertEquals(ValueFactory.newString("a"), records.get(0)[1]);
+        assertEquals(new Long(0), records.get(0)[2]);
+        assertEquals(new Long(1), records.get(1)[0]);
+        assertEquals(ValueFactory.newString("b"), records.get(1)[1]);
+        assertEquals(new Long(1), records.get(1)[2]);
+        assertEquals(new Long(4), records.get(2)[0]);
+        assertEquals(ValueFactory.newString("c"), records.get(2)[1]);
+        assertEquals(new Long(0), records.get(2)[2]);
+    }
+
+    @Test
+    public void process_Explode_WithGenerator()
+    {
+        PluginTask task = taskFromYamlString(
+                "type: column",
+                "columns:",
+                "  - {name: id}",
+                "  - {name: seq, generator: sequence}",
+                "  - {name: row, generator: row_number}",
+                "explode: \"$.payload.items[*]\"");
+        Schema inputSchema = Schema.builder()
+                .add("id", LONG)
+                .add("payload", JSON)
+                .build();
+        List<Object[]> records = filter(task, inputSchema,
+                new Long(1), ValueFactory.newMap(ValueFactory.newString("items"), ValueFactory.newArray(ValueFactory.newString("a"), ValueFactory.newString("b"))),
+                new Long(2), ValueFactory.newMap(ValueFactory.newString("items"), ValueFactory.newArray(ValueFactory.newString("c"))));
+
+        // each element gets its own numbers
+        assertEquals(3, records.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(Long.valueOf(i + 1), records.get(i)[1]);
+            assertEquals(Long.valueOf(i + 1), records.get(i)[2]);
+        }
+    }
+}
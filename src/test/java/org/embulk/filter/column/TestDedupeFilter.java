@@ -0,0 +1,124 @@
+package org.embulk.filter.column;
+
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.config.ConfigException;
+import org.embulk.config.ConfigLoader;
+import org.embulk.config.ConfigSource;
+import org.embulk.filter.column.ColumnFilterPlugin.PluginTask;
+import org.embulk.spi.DataException;
+import org.embulk.spi.Exec;
+import org.embulk.spi.Page;
+import org.embulk.spi.PageReader;
+import org.embulk.spi.PageTestUtils;
+import org.embulk.spi.Schema;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.embulk.spi.type.Types.LONG;
+import static org.embulk.spi.type.Types.STRING;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestDedupeFilter
+{
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    private PluginTask taskFromYamlString(String... lines)
+    {
+        StringBuilder builder = new StringBuilder();
+        for (String line : lines) {
+            builder.append(line).append("\n");
+        }
+        String yamlString = builder.toString();
+
+        ConfigLoader loader = new ConfigLoader(Exec.getModelManager());
+        ConfigSource config = loader.fromYamlString(yamlString);
+        return config.loadConfig(PluginTask.class);
+    }
+
+    private List<Long> dedupe(PluginTask task, int size)
+    {
+        Schema inputSchema = Schema.builder()
+                .add("id", LONG)
+                .add("name", STRING)
+                .build();
+        Object[] objects = new Object[size * 2];
+        for (int i = 0; i < size; i++) {
+            objects[i * 2] = new Long(i);
+            objects[i * 2 + 1] = "name" + (i % 10);
+        }
+        DedupeFilter filter = new DedupeFilter(task, inputSchema);
+        PageReader pageReader = new PageReader(inputSchema);
+        List<Long> accepted = new ArrayList<>();
+        for (Page page : PageTestUtils.buildPage(runtime.getBufferAllocator(), inputSchema, objects)) {
+            pageReader.setPage(page);
+            while (pageReader.nextRecord()) {
+                if (filter.accept(pageReader)) {
+                    filter.add(filter.getLastHash()); // emitted
+                    accepted.add(pageReader.getLong(inputSchema.getColumn(0)));
+                }
+            }
+        }
+        return accepted;
+    }
+
+    @Test
+    public void accept_Bloom()
+    {
+        List<Long> accepted = dedupe(taskFromYamlString("type: column", "dedupe_keys: [name]"), 1000);
+        assertEquals(10, accepted.size());
+        assertEquals(new Long(0), accepted.get(0));
+        assertEquals(new Long(9), accepted.get(9));
+
+        assertEquals(1000, dedupe(taskFromYamlString("type: column", "dedupe_keys: [id, name]"), 1000).size());
+    }
+
+    @Test
+    public void accept_Exact()
+    {
+        PluginTask task = taskFromYamlString("type: column", "dedupe_keys: [name]", "dedupe_method: exact");
+        assertEquals(10, dedupe(task, 1000).size());
+        task = taskFromYamlString("type: column", "dedupe_keys: [id]", "dedupe_method: exact");
+        assertEquals(5000, dedupe(task, 5000).size()); // grows the set
+    }
+
+    @Test
+    public void accept_NotRemembered()
+    {
+        for (String method : new String[] {"bloom", "exact"}) {
+            DedupeFilter filter = new DedupeFilter(taskFromYamlString("type: column", "dedupe_keys: [id]", "dedupe_method: " + method),
+                    Schema.builder().add("id", LONG).build());
+            assertFalse(filter.contains(42L));
+            assertTrue(filter.add(42L));
+            assertTrue(filter.contains(42L));
+            assertFalse(filter.add(42L));
+        }
+    }
+
+    @Test(expected = DataException.class)
+    public void accept_ExactExceedsMemory()
+    {
+        // 1MB holds 131072 slots at half load
+        dedupe(taskFromYamlString("type: column", "dedupe_keys: [id]", "dedupe_method: exact", "dedupe_max_memory_mb: 1"), 70000);
+    }
+
+    @Test
+    public void bloomSize()
+    {
+        long bits = DedupeFilter.bloomBits(1000000, 0.01, 64L * 1024 * 1024);
+        assertTrue(9500000 < bits && bits < 9700000); // about 9.6 bits per key
+        assertEquals(7, DedupeFilter.bloomHashes(1000000, bits));
+        assertEquals(8L * 1024 * 1024, DedupeFilter.bloomBits(100000000, 0.01, 1024 * 1024)); // capped by the memory
+    }
+
+    @Test(expected = ConfigException.class)
+    public void unsupportedMethod()
+    {
+        dedupe(taskFromYamlString("type: column", "dedupe_keys: [id]", "dedupe_method: cuckoo"), 1);
+    }
+}
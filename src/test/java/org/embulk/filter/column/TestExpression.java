@@ -0,0 +1,149 @@
+package org.embulk.filter.column;
+
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.config.ConfigException;
+import org.embulk.spi.Page;
+import org.embulk.spi.PageReader;
+import org.embulk.spi.PageTestUtils;
+import org.embulk.spi.Schema;
+import org.embulk.spi.time.Timestamp;
+import org.embulk.spi.type.Types;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.embulk.spi.type.Types.BOOLEAN;
+import static org.embulk.spi.type.Types.DOUBLE;
+import static org.embulk.spi.type.Types.LONG;
+import static org.embulk.spi.type.Types.STRING;
+import static org.embulk.spi.type.Types.TIMESTAMP;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestExpression
+{
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    private final Schema inputSchema = Schema.builder()
+            .add("b", BOOLEAN)
+            .add("l", LONG)
+            .add("d", DOUBLE)
+            .add("s", STRING)
+            .add("t", TIMESTAMP)
+            .add("column name", STRING)
+            .build();
+
+    private List<Object> evaluate(String expr)
+    {
+        Expression expression = Expression.parse(expr, inputSchema);
+        PageReader pageReader = new PageReader(inputSchema);
+        List<Object> values = new ArrayList<>();
+        for (Page page : PageTestUtils.buildPage(runtime.getBufferAllocator(), inputSchema,
+                    Boolean.TRUE, Long.valueOf(7), Double.valueOf(0.5), "Hello", Timestamp.ofEpochSecond(100), "x",
+                    null, null, null, null, null, null)) {
+            pageReader.setPage(page);
+            while (pageReader.nextRecord()) {
+                values.add(expression.evaluate(pageReader));
+            }
+        }
+        return values;
+    }
+
+    private Object first(String expr)
+    {
+        return evaluate(expr).get(0);
+    }
+
+    private Object second(String expr)
+    {
+        return evaluate(expr).get(1);
+    }
+
+    @Test
+    public void parse_Type()
+    {
+        assertEquals(Types.LONG, Expression.parse("l + 1", inputSchema).getType());
+        assertEquals(Types.DOUBLE, Expression.parse("l + d", inputSchema).getType());
+        assertEquals(Types.STRING, Expression.parse("s || l", inputSchema).getType());
+        assertEquals(Types.BOOLEAN, Expression.parse("l > 1 and not b", inputSchema).getType());
+        assertEquals(Types.TIMESTAMP, Expression.parse("t + 60", inputSchema).getType());
+        assertEquals(Types.DOUBLE, Expression.parse("t - t", inputSchema).getType());
+    }
+
+    @Test
+    public void evaluate_Arithmetic()
+    {
+        assertEquals(15L, first("l * 2 + 1"));
+        assertEquals(21L, first("l * (2 + 1)"));
+        assertEquals(3L, first("l / 2"));
+        assertEquals(1L, first("l % 2"));
+        assertEquals(-7L, first("-l"));
+        assertEquals(7.5, first("l + d"));
+        assertEquals(null, first("l / 0"));
+        assertEquals(null, second("l + 1"));
+    }
+
+    @Test
+    public void evaluate_String()
+    {
+        assertEquals("Hello world", first("concat(s, ' ', 'world')"));
+        assertEquals("Hello7", first("s || l"));
+        assertEquals("ell", first("substring(s, 2, 3)"));
+        assertEquals("llo", first("substring(s, 3)"));
+        assertEquals(5L, first("length(s)"));
+        assertEquals("HELLO", first("upper(s)"));
+        assertEquals("it's", first("'it''s'"));
+        assertEquals("x!", first("`column name` || '!'"));
+        assertEquals("-", second("concat(s, '-')"));
+        assertEquals(null, second("s || '-'"));
+    }
+
+    @Test
+    public void evaluate_Conditional()
+    {
+        assertEquals("big", first("case when l > 5 then 'big' when l > 0 then 'small' else 'negative' end"));
+        assertEquals(null, second("case when l > 5 then 'big' end"));
+        assertEquals(1.0, second("coalesce(l, d, 1.0)"));
+        assertEquals(7.0, first("coalesce(l, d, 1.0)"));
+        assertEquals(true, second("s is null"));
+        assertEquals(false, first("s is null"));
+        assertEquals(true, first("s is not null and b"));
+        assertEquals(null, second("l = 1"));
+        assertEquals(true, first("s = 'Hello' or l = 0"));
+    }
+
+    @Test
+    public void evaluate_Timestamp()
+    {
+        assertEquals(Timestamp.ofEpochSecond(160), first("t + 60"));
+        assertEquals(Timestamp.ofEpochSecond(40), first("t - 60"));
+        assertEquals(0.0, first("t - t"));
+        assertEquals(true, first("t + 1 > t"));
+    }
+
+    @Test(expected = ConfigException.class)
+    public void parse_TypeMismatch()
+    {
+        Expression.parse("s + 1", inputSchema);
+    }
+
+    @Test(expected = ConfigException.class)
+    public void parse_UnknownColumn()
+    {
+        Expression.parse("unknown + 1", inputSchema);
+    }
+
+    @Test(expected = ConfigException.class)
+    public void parse_UnknownFunction()
+    {
+        Expression.parse("foo(s)", inputSchema);
+    }
+
+    @Test(expected = ConfigException.class)
+    public void parse_SyntaxError()
+    {
+        Expression.parse("(l + 1", inputSchema);
+    }
+}
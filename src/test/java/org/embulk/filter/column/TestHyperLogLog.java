@@ -0,0 +1,48 @@
+package org.embulk.filter.column;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestHyperLogLog
+{
+    private static void assertEstimate(long expected, long actual)
+    {
+        assertTrue(String.format("expected about %d but %d", expected, actual), Math.abs(actual - expected) <= expected * 0.05);
+    }
+
+    @Test
+    public void estimate()
+    {
+        HyperLogLog hll = new HyperLogLog();
+        assertEquals(0L, hll.estimate());
+        for (long i = 0; i < 100000; i++) {
+            hll.add(XxHash64.hashLong(i % 50000, 0L));
+        }
+        assertEstimate(50000L, hll.estimate());
+    }
+
+    @Test
+    public void estimate_Small()
+    {
+        HyperLogLog hll = new HyperLogLog();
+        for (long i = 0; i < 100; i++) {
+            hll.add(XxHash64.hashLong(i, 0L));
+        }
+        assertEstimate(100L, hll.estimate());
+    }
+
+    @Test
+    public void merge()
+    {
+        HyperLogLog a = new HyperLogLog();
+        HyperLogLog b = new HyperLogLog();
+        for (long i = 0; i < 20000; i++) {
+            a.add(XxHash64.hashLong(i, 0L));
+            b.add(XxHash64.hashLong(i + 10000, 0L));
+        }
+        a.merge(b);
+        assertEstimate(30000L, a.estimate());
+    }
+}
@@ -54,4 +54,13 @@ public class TestJsonColumn
         assertEquals("[0]", JsonColumn.baseName("$.foo[0]"));
         assertEquals("[0]", JsonColumn.baseName("$[0]"));
     }
+
+    @Test
+    public void splitPath()
+    {
+        assertEquals("$.items", JsonColumn.parentPath("$.items[?(@.type == 'a.b')]"));
+        assertEquals("[?(@.type == 'a.b')]", JsonColumn.baseName("$.items[?(@.type == 'a.b')]"));
+        assertEquals("$.items[?(@.x.y == ']')]", JsonColumn.parentPath("$.items[?(@.x.y == ']')].z"));
+        assertEquals("z", JsonColumn.baseName("$.items[?(@.x.y == ']')].z"));
+    }
 }
@@ -0,0 +1,81 @@
+package org.embulk.filter.column;
+
+import org.junit.Test;
+import org.msgpack.value.Value;
+import org.msgpack.value.ValueFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class TestJsonInterner
+{
+    private static Value device(String os, long version)
+    {
+        return ValueFactory.newMap(
+                ValueFactory.newString("os"), ValueFactory.newString(os),
+                ValueFactory.newString("version"), ValueFactory.newInteger(version),
+                ValueFactory.newString("tags"), ValueFactory.newArray(ValueFactory.newString("a"), ValueFactory.newNil()));
+    }
+
+    @Test
+    public void intern()
+    {
+        JsonInterner interner = new JsonInterner(10);
+        Value first = interner.intern(device("android", 9));
+        assertSame(first, interner.intern(device("android", 9)));
+        assertNotSame(first, interner.intern(device("android", 10)));
+        assertEquals(2, interner.size());
+    }
+
+    @Test
+    public void intern_BottomUp()
+    {
+        JsonInterner interner = new JsonInterner(10);
+        Value child = interner.intern(device("android", 9));
+        Value parent = interner.intern(ValueFactory.newArray(child, child));
+        assertSame(parent, interner.intern(ValueFactory.newArray(device("android", 9), device("android", 9))));
+        assertSame(parent, interner.intern(parent));
+        assertEquals(2, interner.size());
+    }
+
+    @Test
+    public void intern_Scalar()
+    {
+        JsonInterner interner = new JsonInterner(10);
+        Value value = ValueFactory.newString("a");
+        assertSame(value, interner.intern(value));
+        assertEquals(null, interner.intern(null));
+        assertEquals(0, interner.size());
+    }
+
+    @Test
+    public void intern_OrderOfMapMatters()
+    {
+        JsonInterner interner = new JsonInterner(10);
+        Value ab = ValueFactory.newMap(ValueFactory.newString("a"), ValueFactory.newInteger(1), ValueFactory.newString("b"), ValueFactory.newInteger(2));
+        Value ba = ValueFactory.newMap(ValueFactory.newString("b"), ValueFactory.newInteger(2), ValueFactory.newString("a"), ValueFactory.newInteger(1));
+        interner.intern(ab);
+        assertEquals("{\"b\":2,\"a\":1}", interner.intern(ba).toJson());
+    }
+
+    @Test
+    public void intern_TypeMatters()
+    {
+        JsonInterner interner = new JsonInterner(10);
+        interner.intern(ValueFactory.newArray(ValueFactory.newInteger(1)));
+        assertEquals("[1.0]", interner.intern(ValueFactory.newArray(ValueFactory.newFloat(1.0))).toJson());
+    }
+
+    @Test
+    public void intern_Evict()
+    {
+        JsonInterner interner = new JsonInterner(2);
+        Value first = interner.intern(device("a", 1));
+        interner.intern(device("b", 1));
+        interner.intern(device("a", 1)); // a is used recently
+        interner.intern(device("c", 1)); // evicts b
+        assertEquals(2, interner.size());
+        assertSame(first, interner.intern(device("a", 1)));
+    }
+}
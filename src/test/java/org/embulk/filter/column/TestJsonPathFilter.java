@@ -0,0 +1,92 @@
+package org.embulk.filter.column;
+
+import org.embulk.config.ConfigException;
+import org.junit.Test;
+import org.msgpack.value.Value;
+import org.msgpack.value.ValueFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestJsonPathFilter
+{
+    private static Value element(String key, Value value)
+    {
+        return ValueFactory.newMap(ValueFactory.newString(key), value);
+    }
+
+    @Test
+    public void parse()
+    {
+        assertNull(JsonPathFilter.parse("[0]"));
+        assertNull(JsonPathFilter.parse("[*]"));
+        assertNull(JsonPathFilter.parse("foo"));
+        assertEquals("@.type == 'x'", JsonPathFilter.parse("[?(@.type == 'x')]").getExpression());
+        assertEquals("@.type=='x'", JsonPathFilter.parse("[?(@.type=='x')]").getExpression());
+
+        String[] invalids = {"[?(type == 'x')]", "[?(@)]", "[?(@. == 1)]", "[?(@.type = 'x')]", "[?(@.type == x)]"};
+        for (String invalid : invalids) {
+            try {
+                JsonPathFilter.parse(invalid);
+                fail(invalid);
+            }
+            catch (ConfigException ex) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void matches_String()
+    {
+        JsonPathFilter filter = JsonPathFilter.parse("[?(@.type == 'purchase')]");
+        assertTrue(filter.matches(element("type", ValueFactory.newString("purchase"))));
+        assertFalse(filter.matches(element("type", ValueFactory.newString("view"))));
+        assertFalse(filter.matches(element("kind", ValueFactory.newString("purchase"))));
+        assertFalse(filter.matches(element("type", ValueFactory.newInteger(1))));
+        assertFalse(filter.matches(ValueFactory.newString("purchase")));
+
+        filter = JsonPathFilter.parse("[?(@.type != \"purchase\")]");
+        assertFalse(filter.matches(element("type", ValueFactory.newString("purchase"))));
+        assertTrue(filter.matches(element("type", ValueFactory.newString("view"))));
+        assertTrue(filter.matches(element("type", ValueFactory.newInteger(1))));
+    }
+
+    @Test
+    public void matches_Number()
+    {
+        JsonPathFilter filter = JsonPathFilter.parse("[?(@.price >= 100)]");
+        assertTrue(filter.matches(element("price", ValueFactory.newInteger(100))));
+        assertTrue(filter.matches(element("price", ValueFactory.newFloat(100.5))));
+        assertFalse(filter.matches(element("price", ValueFactory.newInteger(99))));
+        assertFalse(filter.matches(element("price", ValueFactory.newString("100"))));
+
+        filter = JsonPathFilter.parse("[?(@.price < 1.5)]");
+        assertTrue(filter.matches(element("price", ValueFactory.newInteger(1))));
+        assertFalse(filter.matches(element("price", ValueFactory.newFloat(1.5))));
+    }
+
+    @Test
+    public void matches_Nested()
+    {
+        JsonPathFilter filter = JsonPathFilter.parse("[?(@.user.active == true)]");
+        assertTrue(filter.matches(element("user", element("active", ValueFactory.newBoolean(true)))));
+        assertFalse(filter.matches(element("user", element("active", ValueFactory.newBoolean(false)))));
+        assertFalse(filter.matches(element("user", ValueFactory.newNil())));
+    }
+
+    @Test
+    public void matches_Exists()
+    {
+        JsonPathFilter filter = JsonPathFilter.parse("[?(@.type)]");
+        assertTrue(filter.matches(element("type", ValueFactory.newNil())));
+        assertFalse(filter.matches(element("kind", ValueFactory.newNil())));
+
+        filter = JsonPathFilter.parse("[?(@.type == null)]");
+        assertTrue(filter.matches(element("type", ValueFactory.newNil())));
+        assertFalse(filter.matches(element("type", ValueFactory.newString("x"))));
+    }
+}
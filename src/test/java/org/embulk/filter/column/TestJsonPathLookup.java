@@ -0,0 +1,48 @@
+package org.embulk.filter.column;
+
+import org.embulk.config.ConfigException;
+import org.junit.Test;
+import org.msgpack.value.Value;
+import org.msgpack.value.ValueFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TestJsonPathLookup
+{
+    @Test
+    public void get()
+    {
+        // {"k1":{"k2":["v0","v1"]}}
+        Value value = ValueFactory.newMap(
+                ValueFactory.newString("k1"), ValueFactory.newMap(
+                        ValueFactory.newString("k2"), ValueFactory.newArray(ValueFactory.newString("v0"), ValueFactory.newString("v1"))));
+
+        JsonPathLookup lookup = new JsonPathLookup("$.json.k1.k2[1]");
+        assertEquals("json", lookup.getRootName());
+        assertEquals(ValueFactory.newString("v1"), lookup.get(value));
+
+        assertEquals(value, new JsonPathLookup("$.json").get(value));
+        assertNull(new JsonPathLookup("$.json.k1.k2[2]").get(value));
+        assertNull(new JsonPathLookup("$.json.k1.k3").get(value));
+        assertNull(new JsonPathLookup("$.json.k1[0]").get(value));
+    }
+
+    @Test
+    public void get_NegativeIndex()
+    {
+        // {"k1":["v0","v1"]}
+        Value value = ValueFactory.newMap(
+                ValueFactory.newString("k1"), ValueFactory.newArray(ValueFactory.newString("v0"), ValueFactory.newString("v1")));
+
+        assertEquals(ValueFactory.newString("v1"), new JsonPathLookup("$.json.k1[-1]").get(value));
+        assertEquals(ValueFactory.newString("v0"), new JsonPathLookup("$.json.k1[-2]").get(value));
+        assertNull(new JsonPathLookup("$.json.k1[-3]").get(value));
+    }
+
+    @Test(expected = ConfigException.class)
+    public void configException_Wildcard()
+    {
+        new JsonPathLookup("$.json.k1[*]");
+    }
+}
@@ -0,0 +1,128 @@
+package org.embulk.filter.column;
+
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.config.ConfigLoader;
+import org.embulk.config.ConfigSource;
+import org.embulk.filter.column.ColumnFilterPlugin.PluginTask;
+import org.embulk.spi.DataException;
+import org.embulk.spi.Exec;
+import org.embulk.spi.Schema;
+import org.embulk.spi.json.JsonParser;
+import org.junit.Rule;
+import org.junit.Test;
+import org.msgpack.value.Value;
+
+import static org.embulk.spi.type.Types.STRING;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class TestJsonTextProjector
+{
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    private static final String TEXT = "{\"user\": {\"id\": 1, \"name\": \"a\\\"b\", \"tags\": [1, 2.5, 12345678901234567890]}, \"skipped\": [\"}]\", {\"k\": null}], \"flag\": true}";
+
+    private PluginTask taskFromYamlString(String... lines)
+    {
+        StringBuilder builder = new StringBuilder();
+        for (String line : lines) {
+            builder.append(line).append("\n");
+        }
+        String yamlString = builder.toString();
+
+        ConfigLoader loader = new ConfigLoader(Exec.getModelManager());
+        ConfigSource config = loader.fromYamlString(yamlString);
+        return config.loadConfig(PluginTask.class);
+    }
+
+    private JsonVisitor jsonVisitor(PluginTask task)
+    {
+        Schema inputSchema = Schema.builder()
+                .add("text", STRING)
+                .build();
+        Schema outputSchema = ColumnFilterPlugin.buildOutputSchema(task, inputSchema);
+        return new JsonVisitor(task, inputSchema, outputSchema);
+    }
+
+    // projected and visited text must be same with parsed and visited text
+    private Value assertProjected(JsonVisitor visitor, String expected)
+    {
+        Value projected = new JsonTextProjector(visitor).project("$.text", TEXT);
+        Value visited = visitor.visit("$.text", new JsonParser().parse(TEXT));
+        assertEquals(visited.toJson(), visitor.visit("$.text", projected).toJson());
+        assertEquals(expected, visited.toJson());
+        return projected;
+    }
+
+    @Test
+    public void project_Columns()
+    {
+        PluginTask task = taskFromYamlString(
+                "type: column",
+                "columns:",
+                "  - {name: text}",
+                "  - {name: \"$.text.user\"}",
+                "  - {name: \"$.text.user.id\"}",
+                "  - {name: \"$.text.flag\"}");
+        Value projected = assertProjected(jsonVisitor(task), "{\"user\":{\"id\":1},\"flag\":true}");
+        assertEquals("{\"user\":{\"id\":1},\"flag\":true}", projected.toJson()); // name, tags, and skipped are not built
+    }
+
+    @Test
+    public void project_ColumnsWithSrc()
+    {
+        PluginTask task = taskFromYamlString(
+                "type: column",
+                "columns:",
+                "  - {name: text}",
+                "  - {name: \"$.text.account\", src: \"$.text.user\"}",
+                "  - {name: \"$.text.account.name\"}");
+        assertProjected(jsonVisitor(task), "{\"account\":{\"name\":\"a\\\"b\"}}");
+    }
+
+    @Test
+    public void project_DropColumns()
+    {
+        PluginTask task = taskFromYamlString(
+                "type: column",
+                "drop_columns:",
+                "  - {name: \"$.text.skipped\"}",
+                "  - {name: \"$.text.user.tags\"}");
+        Value projected = assertProjected(jsonVisitor(task), "{\"user\":{\"id\":1,\"name\":\"a\\\"b\"},\"flag\":true}");
+        assertEquals("{\"user\":{\"id\":1,\"name\":\"a\\\"b\"},\"flag\":true}", projected.toJson());
+    }
+
+    @Test
+    public void project_AddColumnsFromDropped()
+    {
+        PluginTask task = taskFromYamlString(
+                "type: column",
+                "drop_columns:",
+                "  - {name: \"$.text.skipped\"}",
+                "  - {name: \"$.text.user\"}",
+                "add_columns:",
+                "  - {name: \"$.text.user_copy\", src: \"$.text.user\"}");
+        assertProjected(jsonVisitor(task), "{\"flag\":true,\"user_copy\":{\"id\":1,\"name\":\"a\\\"b\",\"tags\":[1,2.5,12345678901234567890]}}");
+    }
+
+    @Test
+    public void project_Invalid()
+    {
+        PluginTask task = taskFromYamlString(
+                "type: column",
+                "columns:",
+                "  - {name: text}",
+                "  - {name: \"$.text.flag\"}");
+        JsonTextProjector projector = new JsonTextProjector(jsonVisitor(task));
+        String[] texts = new String[] {"", "{\"flag\": true", "{\"flag\" true}", "[1,]", "tru", "{} x", "\"abc", "{\"skipped\": [1, 2}"};
+        for (String text : texts) {
+            try {
+                projector.project("$.text", text);
+                fail(text);
+            }
+            catch (DataException ex) {
+            }
+        }
+    }
+}
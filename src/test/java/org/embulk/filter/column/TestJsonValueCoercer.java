@@ -0,0 +1,62 @@
+package org.embulk.filter.column;
+
+import org.embulk.spi.type.Types;
+import org.junit.Test;
+import org.msgpack.value.Value;
+import org.msgpack.value.ValueFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TestJsonValueCoercer
+{
+    @Test
+    public void coerce_Long()
+    {
+        assertEquals(ValueFactory.newInteger(123), JsonValueCoercer.coerce(Types.LONG, ValueFactory.newString("123")));
+        assertEquals(ValueFactory.newInteger(123), JsonValueCoercer.coerce(Types.LONG, ValueFactory.newString(" 123 ")));
+        assertEquals(ValueFactory.newInteger(1), JsonValueCoercer.coerce(Types.LONG, ValueFactory.newString("1.0")));
+        assertEquals(ValueFactory.newInteger(2), JsonValueCoercer.coerce(Types.LONG, ValueFactory.newFloat(2.0)));
+        assertEquals(ValueFactory.newInteger(3), JsonValueCoercer.coerce(Types.LONG, ValueFactory.newInteger(3)));
+        assertNull(JsonValueCoercer.coerce(Types.LONG, ValueFactory.newString("1.5")));
+        assertNull(JsonValueCoercer.coerce(Types.LONG, ValueFactory.newString("abc")));
+        assertNull(JsonValueCoercer.coerce(Types.LONG, ValueFactory.newFloat(1e30)));
+        assertNull(JsonValueCoercer.coerce(Types.LONG, ValueFactory.newBoolean(true)));
+    }
+
+    @Test
+    public void coerce_Double()
+    {
+        assertEquals(ValueFactory.newFloat(1.5), JsonValueCoercer.coerce(Types.DOUBLE, ValueFactory.newString("1.5")));
+        assertEquals(ValueFactory.newFloat(2.0), JsonValueCoercer.coerce(Types.DOUBLE, ValueFactory.newInteger(2)));
+        assertNull(JsonValueCoercer.coerce(Types.DOUBLE, ValueFactory.newString("abc")));
+    }
+
+    @Test
+    public void coerce_String()
+    {
+        assertEquals(ValueFactory.newString("123"), JsonValueCoercer.coerce(Types.STRING, ValueFactory.newInteger(123)));
+        assertEquals(ValueFactory.newString("1.5"), JsonValueCoercer.coerce(Types.STRING, ValueFactory.newFloat(1.5)));
+        assertEquals(ValueFactory.newString("true"), JsonValueCoercer.coerce(Types.STRING, ValueFactory.newBoolean(true)));
+        assertEquals(ValueFactory.newString("a"), JsonValueCoercer.coerce(Types.STRING, ValueFactory.newString("a")));
+    }
+
+    @Test
+    public void coerce_Boolean()
+    {
+        assertEquals(ValueFactory.newBoolean(true), JsonValueCoercer.coerce(Types.BOOLEAN, ValueFactory.newString("TRUE")));
+        assertEquals(ValueFactory.newBoolean(false), JsonValueCoercer.coerce(Types.BOOLEAN, ValueFactory.newInteger(0)));
+        assertNull(JsonValueCoercer.coerce(Types.BOOLEAN, ValueFactory.newInteger(2)));
+        assertNull(JsonValueCoercer.coerce(Types.BOOLEAN, ValueFactory.newString("yes")));
+    }
+
+    @Test
+    public void coerce_Kept()
+    {
+        Value map = ValueFactory.newMap(ValueFactory.newString("k"), ValueFactory.newString("v"));
+        assertEquals(map, JsonValueCoercer.coerce(Types.STRING, map));
+        assertEquals(ValueFactory.newNil(), JsonValueCoercer.coerce(Types.LONG, ValueFactory.newNil()));
+        assertEquals(ValueFactory.newString("1"), JsonValueCoercer.coerce(Types.JSON, ValueFactory.newString("1")));
+        assertEquals(ValueFactory.newString("1"), JsonValueCoercer.coerce(null, ValueFactory.newString("1")));
+    }
+}
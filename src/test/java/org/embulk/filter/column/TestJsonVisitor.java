@@ -317,6 +317,78 @@ public class TestJsonVisitor
         assertEquals("{\"k1\":{\"k1\":\"v\"},\"k3\":{\"k3\":\"v\"},\"k4\":{\"k2\":\"v\"}}", visited.toString());
     }
 
+    @Test
+    public void visitMap_Coerce()
+    {
+        Schema inputSchema = Schema.builder()
+                .add("json1", JSON)
+                .build();
+        // {"k1":"123","k2":45,"k3":"abc"}
+        Value map = ValueFactory.newMap(
+                ValueFactory.newString("k1"), ValueFactory.newString("123"),
+                ValueFactory.newString("k2"), ValueFactory.newInteger(45),
+                ValueFactory.newString("k3"), ValueFactory.newString("abc"));
+
+        for (String onCoerceError : new String[] {"keep", "null", "error"}) {
+            PluginTask task = taskFromYamlString(
+                    "type: column",
+                    "on_coerce_error: " + onCoerceError,
+                    "columns:",
+                    "  - {name: \"$.json1.k1\", type: long}",
+                    "  - {name: \"$.json1.k2\", type: string}",
+                    "  - {name: \"$.json1.k3\", type: double}");
+            JsonVisitor subject = jsonVisitor(task, inputSchema);
+            MapValue visited = subject.visit("$.json1", map).asMapValue();
+            if (onCoerceError.equals("null")) {
+                assertEquals("{\"k1\":123,\"k2\":\"45\",\"k3\":null}", visited.toString());
+            }
+            else {
+                assertEquals("{\"k1\":123,\"k2\":\"45\",\"k3\":\"abc\"}", visited.toString());
+            }
+            assertEquals(onCoerceError.equals("error") ? 1L : 0L, subject.getMalformedCount());
+        }
+    }
+
+    @Test
+    public void visit_DropNullsAndEmpty()
+    {
+        Schema inputSchema = Schema.builder()
+                .add("json1", JSON)
+                .build();
+        // {"k1":null,"k2":{"a":null,"b":[]},"k3":[null,1,{}],"k4":{"c":{"d":null}}}
+        Value a = ValueFactory.newString("a");
+        Value b = ValueFactory.newString("b");
+        Value c = ValueFactory.newString("c");
+        Value d = ValueFactory.newString("d");
+        Value nil = ValueFactory.newNil();
+        Value map = ValueFactory.newMap(
+                ValueFactory.newString("k1"), nil,
+                ValueFactory.newString("k2"), ValueFactory.newMap(a, nil, b, ValueFactory.newArray()),
+                ValueFactory.newString("k3"), ValueFactory.newArray(nil, ValueFactory.newInteger(1), ValueFactory.newMap()),
+                ValueFactory.newString("k4"), ValueFactory.newMap(c, ValueFactory.newMap(d, nil)));
+
+        JsonVisitor subject = jsonVisitor(taskFromYamlString(
+                "type: column",
+                "columns:",
+                "  - {name: json1, drop_nulls: true}"), inputSchema);
+        assertEquals("{\"k2\":{\"b\":[]},\"k3\":[1,{}],\"k4\":{\"c\":{}}}", subject.visit("$.json1", map).toString());
+
+        subject = jsonVisitor(taskFromYamlString(
+                "type: column",
+                "columns:",
+                "  - {name: json1, drop_nulls: true, drop_empty: true}"), inputSchema);
+        assertEquals("{\"k3\":[1]}", subject.visit("$.json1", map).toString());
+
+        subject = jsonVisitor(taskFromYamlString(
+                "type: column",
+                "drop_columns:",
+                "  - {name: \"$.json1.k1\"}",
+                "add_columns:",
+                "  - {name: \"$.json1.k5\", src: \"$.json1.k2\", drop_nulls: true}"), inputSchema);
+        assertEquals("{\"k2\":{\"a\":null,\"b\":[]},\"k3\":[null,1,{}],\"k4\":{\"c\":{\"d\":null}},\"k5\":{\"b\":[]}}",
+                subject.visit("$.json1", map).toString());
+    }
+
     @Test
     public void visitArray_DropColumns()
     {
@@ -400,4 +472,122 @@ public class TestJsonVisitor
         MapValue visited = subject.visit("$.json1", map).asMapValue();
         assertEquals("{\"k1\":[{\"k1\":\"v\"}],\"k3\":[{\"k3\":\"v\"}]}", visited.toString());
     }
+
+    @Test
+    public void visitArray_Slice()
+    {
+        PluginTask task = taskFromYamlString(
+                "type: column",
+                "columns:",
+                "  - {name: \"$.json1.k1[1:3]\"}",
+                "  - {name: \"$.json1.k1[-1]\"}",
+                "  - {name: \"$.json1.k2[:2]\"}",
+                "  - {name: \"$.json1.k3[-1]\", type: json, default: \"{}\"}");
+        Schema inputSchema = Schema.builder()
+                .add("json1", JSON)
+                .build();
+        JsonVisitor subject = jsonVisitor(task, inputSchema);
+
+        // {"k1":[0,1,2,3,4],"k2":[0,1,2,3,4],"k3":[]}
+        Value[] elements = new Value[5];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = ValueFactory.newInteger(i);
+        }
+        Value map = ValueFactory.newMap(
+                ValueFactory.newString("k1"), ValueFactory.newArray(elements),
+                ValueFactory.newString("k2"), ValueFactory.newArray(elements),
+                ValueFactory.newString("k3"), ValueFactory.newArray());
+
+        MapValue visited = subject.visit("$.json1", map).asMapValue();
+        assertEquals("{\"k1\":[1,2,4],\"k2\":[0,1],\"k3\":[{}]}", visited.toString());
+    }
+
+    @Test
+    public void visitArray_DropSlice()
+    {
+        PluginTask task = taskFromYamlString(
+                "type: column",
+                "drop_columns:",
+                "  - {name: \"$.json1.k1[2:]\"}",
+                "  - {name: \"$.json1.k2[:-2]\"}",
+                "  - {name: \"$.json1.k3[-1]\"}",
+                "  - {name: \"$.json1.k3[1:2]\"}");
+        Schema inputSchema = Schema.builder()
+                .add("json1", JSON)
+                .build();
+        JsonVisitor subject = jsonVisitor(task, inputSchema);
+
+        // {"k1":[0,1,2,3,4],"k2":[0,1,2,3,4],"k3":[0,1,2,3,4]}
+        Value[] elements = new Value[5];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = ValueFactory.newInteger(i);
+        }
+        Value map = ValueFactory.newMap(
+                ValueFactory.newString("k1"), ValueFactory.newArray(elements),
+                ValueFactory.newString("k2"), ValueFactory.newArray(elements),
+                ValueFactory.newString("k3"), ValueFactory.newArray(elements));
+
+        MapValue visited = subject.visit("$.json1", map).asMapValue();
+        assertEquals("{\"k1\":[0,1],\"k2\":[3,4],\"k3\":[0,2,3]}", visited.toString());
+    }
+
+    @Test
+    public void visitArray_Filter()
+    {
+        Schema inputSchema = Schema.builder()
+                .add("json1", JSON)
+                .build();
+        JsonVisitor columnsSubject = jsonVisitor(taskFromYamlString(
+                "type: column",
+                "columns:",
+                "  - {name: \"$.json1.k1[?(@.type == 'purchase')]\"}",
+                "  - {name: \"$.json1.k1[?(@.type == 'purchase')].price\"}"), inputSchema);
+        JsonVisitor dropSubject = jsonVisitor(taskFromYamlString(
+                "type: column",
+                "drop_columns:",
+                "  - {name: \"$.json1.k1[?(@.price < 100)]\"}"), inputSchema);
+
+        // {"k1":[{"type":"view","price":50},{"type":"purchase","price":150},{"type":"purchase","price":80}]}
+        Value type = ValueFactory.newString("type");
+        Value price = ValueFactory.newString("price");
+        Value map = ValueFactory.newMap(ValueFactory.newString("k1"), ValueFactory.newArray(
+                ValueFactory.newMap(type, ValueFactory.newString("view"), price, ValueFactory.newInteger(50)),
+                ValueFactory.newMap(type, ValueFactory.newString("purchase"), price, ValueFactory.newInteger(150)),
+                ValueFactory.newMap(type, ValueFactory.newString("purchase"), price, ValueFactory.newInteger(80))));
+
+        MapValue visited = columnsSubject.visit("$.json1", map).asMapValue();
+        assertEquals("{\"k1\":[{\"price\":150},{\"price\":80}]}", visited.toString());
+
+        visited = dropSubject.visit("$.json1", map).asMapValue();
+        assertEquals("{\"k1\":[{\"type\":\"purchase\",\"price\":150}]}", visited.toString());
+    }
+
+    @Test
+    public void visitArray_Parallel()
+    {
+        PluginTask task = taskFromYamlString(
+                "type: column",
+                "json_parallel_threshold: 10",
+                "drop_columns:",
+                "  - {name: \"$.json1.k1[*].x\"}");
+        Schema inputSchema = Schema.builder()
+                .add("json1", JSON)
+                .build();
+        JsonVisitor subject = jsonVisitor(task, inputSchema);
+
+        // {"k1":[{"x":0,"y":0},{"x":1,"y":1},...]}
+        Value x = ValueFactory.newString("x");
+        Value y = ValueFactory.newString("y");
+        Value[] elements = new Value[1000];
+        StringBuilder expected = new StringBuilder("{\"k1\":[");
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = ValueFactory.newMap(x, ValueFactory.newInteger(i), y, ValueFactory.newInteger(i));
+            expected.append(i == 0 ? "" : ",").append("{\"y\":").append(i).append("}");
+        }
+        expected.append("]}");
+        Value map = ValueFactory.newMap(ValueFactory.newString("k1"), ValueFactory.newArray(elements));
+
+        MapValue visited = subject.visit("$.json1", map).asMapValue();
+        assertEquals(expected.toString(), visited.toString());
+    }
 }
@@ -0,0 +1,145 @@
+package org.embulk.filter.column;
+
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.config.ConfigLoader;
+import org.embulk.config.ConfigSource;
+import org.embulk.filter.column.ColumnFilterPlugin.PluginTask;
+import org.embulk.spi.DataException;
+import org.embulk.spi.Exec;
+import org.embulk.spi.Page;
+import org.embulk.spi.PageReader;
+import org.embulk.spi.PageTestUtils;
+import org.embulk.spi.Schema;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.embulk.spi.type.Types.LONG;
+import static org.embulk.spi.type.Types.STRING;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+public class TestNullColumnTracker
+{
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    private static final Schema inputSchema = Schema.builder()
+            .add("id", LONG)
+            .add("a", STRING)
+            .add("b", STRING)
+            .add("c", STRING)
+            .build();
+
+    private PluginTask taskFromYamlString(String... lines)
+    {
+        StringBuilder builder = new StringBuilder();
+        for (String line : lines) {
+            builder.append(line).append("\n");
+        }
+        String yamlString = builder.toString();
+
+        ConfigLoader loader = new ConfigLoader(Exec.getModelManager());
+        ConfigSource config = loader.fromYamlString(yamlString);
+        return config.loadConfig(PluginTask.class);
+    }
+
+    private void track(NullColumnTracker tracker, Object... objects)
+    {
+        PageReader pageReader = new PageReader(inputSchema);
+        for (Page page : PageTestUtils.buildPage(runtime.getBufferAllocator(), inputSchema, objects)) {
+            pageReader.setPage(page);
+            while (pageReader.nextRecord()) {
+                assertTrue(tracker.accept(pageReader));
+            }
+        }
+    }
+
+    @Test
+    public void saveAndLoad() throws IOException
+    {
+        File file = File.createTempFile("null_columns", ".json");
+        assertTrue(file.delete());
+        try {
+            PluginTask task = taskFromYamlString(
+                    "type: column",
+                    "auto_drop_null_columns: true",
+                    "null_columns_path: " + file.getPath());
+            assertEquals(Collections.emptySet(), NullColumnTracker.load(task));
+
+            // a has a value in the first task, and b in the second task
+            NullColumnTracker first = new NullColumnTracker(task, inputSchema);
+            track(first, new Long(1), "x", null, null, new Long(2), null, null, null);
+            first.publish("run");
+            NullColumnTracker second = new NullColumnTracker(task, inputSchema);
+            track(second, new Long(3), null, "y", null);
+            second.publish("run");
+            NullColumnTracker empty = new NullColumnTracker(task, inputSchema);
+            empty.publish("run");
+            NullColumnTracker.save(task, inputSchema, "run");
+            assertEquals(Collections.singleton("c"), NullColumnTracker.load(task));
+
+            // a run without records keeps the previous state
+            new NullColumnTracker(task, inputSchema).publish("empty run");
+            NullColumnTracker.save(task, inputSchema, "empty run");
+            assertEquals(Collections.singleton("c"), NullColumnTracker.load(task));
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void accept_DroppedColumnWithValue()
+    {
+        PluginTask task = taskFromYamlString(
+                "type: column",
+                "auto_drop_null_columns: true",
+                "null_columns_path: null_columns.json");
+        task.setDroppedNullColumns(Arrays.asList("a"));
+        NullColumnTracker tracker = new NullColumnTracker(task, inputSchema);
+        track(tracker, new Long(1), null, "y", null); // b was not dropped
+        try {
+            track(tracker, new Long(2), "x", null, null);
+            fail();
+        }
+        catch (DataException ex) {
+            assertTrue(ex.getMessage().contains("'a'"));
+            assertTrue(ex.getMessage().contains("null_columns.json"));
+        }
+    }
+
+    @Test
+    public void dropNullColumns()
+    {
+        PluginTask task = taskFromYamlString(
+                "type: column",
+                "columns:",
+                "  - {name: id}",
+                "  - {name: a}",
+                "  - {name: b, default: none}",
+                "  - {name: d, src: c}",
+                "add_columns:",
+                "  - {name: e, src: a}",
+                "auto_drop_null_columns: true",
+                "null_columns_path: unused");
+        Set<String> nullColumns = new HashSet<>();
+        nullColumns.add("a");
+        nullColumns.add("b");
+        nullColumns.add("c");
+        Schema outputSchema = NullColumnTracker.dropNullColumns(task, inputSchema, ColumnFilterPlugin.buildOutputSchema(task, inputSchema), nullColumns);
+        assertEquals(Arrays.asList("a", "c"), NullColumnTracker.droppedInputNames(task, inputSchema, ColumnFilterPlugin.buildOutputSchema(task, inputSchema), nullColumns));
+
+        assertEquals(2, outputSchema.getColumnCount());
+        assertEquals("id", outputSchema.getColumn(0).getName());
+        assertEquals("b", outputSchema.getColumn(1).getName()); // filled by default
+        assertEquals(1, outputSchema.getColumn(1).getIndex());
+    }
+}
@@ -0,0 +1,95 @@
+package org.embulk.filter.column;
+
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.config.ConfigLoader;
+import org.embulk.config.ConfigSource;
+import org.embulk.filter.column.ColumnFilterPlugin.PluginTask;
+import org.embulk.spi.Exec;
+import org.embulk.spi.Schema;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.embulk.spi.type.Types.JSON;
+import static org.embulk.spi.type.Types.LONG;
+import static org.embulk.spi.type.Types.STRING;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+public class TestPlanExplainer
+{
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    private PluginTask taskFromYamlString(String... lines)
+    {
+        StringBuilder builder = new StringBuilder();
+        for (String line : lines) {
+            builder.append(line).append("\n");
+        }
+        String yamlString = builder.toString();
+
+        ConfigLoader loader = new ConfigLoader(Exec.getModelManager());
+        ConfigSource config = loader.fromYamlString(yamlString);
+        return config.loadConfig(PluginTask.class);
+    }
+
+    private static void assertContains(List<String> lines, String expected)
+    {
+        assertTrue(String.format("'%s' is not in %s", expected, lines), lines.contains(expected));
+    }
+
+    @Test
+    public void explain()
+    {
+        PluginTask task = taskFromYamlString(
+                "type: column",
+                "columns:",
+                "  - {name: id}",
+                "  - {name: name, default: unknown}",
+                "  - {name: json}",
+                "  - {name: $.json.a}",
+                "  - {name: $.id.a}",
+                "add_columns:",
+                "  - {name: added, type: long, default: 0}",
+                "  - {name: seq, generator: sequence}",
+                "where:",
+                "  - {column: $.nothing.a, operator: is_null}");
+        Schema inputSchema = Schema.builder()
+                .add("id", LONG)
+                .add("name", STRING)
+                .add("json", JSON)
+                .build();
+        Schema outputSchema = ColumnFilterPlugin.buildOutputSchema(task, inputSchema);
+
+        List<String> lines = PlanExplainer.explain(task, inputSchema, outputSchema);
+        assertContains(lines, "record filters: [where (1 conditions)]");
+        assertContains(lines, "column 'id' (long): fixed-width copy (passthrough) from input column 'id' at 0");
+        assertContains(lines, "column 'name' (string): string copy from input column 'name' at 1, default fill unknown if null");
+        assertContains(lines, "column 'json' (json): json visit from input column 'json' at 2");
+        assertContains(lines, "column 'added' (long): default fill 0");
+        assertContains(lines, "column 'seq' (long): generator sequence");
+        assertContains(lines, "json visit $.json, columns [$.json.a]");
+        assertContains(lines, "WARNING: '$.id.a' never matches because column 'id' is not type: json");
+        assertContains(lines, "WARNING: where '$.nothing.a' never matches because column 'nothing' is not in the input schema");
+    }
+
+    @Test
+    public void explain_JsonText()
+    {
+        PluginTask task = taskFromYamlString(
+                "type: column",
+                "columns:",
+                "  - {name: text}",
+                "  - {name: $.text.a}");
+        Schema inputSchema = Schema.builder()
+                .add("text", STRING)
+                .build();
+        Schema outputSchema = ColumnFilterPlugin.buildOutputSchema(task, inputSchema);
+
+        List<String> lines = PlanExplainer.explain(task, inputSchema, outputSchema);
+        assertContains(lines, "json visit $.text, columns [$.text.a]");
+        assertFalse(lines.contains("WARNING: '$.text.a' never matches because column 'text' is not type: json"));
+    }
+}
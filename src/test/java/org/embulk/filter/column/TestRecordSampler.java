@@ -0,0 +1,101 @@
+package org.embulk.filter.column;
+
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.config.ConfigException;
+import org.embulk.config.ConfigLoader;
+import org.embulk.config.ConfigSource;
+import org.embulk.filter.column.ColumnFilterPlugin.PluginTask;
+import org.embulk.spi.Exec;
+import org.embulk.spi.Page;
+import org.embulk.spi.PageReader;
+import org.embulk.spi.PageTestUtils;
+import org.embulk.spi.Schema;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.embulk.spi.type.Types.LONG;
+import static org.embulk.spi.type.Types.STRING;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestRecordSampler
+{
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    private PluginTask taskFromYamlString(String... lines)
+    {
+        StringBuilder builder = new StringBuilder();
+        for (String line : lines) {
+            builder.append(line).append("\n");
+        }
+        String yamlString = builder.toString();
+
+        ConfigLoader loader = new ConfigLoader(Exec.getModelManager());
+        ConfigSource config = loader.fromYamlString(yamlString);
+        return config.loadConfig(PluginTask.class);
+    }
+
+    private List<Long> sample(PluginTask task, int size)
+    {
+        Schema inputSchema = Schema.builder()
+                .add("id", LONG)
+                .add("name", STRING)
+                .build();
+        Object[] objects = new Object[size * 2];
+        for (int i = 0; i < size; i++) {
+            objects[i * 2] = new Long(i);
+            objects[i * 2 + 1] = "name" + (i % 10);
+        }
+        RecordSampler sampler = new RecordSampler(task, inputSchema);
+        PageReader pageReader = new PageReader(inputSchema);
+        List<Long> sampled = new ArrayList<>();
+        for (Page page : PageTestUtils.buildPage(runtime.getBufferAllocator(), inputSchema, objects)) {
+            pageReader.setPage(page);
+            while (pageReader.nextRecord()) {
+                if (sampler.accept(pageReader)) {
+                    sampled.add(pageReader.getLong(inputSchema.getColumn(0)));
+                }
+            }
+        }
+        return sampled;
+    }
+
+    @Test
+    public void accept_Rate()
+    {
+        assertEquals(0, sample(taskFromYamlString("type: column", "sample_rate: 0.0"), 1000).size());
+        assertEquals(1000, sample(taskFromYamlString("type: column", "sample_rate: 1.0"), 1000).size());
+
+        int size = sample(taskFromYamlString("type: column", "sample_rate: 0.1"), 10000).size();
+        assertTrue(800 < size && size < 1200);
+    }
+
+    @Test
+    public void accept_Deterministic()
+    {
+        PluginTask task = taskFromYamlString("type: column", "sample_rate: 0.3", "sample_keys: [id]");
+        assertEquals(sample(task, 1000), sample(task, 1000));
+
+        PluginTask other = taskFromYamlString("type: column", "sample_rate: 0.3", "sample_keys: [id]", "sample_seed: 1");
+        assertTrue(! sample(task, 1000).equals(sample(other, 1000)));
+    }
+
+    @Test
+    public void accept_SameKeySameDecision()
+    {
+        // name has only 10 distinct values, so all or none of the records of a name are sampled
+        PluginTask task = taskFromYamlString("type: column", "sample_rate: 0.5", "sample_keys: [name]");
+        List<Long> sampled = sample(task, 1000);
+        assertEquals(0, sampled.size() % 100);
+    }
+
+    @Test(expected = ConfigException.class)
+    public void configException_Rate()
+    {
+        sample(taskFromYamlString("type: column", "sample_rate: 1.5"), 1);
+    }
+}
@@ -0,0 +1,94 @@
+package org.embulk.filter.column;
+
+import org.embulk.config.ConfigException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class TestSequenceGenerator
+{
+    @Test
+    public void sequence_SharedInRun()
+    {
+        SequenceGenerator.register("run");
+        SequenceGenerator a = SequenceGenerator.sequence("run", 2);
+        SequenceGenerator b = SequenceGenerator.sequence("run", 2);
+        try {
+            assertEquals(1L, a.next());
+            assertEquals(3L, b.next());
+            assertEquals(2L, a.next());
+            assertEquals(5L, a.next());
+            assertEquals(4L, b.next());
+        }
+        finally {
+            SequenceGenerator.release("run");
+        }
+        SequenceGenerator.register("run");
+        assertEquals(1L, SequenceGenerator.sequence("run", 2).next());
+        SequenceGenerator.release("run");
+    }
+
+    @Test(expected = ConfigException.class)
+    public void sequence_NotRegistered()
+    {
+        // a task in another JVM than the transaction
+        SequenceGenerator.sequence("unknown run", 2);
+    }
+
+    @Test
+    public void sequence_UniqueAmongThreads() throws Exception
+    {
+        final int threads = 4;
+        final int count = 10000;
+        final List<long[]> results = new ArrayList<>();
+        SequenceGenerator.register("threads");
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final long[] values = new long[count];
+            results.add(values);
+            workers.add(new Thread(new Runnable() {
+                @Override
+                public void run()
+                {
+                    SequenceGenerator generator = SequenceGenerator.sequence("threads", 7);
+                    for (int i = 0; i < count; i++) {
+                        values[i] = generator.next();
+                    }
+                }
+            }));
+        }
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        SequenceGenerator.release("threads");
+
+        Set<Long> unique = new HashSet<>();
+        for (long[] values : results) {
+            for (int i = 0; i < count; i++) {
+                if (i > 0) {
+                    assertTrue(values[i - 1] < values[i]);
+                }
+                unique.add(values[i]);
+            }
+        }
+        assertEquals(threads * count, unique.size());
+    }
+
+    @Test
+    public void rowNumber()
+    {
+        SequenceGenerator generator = SequenceGenerator.rowNumber();
+        assertEquals(1L, generator.next());
+        assertEquals(2L, generator.next());
+        assertEquals(3L, generator.next());
+    }
+}
@@ -0,0 +1,147 @@
+package org.embulk.filter.column;
+
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.config.ConfigLoader;
+import org.embulk.config.ConfigSource;
+import org.embulk.filter.column.ColumnFilterPlugin.PluginTask;
+import org.embulk.spi.Exec;
+import org.embulk.spi.Page;
+import org.embulk.spi.PageReader;
+import org.embulk.spi.PageTestUtils;
+import org.embulk.spi.Schema;
+import org.embulk.spi.TestPageBuilderReader.MockPageOutput;
+import org.embulk.spi.util.Pages;
+import org.junit.Rule;
+import org.junit.Test;
+import org.msgpack.value.ValueFactory;
+
+import static org.embulk.spi.type.Types.JSON;
+import static org.embulk.spi.type.Types.LONG;
+import static org.embulk.spi.type.Types.STRING;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+public class TestShadowEngine
+{
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    private ShadowEngine shadow;
+
+    private PluginTask taskFromYamlString(String... lines)
+    {
+        StringBuilder builder = new StringBuilder();
+        for (String line : lines) {
+            builder.append(line).append("\n");
+        }
+        String yamlString = builder.toString();
+
+        ConfigLoader loader = new ConfigLoader(Exec.getModelManager());
+        ConfigSource config = loader.fromYamlString(yamlString);
+        return config.loadConfig(PluginTask.class);
+    }
+
+    // same with PageOutput#add of ColumnFilterPlugin
+    private List<Object[]> filter(PluginTask task, Schema inputSchema, Object ... objects)
+    {
+        MockPageOutput output = new MockPageOutput();
+        Schema outputSchema = ColumnFilterPlugin.buildOutputSchema(task, inputSchema);
+        RecordingPageBuilder pageBuilder = new RecordingPageBuilder(runtime.getBufferAllocator(), outputSchema, output);
+        PageReader pageReader = new PageReader(inputSchema);
+        ColumnVisitorImpl visitor = new ColumnVisitorImpl(task, inputSchema, outputSchema, pageReader, pageBuilder);
+        RecordFilter[] recordFilters = ColumnFilterPlugin.buildRecordFilters(task, inputSchema);
+        shadow = new ShadowEngine(task, inputSchema, outputSchema, pageReader, pageBuilder);
+
+        List<Page> pages = PageTestUtils.buildPage(runtime.getBufferAllocator(), inputSchema, objects);
+        for (Page page : pages) {
+            pageReader.setPage(page);
+            visitor.startPage();
+            shadow.startPage();
+            while (pageReader.nextRecord()) {
+                boolean accepted = true;
+                for (RecordFilter recordFilter : recordFilters) {
+                    accepted = accepted && recordFilter.accept(pageReader);
+                }
+                if (! accepted) {
+                    continue;
+                }
+                boolean sampled = shadow.startRecord();
+                if (visitor.visitRecord()) {
+                    pageBuilder.addRecord();
+                }
+                if (sampled) {
+                    shadow.endRecord(pageReader);
+                }
+            }
+            shadow.finishPage();
+        }
+        shadow.finish();
+        shadow.close();
+        pageBuilder.finish();
+        pageBuilder.close();
+        return Pages.toObjects(outputSchema, output.pages);
+    }
+
+    @Test
+    public void compare_AllRecords()
+    {
+        PluginTask task = taskFromYamlString(
+                "type: column",
+                "shadow_engine: columnar",
+                "shadow_sample_rate: 1.0",
+                "on_error: skip",
+                "where: [{column: id, operator: \">\", value: 0}]",
+                "columns:",
+                "  - {name: id}",
+                "  - {name: name, default: none, type: string, max_bytes: 3}",
+                "  - {name: json}",
+                "  - {name: \"$.json.a\"}",
+                "  - {name: text, type: json}",
+                "add_columns:",
+                "  - {name: row_number, generator: row_number}");
+        Schema inputSchema = Schema.builder()
+                .add("id", LONG)
+                .add("name", STRING)
+                .add("json", JSON)
+                .add("text", STRING)
+                .build();
+        List<Object[]> records = filter(task, inputSchema,
+                new Long(1), "abcdef", ValueFactory.newMap(ValueFactory.newString("a"), ValueFactory.newInteger(1), ValueFactory.newString("b"), ValueFactory.newInteger(2)), "[1]",
+                new Long(0), "filtered", null, null,
+                new Long(2), null, ValueFactory.newMap(ValueFactory.newInteger(1), ValueFactory.newString("non-string key")), null,
+                new Long(3), "abc", null, "{\"a\": true}");
+
+        assertEquals(2, records.size()); // filtered by where, and skipped by on_error
+        assertEquals("abc", records.get(0)[1]);
+        assertEquals(2, shadow.getComparedRecords());
+        assertEquals(0, shadow.getMismatches());
+        assertFalse(shadow.isFailed());
+    }
+
+    @Test
+    public void compare_SampledRecords()
+    {
+        PluginTask task = taskFromYamlString(
+                "type: column",
+                "shadow_engine: columnar",
+                "shadow_sample_rate: 0.5",
+                "columns:",
+                "  - {name: id, default: 0, type: long}");
+        Schema inputSchema = Schema.builder()
+                .add("id", LONG)
+                .build();
+        Object[] objects = new Object[100];
+        for (int i = 0; i < objects.length; i++) {
+            objects[i] = i % 2 == 0 ? null : new Long(i);
+        }
+        List<Object[]> records = filter(task, inputSchema, objects);
+
+        assertEquals(100, records.size());
+        assertTrue(shadow.getComparedRecords() > 0);
+        assertTrue(shadow.getComparedRecords() < 100);
+        assertEquals(0, shadow.getMismatches());
+    }
+}
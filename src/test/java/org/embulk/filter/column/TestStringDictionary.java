@@ -0,0 +1,44 @@
+package org.embulk.filter.column;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class TestStringDictionary
+{
+    @Test
+    public void get()
+    {
+        StringDictionary dictionary = new StringDictionary(10);
+        String a = new String("country");
+        String b = new String("country");
+        assertSame(a, dictionary.get(a));
+        assertSame(a, dictionary.get(b));
+        assertEquals(1, dictionary.size());
+    }
+
+    @Test
+    public void get_Full()
+    {
+        StringDictionary dictionary = new StringDictionary(1);
+        dictionary.get("a");
+        String b = new String("b");
+        String c = new String("b");
+        assertSame(b, dictionary.get(b));
+        assertNotSame(b, dictionary.get(c));
+        assertEquals(1, dictionary.size());
+    }
+
+    @Test
+    public void clear()
+    {
+        StringDictionary dictionary = new StringDictionary(10);
+        String a = new String("a");
+        dictionary.get(a);
+        dictionary.clear();
+        String b = new String("a");
+        assertSame(b, dictionary.get(b));
+    }
+}
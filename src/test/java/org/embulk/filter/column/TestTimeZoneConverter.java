@@ -0,0 +1,58 @@
+package org.embulk.filter.column;
+
+import org.embulk.config.ConfigException;
+import org.embulk.spi.time.Timestamp;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestTimeZoneConverter
+{
+    @Test
+    public void format()
+    {
+        TimeZoneConverter converter = new TimeZoneConverter(DateTimeZone.forID("Asia/Tokyo"), "%Y-%m-%d %H:%M:%S.%L %z %Z %%");
+        assertEquals("2015-07-13 09:00:00.123 +0900 Asia/Tokyo %", converter.format(Timestamp.ofEpochSecond(1436745600, 123000000)));
+        assertEquals("1969-12-31 23:59:59.000 +0900 Asia/Tokyo %", converter.format(Timestamp.ofEpochSecond(-32401)));
+
+        TimeZoneConverter nanos = new TimeZoneConverter(DateTimeZone.forID("America/St_Johns"), "%H:%M:%S.%N %z");
+        assertEquals("21:30:00.000000001 -0230", nanos.format(Timestamp.ofEpochSecond(1436745600, 1))); // daylight saving time
+        assertEquals("20:30:00.000000001 -0330", nanos.format(Timestamp.ofEpochSecond(1420070400, 1)));
+    }
+
+    @Test
+    public void shift()
+    {
+        TimeZoneConverter converter = new TimeZoneConverter(DateTimeZone.forID("America/New_York"), null);
+        assertEquals(Timestamp.ofEpochSecond(1436745600 - 4 * 3600, 5), converter.shift(Timestamp.ofEpochSecond(1436745600, 5)));
+        assertEquals(Timestamp.ofEpochSecond(1420070400 - 5 * 3600), converter.shift(Timestamp.ofEpochSecond(1420070400)));
+    }
+
+    @Test
+    public void getOffset_CachesTransitionRanges()
+    {
+        TimeZoneConverter converter = new TimeZoneConverter(DateTimeZone.forID("America/New_York"), null);
+        long summer = 1436745600000L; // 2015-07-13
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(-4 * 3600000, converter.getOffset(summer + i * 60000L));
+        }
+        assertEquals(1, converter.getLookups());
+
+        // 2015-11-01 06:00:00 UTC is the transition from EDT to EST
+        assertEquals(-4 * 3600000, converter.getOffset(1446357600000L - 1));
+        assertEquals(-5 * 3600000, converter.getOffset(1446357600000L));
+        assertEquals(2, converter.getLookups());
+
+        TimeZoneConverter fixed = new TimeZoneConverter(DateTimeZone.forOffsetHours(9), null);
+        fixed.getOffset(0);
+        fixed.getOffset(Long.MAX_VALUE / 2);
+        assertEquals(1, fixed.getLookups());
+    }
+
+    @Test(expected = ConfigException.class)
+    public void unsupportedFormat()
+    {
+        new TimeZoneConverter(DateTimeZone.UTC, "%Y-%j");
+    }
+}
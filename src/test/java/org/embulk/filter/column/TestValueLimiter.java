@@ -0,0 +1,59 @@
+package org.embulk.filter.column;
+
+import org.junit.Test;
+import org.msgpack.value.Value;
+import org.msgpack.value.ValueFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class TestValueLimiter
+{
+    @Test
+    public void limitString()
+    {
+        ValueLimiter limiter = new ValueLimiter(4, null);
+        String s = "abcd";
+        assertSame(s, limiter.limitString(s));
+        assertEquals("abcd", limiter.limitString("abcde"));
+        assertEquals("a\u3042", limiter.limitString("a\u3042\u3044")); // 1 + 3 bytes
+        assertEquals("\u00e9\u00e9", limiter.limitString("\u00e9\u00e9\u00e9")); // 2 + 2 bytes
+        assertEquals("\ud83d\ude00", limiter.limitString("\ud83d\ude00\ud83d\ude00")); // a surrogate pair is 4 bytes
+        assertEquals("abc", new ValueLimiter(5, null).limitString("abc\ud83d\ude00")); // not to split the pair
+    }
+
+    @Test
+    public void utf8Prefix()
+    {
+        assertEquals(0, ValueLimiter.utf8Prefix("\u3042", 2));
+        assertEquals(1, ValueLimiter.utf8Prefix("\u3042", 3));
+        assertEquals(3, ValueLimiter.utf8Prefix("abc", 100));
+    }
+
+    @Test
+    public void size()
+    {
+        Value value = ValueFactory.newMap(
+                ValueFactory.newString("a"), ValueFactory.newArray(ValueFactory.newInteger(1), ValueFactory.newNil()),
+                ValueFactory.newString("b"), ValueFactory.newString("x\"y"));
+        long expected = value.toJson().length(); // {"a":[1,null],"b":"x\"y"}
+        assertEquals(expected, ValueLimiter.size(value, 1, Integer.MAX_VALUE, expected));
+        assertEquals(-1, ValueLimiter.size(value, 1, Integer.MAX_VALUE, expected - 1));
+        assertEquals(-1, ValueLimiter.size(value, 1, 1, expected));
+        assertEquals(expected, ValueLimiter.size(value, 1, 2, expected));
+    }
+
+    @Test
+    public void limitJson()
+    {
+        Value value = ValueFactory.newMap(
+                ValueFactory.newString("a"), ValueFactory.newInteger(1),
+                ValueFactory.newString("b"), ValueFactory.newArray(ValueFactory.newInteger(2), ValueFactory.newInteger(3)),
+                ValueFactory.newString("c"), ValueFactory.newString("long string"));
+        assertSame(value, new ValueLimiter(1000, 2).limitJson(value));
+        assertEquals("{\"a\":1,\"b\":null,\"c\":\"long string\"}", new ValueLimiter(null, 1).limitJson(value).toJson());
+        assertEquals("{\"a\":1,\"b\":[2]}", new ValueLimiter(15, null).limitJson(value).toJson());
+        assertEquals("{\"a\":1,\"b\":[2,3],\"c\":\"lo\"}", new ValueLimiter(26, null).limitJson(value).toJson());
+        assertEquals("{}", new ValueLimiter(4, null).limitJson(value).toJson());
+    }
+}
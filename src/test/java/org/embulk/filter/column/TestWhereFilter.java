@@ -0,0 +1,149 @@
+package org.embulk.filter.column;
+
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.config.ConfigException;
+import org.embulk.config.ConfigLoader;
+import org.embulk.config.ConfigSource;
+import org.embulk.filter.column.ColumnFilterPlugin.PluginTask;
+import org.embulk.spi.Exec;
+import org.embulk.spi.Page;
+import org.embulk.spi.PageReader;
+import org.embulk.spi.PageTestUtils;
+import org.embulk.spi.Schema;
+import org.embulk.spi.time.Timestamp;
+import org.junit.Rule;
+import org.junit.Test;
+import org.msgpack.value.ValueFactory;
+
+import static org.embulk.spi.type.Types.BOOLEAN;
+import static org.embulk.spi.type.Types.DOUBLE;
+import static org.embulk.spi.type.Types.JSON;
+import static org.embulk.spi.type.Types.LONG;
+import static org.embulk.spi.type.Types.STRING;
+import static org.embulk.spi.type.Types.TIMESTAMP;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class TestWhereFilter
+{
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    private PluginTask taskFromYamlString(String... lines)
+    {
+        StringBuilder builder = new StringBuilder();
+        for (String line : lines) {
+            builder.append(line).append("\n");
+        }
+        String yamlString = builder.toString();
+
+        ConfigLoader loader = new ConfigLoader(Exec.getModelManager());
+        ConfigSource config = loader.fromYamlString(yamlString);
+        return config.loadConfig(PluginTask.class);
+    }
+
+    private List<Boolean> accept(PluginTask task, Schema inputSchema, Object ... objects)
+    {
+        WhereFilter filter = new WhereFilter(task, inputSchema);
+        PageReader pageReader = new PageReader(inputSchema);
+        List<Boolean> accepted = new ArrayList<>();
+        for (Page page : PageTestUtils.buildPage(runtime.getBufferAllocator(), inputSchema, objects)) {
+            pageReader.setPage(page);
+            while (pageReader.nextRecord()) {
+                accepted.add(filter.accept(pageReader));
+            }
+        }
+        return accepted;
+    }
+
+    @Test
+    public void accept_Comparison()
+    {
+        PluginTask task = taskFromYamlString(
+                "type: column",
+                "where:",
+                "  - {column: long, operator: \">=\", value: 10}",
+                "  - {column: double, operator: \"<\", value: 1.5}",
+                "  - {column: string, operator: \"!=\", value: ng}",
+                "  - {column: boolean, operator: \"==\", value: true}",
+                "  - {column: timestamp, operator: \">\", value: \"2015-07-13\", format: \"%Y-%m-%d\"}");
+        Schema inputSchema = Schema.builder()
+                .add("long", LONG)
+                .add("double", DOUBLE)
+                .add("string", STRING)
+                .add("boolean", BOOLEAN)
+                .add("timestamp", TIMESTAMP)
+                .build();
+        List<Boolean> accepted = accept(task, inputSchema,
+                new Long(10), new Double(1.0), "ok", new Boolean(true), Timestamp.ofEpochSecond(1436745601),
+                new Long(9), new Double(1.0), "ok", new Boolean(true), Timestamp.ofEpochSecond(1436745601),
+                new Long(10), new Double(1.5), "ok", new Boolean(true), Timestamp.ofEpochSecond(1436745601),
+                new Long(10), new Double(1.0), "ng", new Boolean(true), Timestamp.ofEpochSecond(1436745601),
+                new Long(10), new Double(1.0), "ok", new Boolean(false), Timestamp.ofEpochSecond(1436745601),
+                new Long(10), new Double(1.0), "ok", new Boolean(true), Timestamp.ofEpochSecond(1436745600),
+                null, new Double(1.0), "ok", new Boolean(true), Timestamp.ofEpochSecond(1436745601));
+        assertEquals(Arrays.asList(true, false, false, false, false, false, false), accepted);
+    }
+
+    @Test
+    public void accept_InAndNull()
+    {
+        PluginTask task = taskFromYamlString(
+                "type: column",
+                "where:",
+                "  - {column: country, operator: in, values: [JP, US]}",
+                "  - {column: id, operator: not_in, values: [1, 2]}",
+                "  - {column: deleted, operator: is_null}");
+        Schema inputSchema = Schema.builder()
+                .add("country", STRING)
+                .add("id", LONG)
+                .add("deleted", TIMESTAMP)
+                .build();
+        List<Boolean> accepted = accept(task, inputSchema,
+                "JP", new Long(3), null,
+                "FR", new Long(3), null,
+                "US", new Long(2), null,
+                "US", new Long(3), Timestamp.ofEpochSecond(0));
+        assertEquals(Arrays.asList(true, false, false, false), accepted);
+    }
+
+    @Test
+    public void accept_JsonPath()
+    {
+        PluginTask task = taskFromYamlString(
+                "type: column",
+                "where:",
+                "  - {column: $.json.type, operator: \"==\", value: purchase}",
+                "  - {column: \"$.json.items[0]\", operator: \">\", value: 1}");
+        Schema inputSchema = Schema.builder()
+                .add("json", JSON)
+                .build();
+        List<Boolean> accepted = accept(task, inputSchema,
+                ValueFactory.newMap(
+                        ValueFactory.newString("type"), ValueFactory.newString("purchase"),
+                        ValueFactory.newString("items"), ValueFactory.newArray(ValueFactory.newFloat(1.5))),
+                ValueFactory.newMap(
+                        ValueFactory.newString("type"), ValueFactory.newString("view"),
+                        ValueFactory.newString("items"), ValueFactory.newArray(ValueFactory.newInteger(2))),
+                ValueFactory.newMap(
+                        ValueFactory.newString("type"), ValueFactory.newString("purchase")),
+                null);
+        assertEquals(Arrays.asList(true, false, false, false), accepted);
+    }
+
+    @Test(expected = ConfigException.class)
+    public void configException_UnknownOperator()
+    {
+        PluginTask task = taskFromYamlString(
+                "type: column",
+                "where:",
+                "  - {column: id, operator: like, value: 1}");
+        Schema inputSchema = Schema.builder()
+                .add("id", LONG)
+                .build();
+        new WhereFilter(task, inputSchema);
+    }
+}
@@ -0,0 +1,47 @@
+package org.embulk.filter.column;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+
+public class TestXxHash64
+{
+    private long hash(String s)
+    {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        return new XxHash64().update(bytes, 0, bytes.length).digest();
+    }
+
+    @Test
+    public void digest()
+    {
+        assertEquals(0xEF46DB3751D8E999L, hash(""));
+        assertEquals(0xD24EC4F1A98C6E5BL, hash("a"));
+        assertEquals(0x44BC2CF5AD770999L, hash("abc"));
+        assertEquals(0xFBCEA83C8A378BF1L, hash("Nobody inspects the spammish repetition"));
+    }
+
+    @Test
+    public void updateUtf8()
+    {
+        String s = "\u65e5\u672c\ud83d\ude00\u00e9 and more than 32 bytes of ascii";
+        assertEquals(hash(s), new XxHash64().updateUtf8(s).digest());
+    }
+
+    @Test
+    public void hashLong()
+    {
+        long v = 0x0102030405060708L;
+        assertEquals(new XxHash64().reset(7L).updateLong(v).digest(), XxHash64.hashLong(v, 7L));
+    }
+
+    @Test
+    public void reset()
+    {
+        XxHash64 hasher = new XxHash64();
+        hasher.updateUtf8("garbage");
+        assertEquals(0x44BC2CF5AD770999L, hasher.reset(0L).updateUtf8("abc").digest());
+    }
+}